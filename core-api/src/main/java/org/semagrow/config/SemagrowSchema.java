@@ -24,6 +24,56 @@ public class SemagrowSchema {
 
     public static final IRI EXECUTORBATCHSIZE;
 
+    public static final IRI EXECUTORMAXBATCHSIZE;
+
+    public static final IRI BATCHSIZEFILE;
+
+    public static final IRI EXECUTORMAXINFLIGHT;
+
+    public static final IRI EXECUTORORDERED;
+
+    public static final IRI EXECUTORMAXJOINTABLESIZE;
+
+    public static final IRI EXECUTORMAXSITEREQUESTS;
+
+    public static final IRI EXECUTORSOURCEPOOLSIZE;
+
+    public static final IRI EXECUTORRESULTPREFETCH;
+
+    public static final IRI EXECUTORRESULTLOWWATERMARK;
+
+    public static final IRI EXECUTORMAXCONNECTIONS;
+
+    public static final IRI EXECUTORMAXSITECONNECTIONS;
+
+    public static final IRI EXECUTORCONNECTIONIDLETIMEOUT;
+
+    public static final IRI SOURCESELECTORCACHESIZE;
+
+    public static final IRI SOURCESELECTORCACHETTL;
+
+    public static final IRI ASKCACHEFILE;
+
+    public static final IRI SOURCESUMMARYFILE;
+
+    public static final IRI PLANNEREXHAUSTIVETHRESHOLD;
+
+    public static final IRI PLANNEREXHAUSTIVETIMEOUT;
+
+    public static final IRI PLANCACHESIZE;
+
+    public static final IRI SITE;
+
+    public static final IRI SITEID;
+
+    public static final IRI SITETYPE;
+
+    public static final IRI BINDJOINMODE;
+
+    public static final IRI MAXINFLIGHTREQUESTS;
+
+    public static final IRI MAXCONNECTIONS;
+
     public static final IRI QUERYTRANSFORMDB;
     public static final IRI QUERYTRANSFORMUSER;
     public static final IRI QUERYTRANSFORMPASSWORD;
@@ -39,6 +89,31 @@ public class SemagrowSchema {
         ValueFactory vf = SimpleValueFactory.getInstance();
         METADATAINIT = vf.createIRI(NAMESPACE, "metadataInit");
         EXECUTORBATCHSIZE = vf.createIRI(NAMESPACE, "executorBatchSize");
+        EXECUTORMAXBATCHSIZE = vf.createIRI(NAMESPACE, "executorMaxBatchSize");
+        BATCHSIZEFILE = vf.createIRI(NAMESPACE, "batchSizeFile");
+        EXECUTORMAXINFLIGHT = vf.createIRI(NAMESPACE, "executorMaxInflightBatches");
+        EXECUTORORDERED = vf.createIRI(NAMESPACE, "executorOrderedBindJoin");
+        EXECUTORMAXJOINTABLESIZE = vf.createIRI(NAMESPACE, "executorMaxJoinTableSize");
+        EXECUTORMAXSITEREQUESTS = vf.createIRI(NAMESPACE, "executorMaxSiteRequests");
+        EXECUTORSOURCEPOOLSIZE = vf.createIRI(NAMESPACE, "executorSourcePoolSize");
+        EXECUTORRESULTPREFETCH = vf.createIRI(NAMESPACE, "executorResultPrefetch");
+        EXECUTORRESULTLOWWATERMARK = vf.createIRI(NAMESPACE, "executorResultLowWatermark");
+        EXECUTORMAXCONNECTIONS = vf.createIRI(NAMESPACE, "executorMaxConnections");
+        EXECUTORMAXSITECONNECTIONS = vf.createIRI(NAMESPACE, "executorMaxSiteConnections");
+        EXECUTORCONNECTIONIDLETIMEOUT = vf.createIRI(NAMESPACE, "executorConnectionIdleTimeout");
+        SOURCESELECTORCACHESIZE = vf.createIRI(NAMESPACE, "sourceSelectorCacheSize");
+        SOURCESELECTORCACHETTL = vf.createIRI(NAMESPACE, "sourceSelectorCacheTTL");
+        ASKCACHEFILE = vf.createIRI(NAMESPACE, "askCacheFile");
+        SOURCESUMMARYFILE = vf.createIRI(NAMESPACE, "sourceSummaryFile");
+        PLANNEREXHAUSTIVETHRESHOLD = vf.createIRI(NAMESPACE, "plannerExhaustiveThreshold");
+        PLANNEREXHAUSTIVETIMEOUT = vf.createIRI(NAMESPACE, "plannerExhaustiveTimeout");
+        PLANCACHESIZE = vf.createIRI(NAMESPACE, "planCacheSize");
+        SITE = vf.createIRI(NAMESPACE, "site");
+        SITEID = vf.createIRI(NAMESPACE, "siteId");
+        SITETYPE = vf.createIRI(NAMESPACE, "siteType");
+        BINDJOINMODE = vf.createIRI(NAMESPACE, "bindJoinMode");
+        MAXINFLIGHTREQUESTS = vf.createIRI(NAMESPACE, "maxInflightRequests");
+        MAXCONNECTIONS = vf.createIRI(NAMESPACE, "maxConnections");
         QUERYTRANSFORMDB = vf.createIRI(NAMESPACE, "queryTransformDB");
         QUERYTRANSFORMUSER = vf.createIRI(NAMESPACE, "queryTransformUser");
         QUERYTRANSFORMPASSWORD = vf.createIRI(NAMESPACE, "queryTransformPass");
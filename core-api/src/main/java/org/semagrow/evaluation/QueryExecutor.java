@@ -19,4 +19,9 @@ public interface QueryExecutor {
     Publisher<BindingSet> evaluate(Site endpoint, TupleExpr expr, List<BindingSet> bindings)
             throws QueryEvaluationException;
 
+    /**
+     * Releases the resources of the executor; it is called by the owner of the executor.
+     */
+    default void shutDown() { }
+
 }
@@ -5,4 +5,13 @@ package org.semagrow.evaluation;
  */
 public class QueryExecutorConfigException extends Exception {
 
+    public QueryExecutorConfigException() { super(); }
+
+    public QueryExecutorConfigException(Exception e) {
+        super(e);
+    }
+
+    public QueryExecutorConfigException(String msg) {
+        super(msg);
+    }
 }
@@ -11,5 +11,9 @@ public interface QueryExecutorFactory {
 
     QueryExecutor getQueryExecutor(QueryExecutorImplConfig config) throws QueryExecutorConfigException;
 
+    /**
+     * Releases the resources held by the executors of the factory, such as pooled connections.
+     */
+    default void shutDown() { }
 
 }
@@ -0,0 +1,104 @@
+package org.semagrow.evaluation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounds the number of requests that are sent concurrently to a site without blocking:
+ * a request that finds no permit available is queued and its permit is granted,
+ * by completing the returned future, when a permit of another request is released.
+ *
+ * @author acharal
+ */
+public final class RequestLimiter {
+
+    private final Queue<CompletableFuture<Boolean>> waiting = new ArrayDeque<>();
+
+    private int limit;
+
+    private int active = 0;
+
+    /**
+     * @param limit the maximum number of concurrent requests; 0 for no limit
+     */
+    public RequestLimiter(int limit) {
+        this.limit = limit;
+    }
+
+    public synchronized int getLimit() { return limit; }
+
+    /**
+     * Changes the limit; the queued requests that fit in a larger limit are granted immediately.
+     * @param limit the maximum number of concurrent requests; 0 for no limit
+     */
+    public void setLimit(int limit) {
+        List<CompletableFuture<Boolean>> granted;
+
+        synchronized (this) {
+            this.limit = limit;
+            granted = grant();
+        }
+
+        complete(granted);
+    }
+
+    public synchronized int getActiveCount() { return active; }
+
+    public synchronized int getQueuedCount() { return waiting.size(); }
+
+    /**
+     * Requests a permit.
+     * @return a future that completes when the permit is granted; the permit must then be
+     *         released with {@link #release(CompletableFuture)}, even if it was never used
+     */
+    public CompletableFuture<Boolean> acquire() {
+        CompletableFuture<Boolean> permit = new CompletableFuture<>();
+
+        synchronized (this) {
+            if (limit <= 0 || active < limit) {
+                active++;
+                permit.complete(true);
+            } else {
+                waiting.add(permit);
+            }
+        }
+        return permit;
+    }
+
+    /**
+     * Releases the permit of a request, or withdraws the request if its permit
+     * has not been granted yet, and grants the freed permit to the next queued request.
+     */
+    public void release(CompletableFuture<Boolean> permit) {
+        List<CompletableFuture<Boolean>> granted;
+
+        synchronized (this) {
+            if (waiting.remove(permit))
+                return;
+
+            active--;
+            granted = grant();
+        }
+
+        complete(granted);
+    }
+
+    private List<CompletableFuture<Boolean>> grant() {
+        List<CompletableFuture<Boolean>> granted = new ArrayList<>();
+
+        while (!waiting.isEmpty() && (limit <= 0 || active < limit)) {
+            active++;
+            granted.add(waiting.poll());
+        }
+        return granted;
+    }
+
+    // the granted requests are resumed outside the lock, since they start evaluating on completion
+    private static void complete(List<CompletableFuture<Boolean>> granted) {
+        for (CompletableFuture<Boolean> permit : granted)
+            permit.complete(true);
+    }
+}
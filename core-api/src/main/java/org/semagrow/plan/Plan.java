@@ -43,6 +43,19 @@ public class Plan extends UnaryTupleOperator {
 
     public boolean hasDuplicates() { return true; }
 
+    /**
+     * Copies the plan along with its properties, so that the copy can be modified
+     * (e.g. renamed) without affecting the properties of the original.
+     */
+    @Override
+    public Plan clone() {
+        Plan plan = (Plan) super.clone();
+        PlanProperties props = getProperties().clone();
+        props.setCardinality(getProperties().getCardinality());
+        plan.setProperties(props);
+        return plan;
+    }
+
     public <X extends Exception> void visit(QueryModelVisitor<X> xQueryModelVisitor) throws X {
         //getArg().visit(xQueryModelVisitor);
         xQueryModelVisitor.meetOther(this);
@@ -3,6 +3,10 @@ package org.semagrow.plan;
 import org.semagrow.selector.Site;
 
 import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * A structure that contains the {@link Plan} properties needed
@@ -20,6 +24,13 @@ public class PlanProperties {
 
     private DataProperties dataProps;
 
+    /* estimates of the plan that depend on the names of its variables;
+     * they are memoized during the compilation and they are not inherited by clones */
+
+    private Map<String, Double> varSelectivities = new HashMap<>();
+
+    private Set<String> varNames;
+
     public BigInteger getCardinality() { return cardinality; }
 
     public void setCardinality(BigInteger card) { this.cardinality = card;}
@@ -40,6 +51,28 @@ public class PlanProperties {
         this.dataProps = dataProps;
     }
 
+    public Optional<Double> getVarSelectivity(String varName) {
+        return Optional.ofNullable(varSelectivities.get(varName));
+    }
+
+    public void setVarSelectivity(String varName, double sel) { varSelectivities.put(varName, sel); }
+
+    /**
+     * The names of the variables of the plan, if they have been computed.
+     */
+    public Optional<Set<String>> getVarNames() { return Optional.ofNullable(varNames); }
+
+    public void setVarNames(Set<String> varNames) { this.varNames = varNames; }
+
+    /**
+     * Discards the memoized estimates that depend on the names of the variables,
+     * e.g. after the variables of the plan have been renamed.
+     */
+    public void clearVarEstimates() {
+        varSelectivities.clear();
+        varNames = null;
+    }
+
     public static PlanProperties defaultProperties() {
         PlanProperties p = new PlanProperties();
         //p.setSite(LocalSite.getInstance());
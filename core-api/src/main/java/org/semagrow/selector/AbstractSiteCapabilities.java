@@ -1,5 +1,6 @@
 package org.semagrow.selector;
 
+import org.semagrow.evaluation.RequestLimiter;
 import org.semagrow.plan.Plan;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.ValueExpr;
@@ -36,4 +37,14 @@ public abstract class AbstractSiteCapabilities implements SiteCapabilities {
         return p1;
     }
 
+    @Override
+    public int getMaxInflightRequests() {
+        return 0;
+    }
+
+    @Override
+    public RequestLimiter getRequestLimiter() {
+        return null;
+    }
+
 }
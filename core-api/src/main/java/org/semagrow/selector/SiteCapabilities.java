@@ -1,5 +1,6 @@
 package org.semagrow.selector;
 
+import org.semagrow.evaluation.RequestLimiter;
 import org.semagrow.plan.Plan;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.ValueExpr;
@@ -21,4 +22,19 @@ public interface SiteCapabilities {
 
     TupleExpr enforceSite(Plan p1);
 
+    /**
+     * The maximum number of requests of a single operator that the site
+     * should receive concurrently (e.g. batches of a bind join).
+     * @return the limit or 0 if the site does not define one
+     */
+    int getMaxInflightRequests();
+
+    /**
+     * The limiter that bounds the number of requests that the site receives concurrently
+     * from all the operators of all the queries. The limiter is shared by every instance
+     * of the same site.
+     * @return the limiter or null if the site does not bound its requests
+     */
+    RequestLimiter getRequestLimiter();
+
 }
@@ -6,6 +6,8 @@ import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
@@ -40,4 +42,22 @@ public interface SourceSelector
      */
     Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings);
 
+    /**
+     * Returns the operational endpoints of each of the given patterns.
+     * Implementations that contact the data sources should resolve the patterns
+     * concurrently; the default implementation resolves them one by one.
+     * @param patterns
+     * @param dataset
+     * @param bindings
+     * @return the list of endpoints of each pattern
+     */
+    default Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+        Map<StatementPattern, Collection<SourceMetadata>> sources = new LinkedHashMap<>();
+        for (StatementPattern pattern : patterns) {
+            if (!sources.containsKey(pattern))
+                sources.put(pattern, getSources(pattern, dataset, bindings));
+        }
+        return sources;
+    }
+
 }
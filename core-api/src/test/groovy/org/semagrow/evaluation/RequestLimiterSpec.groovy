@@ -0,0 +1,58 @@
+package org.semagrow.evaluation
+
+import spock.lang.Specification
+
+class RequestLimiterSpec extends Specification {
+
+    def "the requests beyond the limit wait until a permit is released" () {
+        setup :
+            def limiter = new RequestLimiter(2)
+        when :
+            def p1 = limiter.acquire()
+            def p2 = limiter.acquire()
+            def p3 = limiter.acquire()
+        then :
+            p1.isDone() && p2.isDone()
+            !p3.isDone()
+            limiter.activeCount == 2
+            limiter.queuedCount == 1
+        when :
+            limiter.release(p1)
+        then :
+            p3.isDone()
+            limiter.activeCount == 2
+            limiter.queuedCount == 0
+    }
+
+    def "a withdrawn request does not hold a permit" () {
+        setup :
+            def limiter = new RequestLimiter(1)
+            def p1 = limiter.acquire()
+            def p2 = limiter.acquire()
+        when :
+            limiter.release(p2)
+            limiter.release(p1)
+        then :
+            !p2.isDone()
+            limiter.activeCount == 0
+            limiter.acquire().isDone()
+    }
+
+    def "a larger limit grants the waiting requests" () {
+        setup :
+            def limiter = new RequestLimiter(1)
+            limiter.acquire()
+            def p2 = limiter.acquire()
+        when :
+            limiter.setLimit(2)
+        then :
+            p2.isDone()
+    }
+
+    def "a limit of 0 does not bound the requests" () {
+        setup :
+            def limiter = new RequestLimiter(0)
+        expect :
+            (1..100).every { limiter.acquire().isDone() }
+    }
+}
@@ -30,7 +30,7 @@ public class SourceSelectorWithQueryTransform extends SourceSelectorWrapper {
     @Override
     public Collection<SourceMetadata> getSources(StatementPattern pattern, Dataset dataset, BindingSet bindings) {
 
-        Collection<SourceMetadata> lst = super.getSources(pattern, dataset, bindings);
+        Collection<SourceMetadata> lst = new LinkedList<>(super.getSources(pattern, dataset, bindings));
 
         Collection<FuzzyEntry<StatementPattern>> transformed = transformPattern(pattern);
 
@@ -44,6 +44,42 @@ public class SourceSelectorWithQueryTransform extends SourceSelectorWrapper {
         return lst;
     }
 
+    @Override
+    public Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+
+        // resolve the original and the transformed patterns with a single request
+        Map<StatementPattern, Collection<FuzzyEntry<StatementPattern>>> transformations = new LinkedHashMap<>();
+        Set<StatementPattern> all = new LinkedHashSet<>();
+
+        for (StatementPattern pattern : patterns) {
+            if (transformations.containsKey(pattern))
+                continue;
+
+            Collection<FuzzyEntry<StatementPattern>> transformed = transformPattern(pattern);
+            transformations.put(pattern, transformed);
+            all.add(pattern);
+            for (FuzzyEntry<StatementPattern> fep : transformed)
+                all.add(fep.getElem());
+        }
+
+        Map<StatementPattern, Collection<SourceMetadata>> sources = super.getSources(all, dataset, bindings);
+        Map<StatementPattern, Collection<SourceMetadata>> result = new LinkedHashMap<>();
+
+        for (Map.Entry<StatementPattern, Collection<FuzzyEntry<StatementPattern>>> e : transformations.entrySet()) {
+            StatementPattern pattern = e.getKey();
+            Collection<SourceMetadata> lst = new LinkedList<>(sources.getOrDefault(pattern, Collections.emptyList()));
+
+            for (FuzzyEntry<StatementPattern> fep : e.getValue()) {
+                for (SourceMetadata m : sources.getOrDefault(fep.getElem(), Collections.emptyList())) {
+                    lst.add(new FuzzySourceMetadata(pattern, m, fep));
+                }
+            }
+            result.put(pattern, lst);
+        }
+
+        return result;
+    }
+
     private Collection<FuzzyEntry<StatementPattern>> transformPattern(StatementPattern pattern)
     {
         Set<FuzzyEntry<StatementPattern>> transformedPatterns = new HashSet<FuzzyEntry<StatementPattern>>();
@@ -87,7 +87,6 @@ public class SimpleCostEstimator implements CostEstimator {
         // totalCost = costLeftArgument + queries * costOfRightArgumentWithBinding
 
         BigInteger leftCard = cardinalityEstimator.getCardinality(join.getLeftArg());
-        BigInteger rightCard = cardinalityEstimator.getCardinality(join.getRightArg());
         BigInteger joinCard = cardinalityEstimator.getCardinality(join);
 
         BigDecimal commuCost = BigDecimal.valueOf(C_TRANSFER_QUERY)
@@ -107,7 +106,6 @@ public class SimpleCostEstimator implements CostEstimator {
         // totalCost = costLeftArgument + queries * costOfRightArgumentWithBinding
 
         BigInteger leftCard = cardinalityEstimator.getCardinality(join.getLeftArg());
-        BigInteger rightCard = cardinalityEstimator.getCardinality(join.getRightArg());
         BigInteger joinCard = cardinalityEstimator.getCardinality(join);
 
         BigDecimal commuCost = BigDecimal.valueOf(C_TRANSFER_QUERY)
@@ -123,8 +121,23 @@ public class SimpleCostEstimator implements CostEstimator {
         BigInteger rightCard = cardinalityEstimator.getCardinality(join.getRightArg());
 
         //return (leftCard + rightCard) * C_TRANSFER_TUPLE + 2 * C_TRANSFER_QUERY;
-        return Cost.cpuCost(new BigDecimal(leftCard).multiply(BigDecimal.valueOf(C_HASH_TUPLE))
-                            .add(new BigDecimal(rightCard).multiply(BigDecimal.valueOf(C_PROBE_TUPLE))));
+        // both operands are evaluated in full, so their cost must be paid as well
+        return getCost(join.getLeftArg())
+                .add(getCost(join.getRightArg()))
+                .add(Cost.cpuCost(new BigDecimal(leftCard).multiply(BigDecimal.valueOf(C_HASH_TUPLE))
+                            .add(new BigDecimal(rightCard).multiply(BigDecimal.valueOf(C_PROBE_TUPLE)))));
+    }
+
+    public Cost getCost(SymmetricHashJoin join) {
+        BigInteger leftCard = cardinalityEstimator.getCardinality(join.getLeftArg());
+        BigInteger rightCard = cardinalityEstimator.getCardinality(join.getRightArg());
+
+        // every tuple of both operands is hashed and probed
+        BigDecimal card = new BigDecimal(leftCard.add(rightCard));
+
+        return getCost(join.getLeftArg())
+                .add(getCost(join.getRightArg()))
+                .add(Cost.cpuCost(card.multiply(BigDecimal.valueOf(C_HASH_TUPLE + C_PROBE_TUPLE))));
     }
 
     public Cost getCost(MergeJoin join) {
@@ -136,6 +149,8 @@ public class SimpleCostEstimator implements CostEstimator {
     public Cost getCost(Join join) {
         if (join instanceof BindJoin)
             return getCost((BindJoin)join);
+        else if (join instanceof SymmetricHashJoin)
+            return getCost((SymmetricHashJoin)join);
         else if (join instanceof HashJoin)
             return getCost((HashJoin)join);
         else if (join instanceof MergeJoin)
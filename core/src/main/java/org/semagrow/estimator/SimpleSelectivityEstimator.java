@@ -6,12 +6,15 @@ import org.eclipse.rdf4j.query.algebra.*;
 import org.eclipse.rdf4j.query.algebra.helpers.VarNameCollector;
 import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.semagrow.plan.Plan;
+import org.semagrow.plan.PlanProperties;
 import org.semagrow.plan.operators.SourceQuery;
 import org.semagrow.statistics.StatsItem;
 import org.semagrow.statistics.Statistics;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -146,9 +149,18 @@ public class SimpleSelectivityEstimator implements SelectivityEstimator {
     }
 
     public double getVarSelectivity(String varName, Plan p) {
-        return resolver.resolve(p.getProperties().getSite())
+        PlanProperties props = p.getProperties();
+        Optional<Double> memo = props.getVarSelectivity(varName);
+
+        if (memo.isPresent())
+            return memo.get();
+
+        double sel = resolver.resolve(props.getSite())
                 .map( est -> est.getVarSelectivity(varName, p.getArg()))
                 .orElse(1.0);
+
+        props.setVarSelectivity(varName, sel);
+        return sel;
     }
 
     public double getVarSelectivity(String varName, UnaryTupleOperator expr) {
@@ -181,11 +193,27 @@ public class SimpleSelectivityEstimator implements SelectivityEstimator {
 
     // helper
     private Set<String> getCommonVariables(TupleExpr expr1, TupleExpr expr2) {
-        Set<String> set1 = VarNameCollector.process(expr1);
-        Set<String> set2 = VarNameCollector.process(expr2);
+        Set<String> set1 = new HashSet<>(getVarNames(expr1));
+        Set<String> set2 = getVarNames(expr2);
         set1.retainAll(set2);
         return set1;
     }
 
+    // the variables of a plan are memoized, since the plans are joined repeatedly during enumeration
+    private Set<String> getVarNames(TupleExpr expr) {
+        if (expr instanceof Plan) {
+            PlanProperties props = ((Plan) expr).getProperties();
+            Optional<Set<String>> memo = props.getVarNames();
+
+            if (memo.isPresent())
+                return memo.get();
+
+            Set<String> varNames = Collections.unmodifiableSet(VarNameCollector.process(expr));
+            props.setVarNames(varNames);
+            return varNames;
+        }
+        return VarNameCollector.process(expr);
+    }
+
 
 }
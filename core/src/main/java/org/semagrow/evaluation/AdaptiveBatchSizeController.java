@@ -0,0 +1,291 @@
+package org.semagrow.evaluation;
+
+import org.semagrow.selector.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tunes the number of bindings that are sent with a single bind join request
+ * to each {@link Site}, based on the observed response times and failures.
+ * The batch size of a site grows gradually while its requests complete within
+ * the target latency and it shrinks on slow responses. It is halved on failures,
+ * such as timeouts or rejected requests (e.g. 414 Request-URI Too Long).
+ * <p>
+ * The learned batch sizes can be persisted in a properties file so that they
+ * survive restarts; the file is rewritten periodically while the sizes change
+ * and on {@link #shutdown()}. The sizes are also exposed through JMX.
+ *
+ * @author acharal
+ */
+public class AdaptiveBatchSizeController implements AdaptiveBatchSizeControllerMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSizeController.class);
+
+    private static final String OBJECT_NAME = "org.semagrow:type=AdaptiveBatchSizeController";
+
+    private static final int MIN_BATCH_SIZE = 1;
+
+    // weight of the most recent observation in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final ConcurrentMap<String, SiteState> states = new ConcurrentHashMap<>();
+
+    private final int initialBatchSize;
+
+    private volatile int maxBatchSize;
+
+    private volatile long targetLatency = 2000;
+
+    private volatile boolean dirty = false;
+
+    private File stateFile;
+
+    private ObjectName objectName;
+
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "semagrow-batch-size-save");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AdaptiveBatchSizeController(int initialBatchSize, int maxBatchSize) {
+        this.initialBatchSize = Math.max(MIN_BATCH_SIZE, initialBatchSize);
+        this.maxBatchSize = Math.max(this.initialBatchSize, maxBatchSize);
+        saver.scheduleWithFixedDelay(this::saveIfDirty, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of bindings that should be sent in a single request to {@code site}.
+     */
+    public int getBatchSize(Site site) {
+        SiteState state = states.get(key(site));
+        return (state == null) ? initialBatchSize : state.batchSize;
+    }
+
+    /**
+     * Records a request of {@code batchSize} bindings to {@code site} that completed
+     * in {@code latency} milliseconds and returned {@code results} bindings.
+     */
+    public void onSuccess(Site site, int batchSize, long latency, long results) {
+        SiteState state = getState(site);
+
+        synchronized (state) {
+            state.requests++;
+            state.averageLatency = average(state.averageLatency, latency, state.requests);
+            state.averageResults = average(state.averageResults, results, state.requests);
+
+            if (latency > targetLatency) {
+                state.batchSize = Math.max(MIN_BATCH_SIZE, state.batchSize * 3 / 4);
+            } else if (batchSize >= state.batchSize) {
+                // only full batches show that the current size is not a limit
+                state.batchSize = Math.min(maxBatchSize, state.batchSize + Math.max(1, state.batchSize / 4));
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Records a request of {@code batchSize} bindings to {@code site} that failed.
+     */
+    public void onFailure(Site site, int batchSize, Throwable error) {
+        SiteState state = getState(site);
+
+        synchronized (state) {
+            state.requests++;
+            state.failures++;
+            state.batchSize = Math.max(MIN_BATCH_SIZE, Math.min(state.batchSize, batchSize) / 2);
+        }
+        dirty = true;
+
+        logger.debug("Request of {} bindings to {} failed, batch size is now {}",
+                batchSize, site, state.batchSize, error);
+    }
+
+    public void setStateFile(File stateFile) { this.stateFile = stateFile; }
+
+    public File getStateFile() { return stateFile; }
+
+    /**
+     * Loads the batch sizes that were saved in the state file, if any.
+     */
+    public void load() {
+        if (stateFile == null || !stateFile.exists())
+            return;
+
+        Properties properties = new Properties();
+
+        try (InputStream in = new FileInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warn("Cannot load batch sizes from {}", stateFile, e);
+            return;
+        }
+
+        for (String site : properties.stringPropertyNames()) {
+            try {
+                int size = Integer.parseInt(properties.getProperty(site));
+                SiteState state = states.computeIfAbsent(site, k -> new SiteState(initialBatchSize));
+                state.batchSize = Math.max(MIN_BATCH_SIZE, Math.min(maxBatchSize, size));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid batch size for {}", site);
+            }
+        }
+        logger.info("Loaded batch sizes of {} sites from {}", states.size(), stateFile);
+    }
+
+    /**
+     * Saves the current batch sizes in the state file, if any.
+     */
+    public synchronized void save() {
+        if (stateFile == null)
+            return;
+
+        dirty = false;
+
+        Properties properties = new Properties();
+
+        for (Map.Entry<String, Integer> e : getBatchSizes().entrySet())
+            properties.setProperty(e.getKey(), e.getValue().toString());
+
+        try (OutputStream out = new FileOutputStream(stateFile)) {
+            properties.store(out, "learned bind join batch sizes");
+        } catch (IOException e) {
+            logger.warn("Cannot save batch sizes to {}", stateFile, e);
+        }
+    }
+
+    /**
+     * Saves the batch sizes and stops the periodic saving.
+     */
+    public void shutdown() {
+        saver.shutdownNow();
+        save();
+    }
+
+    private void saveIfDirty() {
+        if (dirty)
+            save();
+    }
+
+    /**
+     * Registers the controller to the platform MBean server.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            logger.warn("Cannot register batch size controller to JMX", e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("Cannot unregister batch size controller from JMX", e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public Map<String, Integer> getBatchSizes() {
+        return collect(s -> s.batchSize);
+    }
+
+    @Override
+    public Map<String, Long> getAverageLatencies() {
+        return collect(s -> Math.round(s.averageLatency));
+    }
+
+    @Override
+    public Map<String, Long> getAverageResults() {
+        return collect(s -> Math.round(s.averageResults));
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        return collect(s -> s.requests);
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        return collect(s -> s.failures);
+    }
+
+    @Override
+    public long getTargetLatency() { return targetLatency; }
+
+    @Override
+    public void setTargetLatency(long millis) { targetLatency = millis; }
+
+    @Override
+    public int getMaxBatchSize() { return maxBatchSize; }
+
+    @Override
+    public void setMaxBatchSize(int size) { maxBatchSize = Math.max(MIN_BATCH_SIZE, size); }
+
+    @Override
+    public void reset() { states.clear(); }
+
+    private SiteState getState(Site site) {
+        return states.computeIfAbsent(key(site), k -> new SiteState(initialBatchSize));
+    }
+
+    private <T> Map<String, T> collect(Function<SiteState, T> f) {
+        Map<String, T> result = new TreeMap<>();
+        for (Map.Entry<String, SiteState> e : states.entrySet()) {
+            synchronized (e.getValue()) {
+                result.put(e.getKey(), f.apply(e.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private static String key(Site site) {
+        return site.getID().stringValue();
+    }
+
+    private static double average(double average, long value, long count) {
+        return (count == 1) ? value : (1 - ALPHA) * average + ALPHA * value;
+    }
+
+    private static class SiteState {
+
+        volatile int batchSize;
+
+        double averageLatency = 0;
+
+        double averageResults = 0;
+
+        long requests = 0;
+
+        long failures = 0;
+
+        SiteState(int batchSize) { this.batchSize = batchSize; }
+    }
+}
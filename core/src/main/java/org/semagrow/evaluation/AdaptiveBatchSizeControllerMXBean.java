@@ -0,0 +1,31 @@
+package org.semagrow.evaluation;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link AdaptiveBatchSizeController}.
+ * The maps are keyed by the identifier of each site.
+ * @author acharal
+ */
+public interface AdaptiveBatchSizeControllerMXBean {
+
+    Map<String, Integer> getBatchSizes();
+
+    Map<String, Long> getAverageLatencies();
+
+    Map<String, Long> getAverageResults();
+
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getFailureCounts();
+
+    long getTargetLatency();
+
+    void setTargetLatency(long millis);
+
+    int getMaxBatchSize();
+
+    void setMaxBatchSize(int size);
+
+    void reset();
+}
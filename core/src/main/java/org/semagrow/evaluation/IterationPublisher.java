@@ -22,7 +22,7 @@ public class IterationPublisher<T> implements Publisher<T> {
 
         subscriber.onSubscribe(new Subscription() {
 
-            boolean canceled = false;
+            volatile boolean canceled = false;
             @Override
             public void request(long l) {
 
@@ -31,11 +31,13 @@ public class IterationPublisher<T> implements Publisher<T> {
 
                 if (l ==  Long.MAX_VALUE) {
                     try {
-                        while (iter.hasNext()) {
+                        while (!canceled && iter.hasNext()) {
                             subscriber.onNext(iter.next());
                         }
-                        subscriber.onComplete();
-                        Iterations.closeCloseable(iter);
+                        if (!canceled) {
+                            subscriber.onComplete();
+                            Iterations.closeCloseable(iter);
+                        }
                     } catch (Exception e) {
                         subscriber.onError(e);
                     }
@@ -44,11 +46,11 @@ public class IterationPublisher<T> implements Publisher<T> {
                     long numEmit = l;
 
                     try {
-                        while (iter.hasNext() && --numEmit >= 0) {
+                        while (!canceled && iter.hasNext() && --numEmit >= 0) {
                             subscriber.onNext(iter.next());
                         }
 
-                        if (!iter.hasNext()) {
+                        if (!canceled && !iter.hasNext()) {
                             subscriber.onComplete();
                             Iterations.closeCloseable(iter);
                         }
@@ -61,6 +63,11 @@ public class IterationPublisher<T> implements Publisher<T> {
             @Override
             public void cancel() {
                 canceled = true;
+                try {
+                    Iterations.closeCloseable(iter);
+                } catch (Exception e) {
+                    // the iteration is abandoned anyway
+                }
             }
         });
     }
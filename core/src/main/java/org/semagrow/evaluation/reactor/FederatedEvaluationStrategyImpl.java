@@ -1,10 +1,15 @@
 package org.semagrow.evaluation.reactor;
 
 import org.semagrow.algebra.TupleExprs;
+import org.semagrow.evaluation.AdaptiveBatchSizeController;
 import org.semagrow.evaluation.QueryExecutorResolver;
+import org.semagrow.evaluation.RequestLimiter;
 import org.semagrow.evaluation.SimpleQueryExecutorResolver;
 import org.semagrow.evaluation.util.BindingSetUtil;
+import org.semagrow.evaluation.util.JoinHashTable;
+import org.semagrow.evaluation.util.SymmetricJoinHashTable;
 import org.semagrow.evaluation.util.LoggingUtil;
+import org.semagrow.plan.Pair;
 import org.semagrow.plan.Plan;
 import org.semagrow.evaluation.QueryExecutor;
 
@@ -22,9 +27,17 @@ import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * Created by antonis on 26/3/2015.
@@ -37,6 +50,16 @@ public class FederatedEvaluationStrategyImpl extends EvaluationStrategyImpl {
 
     private int batchSize = 10;
 
+    private int maxJoinTableSize = 100000;
+
+    private AdaptiveBatchSizeController batchSizeController;
+
+    private int maxInflightBatches = 4;
+
+    private boolean orderedBindJoin = false;
+
+    private Function<Site, RequestLimiter> requestLimiters = s -> s.getCapabilities().getRequestLimiter();
+
     public FederatedEvaluationStrategyImpl(final ValueFactory vf) {
         super(new TripleSource() {
             public CloseableIteration<? extends Statement, QueryEvaluationException>
@@ -62,6 +85,75 @@ public class FederatedEvaluationStrategyImpl extends EvaluationStrategyImpl {
         return batchSize;
     }
 
+    /**
+     * Sets the maximum number of batches of a bind join that are evaluated concurrently,
+     * unless the site of the bind join defines its own limit.
+     * @param n the number of batches
+     */
+    public void setMaxInflightBatches(int n) {
+        maxInflightBatches = Math.max(1, n);
+    }
+
+    public int getMaxInflightBatches() {
+        return maxInflightBatches;
+    }
+
+    /**
+     * Sets whether the bind joins preserve the order of their left operand.
+     * Unordered bind joins emit the results of each batch as soon as they arrive.
+     * @param ordered true if the order should be preserved
+     */
+    public void setOrderedBindJoin(boolean ordered) {
+        orderedBindJoin = ordered;
+    }
+
+    public boolean isOrderedBindJoin() {
+        return orderedBindJoin;
+    }
+
+    /**
+     * Sets how the limiter that bounds the concurrent requests to a site is found.
+     * By default, only the sites that define their own limiter are bounded.
+     * @param limiters returns the limiter of a site or null if the site is not bounded
+     */
+    public void setRequestLimiters(Function<Site, RequestLimiter> limiters) {
+        requestLimiters = limiters;
+    }
+
+    /**
+     * Sets how the executor that evaluates the subqueries of a site is found.
+     * By default, the shared executors of the {@link org.semagrow.evaluation.QueryExecutorRegistry} are used.
+     */
+    public void setQueryExecutorResolver(QueryExecutorResolver resolver) {
+        queryExecutorResolver = resolver;
+    }
+
+    /**
+     * Sets the controller that tunes the batch size of the bind joins per site.
+     * If it is not set, every bind join uses {@link #getBatchSize()}.
+     * @param controller the controller to use or null
+     */
+    public void setBatchSizeController(AdaptiveBatchSizeController controller) {
+        batchSizeController = controller;
+    }
+
+    public AdaptiveBatchSizeController getBatchSizeController() {
+        return batchSizeController;
+    }
+
+    /**
+     * Sets the maximum number of tuples that a symmetric hash join keeps in memory
+     * before spilling the tuples of its operands to disk.
+     * @param size the number of tuples
+     */
+    public void setMaxJoinTableSize(int size) {
+        maxJoinTableSize = size;
+    }
+
+    public int getMaxJoinTableSize() {
+        return maxJoinTableSize;
+    }
+
     @Override
     public Flux<BindingSet> evaluateReactorInternal(TupleExpr expr, BindingSet bindings)
             throws QueryEvaluationException
@@ -84,6 +176,9 @@ public class FederatedEvaluationStrategyImpl extends EvaluationStrategyImpl {
         if (expr instanceof BindJoin) {
             return evaluateReactorInternal((BindJoin) expr, bindings);
         }
+        else if (expr instanceof SymmetricHashJoin) {
+            return evaluateReactorInternal((SymmetricHashJoin) expr, bindings);
+        }
         else if (expr instanceof HashJoin) {
             return evaluateReactorInternal((HashJoin) expr, bindings);
         }
@@ -98,66 +193,204 @@ public class FederatedEvaluationStrategyImpl extends EvaluationStrategyImpl {
         }
     }
 
-    /*
-    private static <T, K, E> Stream<Map<K, List<E>>> toMultiMap(Stream<T> s, reactor.fn.Function<T, K> k, reactor.fn.Function<T,E> e) {
-        s.groupBy(k)
+    public Flux<BindingSet> evaluateReactorInternal(HashJoin expr, BindingSet bindings)
+            throws QueryEvaluationException
+    {
+        return hashJoin(expr.getLeftArg(), expr.getRightArg(), bindings);
     }
-    */
-    /*
-    public Stream<BindingSet> evaluateReactorInternal(HashJoin expr, BindingSet bindings)
+
+    public Flux<BindingSet> evaluateReactorInternal(MergeJoin expr, BindingSet bindings)
             throws QueryEvaluationException
     {
-        Stream<BindingSet> r = evaluateReactorInternal(expr.getRightArg(), bindings);
+        // the remote sources do not guarantee any order on their results,
+        // therefore merge joins are evaluated as hash joins.
+        return hashJoin(expr.getLeftArg(), expr.getRightArg(), bindings);
+    }
 
-        Set<String> joinAttributes = expr.getLeftArg().getBindingNames();
+    public Flux<BindingSet> evaluateReactorInternal(SymmetricHashJoin expr, BindingSet bindings)
+            throws QueryEvaluationException
+    {
+        Set<String> joinAttributes = new HashSet<>(expr.getLeftArg().getBindingNames());
         joinAttributes.retainAll(expr.getRightArg().getBindingNames());
 
-        return evaluateReactorInternal(expr.getLeftArg(), bindings)
-                .toMultimap(b -> calcKey(b, joinAttributes), b1 -> b1)
-                .flatMap((probe) ->
-                                r.concatMap(b -> {
-                                    if (!probe.containsKey(calcKey(b, joinAttributes)))
-                                        return Stream.empty();
-                                    else
-                                        return Stream.from(probe.get(calcKey(b, joinAttributes)))
-                                                .merge(Stream.just(b),
-                                                        b1 -> Stream.never(),
-                                                        b1 -> Stream.never(),
-                                                        FederatedReactiveEvaluationStrategyImpl::joinBindings);
-                                })
-                );
-    }
-
-    public static Stream<BindingSet> hashJoin(Stream<BindingSet> left, Stream<BindingSet> right, Set<String> joinAttributes) {
-        return left.toMultimap(b -> calcKey(b, joinAttributes), b1 -> b1)
-                .flatMap((probe) -> right.concatMap(b -> {
-                            if (!probe.containsKey(calcKey(b, joinAttributes)))
-                                return Streams.empty();
-                            else
-                                return Streams.from(probe.get(calcKey(b, joinAttributes)))
-                                        .merge(Streams.from(b),
-                                                b1 -> Stream.never(),
-                                                b1 -> Stream.never(),
-                                                FederatedReactiveEvaluationStrategyImpl::joinBindings);
-                        })
-                );
-    }
-    */
+        Flux<Pair<Boolean, BindingSet>> left = evaluateReactorInternal(expr.getLeftArg(), bindings)
+                .map(b -> new Pair<>(true, b));
+
+        Flux<Pair<Boolean, BindingSet>> right = evaluateReactorInternal(expr.getRightArg(), bindings)
+                .map(b -> new Pair<>(false, b));
+
+        // both operands are subscribed at once; merge serializes the tuples
+        // so that the hash tables are never accessed concurrently.
+        return Flux.using(
+                () -> new SymmetricJoinHashTable(joinAttributes, getMaxJoinTableSize(), bindingSetOps),
+                table -> Flux.merge(left, right)
+                        .flatMapIterable(t -> t.getFirst()
+                                ? table.insertLeft(t.getSecond())
+                                : table.insertRight(t.getSecond()))
+                        .concatWith(Flux.defer(() -> Flux.fromIterable(table.remaining()))),
+                SymmetricJoinHashTable::close);
+    }
 
-    public Flux<BindingSet> evaluateReactorInternal(BindJoin expr, BindingSet bindings)
+    /**
+     * Evaluates the join of two operands by building a hash table on the
+     * smaller operand and probing it while streaming the results of the other.
+     * The probing side is not evaluated at all if the build side is empty.
+     */
+    protected Flux<BindingSet> hashJoin(TupleExpr left, TupleExpr right, BindingSet bindings)
             throws QueryEvaluationException
     {
-        return this.evaluateReactorInternal(expr.getLeftArg(), bindings)
-                .buffer(getBatchSize())
-                .flatMap((b) -> {
-                    try {
-                        return evaluateReactorInternal(expr.getRightArg(), b);
-                    } catch (Exception e) {
-                        return Flux.error(e);
-                    }
+        Set<String> joinAttributes = new HashSet<>(left.getBindingNames());
+        joinAttributes.retainAll(right.getBindingNames());
+
+        TupleExpr build = left;
+        TupleExpr probe = right;
+
+        if (isSmaller(right, left)) {
+            build = right;
+            probe = left;
+        }
+
+        Flux<BindingSet> probeSide = evaluateReactorInternal(probe, bindings);
+
+        return evaluateReactorInternal(build, bindings)
+                .collect(() -> new JoinHashTable(joinAttributes), JoinHashTable::add)
+                .flatMap(table -> {
+                    if (table.isEmpty())
+                        return Flux.<BindingSet>empty();
+
+                    return probeSide.flatMapIterable(b -> {
+                        List<BindingSet> matches = table.probe(b);
+                        List<BindingSet> joined = new ArrayList<>(matches.size());
+                        for (BindingSet m : matches)
+                            joined.add(bindingSetOps.merge(b, m));
+                        return joined;
+                    });
                 });
     }
 
+    private boolean isSmaller(TupleExpr expr1, TupleExpr expr2) {
+        BigInteger card1 = getCardinality(expr1);
+        BigInteger card2 = getCardinality(expr2);
+
+        if (card1 == null || card2 == null)
+            return false;
+
+        return card1.compareTo(card2) < 0;
+    }
+
+    private BigInteger getCardinality(TupleExpr expr) {
+        if (expr instanceof Plan)
+            return ((Plan) expr).getProperties().getCardinality();
+        else
+            return null;
+    }
+
+    public Flux<BindingSet> evaluateReactorInternal(BindJoin expr, BindingSet bindings)
+            throws QueryEvaluationException
+    {
+        Site site = getRemoteSite(expr.getRightArg());
+
+        boolean adaptive = (site != null && batchSizeController != null);
+
+        // the limiter of the site is shared by the bind joins of all the queries
+        RequestLimiter limiter = (site != null) ? requestLimiters.apply(site) : null;
+
+        Function<List<BindingSet>, Publisher<BindingSet>> request = (b) -> {
+            try {
+                Flux<BindingSet> result = evaluateReactorInternal(expr.getRightArg(), b);
+                result = adaptive ? observe(result, site, b.size()) : result;
+                return (limiter != null) ? withPermit(result, limiter) : result;
+            } catch (Exception e) {
+                return Flux.error(e);
+            }
+        };
+
+        // at most that many batches are in flight; the next batch of the left
+        // operand is sent as soon as one of the in-flight batches completes.
+        int maxInflight = getMaxInflightBatches(site);
+
+        Flux<BindingSet> left = this.evaluateReactorInternal(expr.getLeftArg(), bindings);
+
+        // an adaptive batch size is read again for every batch, so that a long
+        // bind join follows the size that is learned while it runs
+        Flux<List<BindingSet>> batches = adaptive
+                ? Flux.defer(() -> {
+                    AtomicLong count = new AtomicLong();
+                    return left.bufferUntil(b -> {
+                        if (count.incrementAndGet() < batchSizeController.getBatchSize(site))
+                            return false;
+                        count.set(0);
+                        return true;
+                    });
+                })
+                : left.buffer(getBatchSize());
+
+        if (isOrderedBindJoin())
+            return batches.flatMapSequential(request, maxInflight);
+        else
+            return batches.flatMap(request, maxInflight);
+    }
+
+    private int getMaxInflightBatches(Site site) {
+        if (site != null && site.getCapabilities().getMaxInflightRequests() > 0)
+            return site.getCapabilities().getMaxInflightRequests();
+        else
+            return getMaxInflightBatches();
+    }
+
+    /**
+     * Evaluates a request while holding a permit of its site. No thread waits for the permit;
+     * the request is subscribed when the permit is granted, and the permit is released when
+     * the request completes, fails or is cancelled.
+     */
+    private Flux<BindingSet> withPermit(Flux<BindingSet> result, RequestLimiter limiter) {
+        return Flux.defer(() -> {
+            CompletableFuture<Boolean> permit = limiter.acquire();
+            AtomicBoolean released = new AtomicBoolean();
+
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true))
+                    limiter.release(permit);
+            };
+
+            return Flux.from(Mono.fromFuture(permit))
+                    .concatMap(granted -> result)
+                    .doAfterTerminate(release)
+                    .doOnCancel(release);
+        });
+    }
+
+    /**
+     * Reports the latency, the number of results and the failure of a
+     * bind join request to the batch size controller.
+     */
+    private Flux<BindingSet> observe(Flux<BindingSet> result, Site site, int batchSize) {
+        return Flux.defer(() -> {
+            long start = System.currentTimeMillis();
+            AtomicLong count = new AtomicLong();
+
+            return result
+                    .doOnNext(b -> count.incrementAndGet())
+                    .doOnComplete(() -> batchSizeController.onSuccess(site, batchSize,
+                            System.currentTimeMillis() - start, count.get()))
+                    .doOnError(e -> batchSizeController.onFailure(site, batchSize, e));
+        });
+    }
+
+    /**
+     * Finds the remote site that evaluates a given expression as a whole.
+     * @return the site or null if the expression is not evaluated by a single remote site
+     */
+    private Site getRemoteSite(TupleExpr expr) {
+        if (expr instanceof Plan)
+            return getRemoteSite(((Plan) expr).getArg());
+        else if (expr instanceof SourceQuery) {
+            Site site = ((SourceQuery) expr).getSite();
+            return site.isRemote() ? site : null;
+        }
+        return null;
+    }
+
     public Flux<BindingSet> evaluateReactorInternal(SourceQuery expr, BindingSet bindings)
             throws QueryEvaluationException
     {
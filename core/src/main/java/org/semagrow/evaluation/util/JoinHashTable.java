@@ -0,0 +1,87 @@
+package org.semagrow.evaluation.util;
+
+import org.eclipse.rdf4j.query.BindingSet;
+
+import java.util.*;
+
+/**
+ * An in-memory hash table of {@link BindingSet}s keyed on a fixed set
+ * of join attributes. Binding sets that do not bind every join attribute
+ * cannot be hashed reliably and are kept aside; they are checked against
+ * every probe using {@link BindingSetUtil#agreesOn(BindingSet, BindingSet)}.
+ *
+ * @author acharal
+ */
+public class JoinHashTable {
+
+    private final String[] joinAttributes;
+
+    private final Map<JoinKey, List<BindingSet>> table = new HashMap<>();
+
+    private final List<BindingSet> partial = new ArrayList<>();
+
+    private int size = 0;
+
+    public JoinHashTable(Collection<String> joinAttributes) {
+        this.joinAttributes = joinAttributes.toArray(new String[joinAttributes.size()]);
+    }
+
+    public void add(BindingSet bindings) {
+        JoinKey key = JoinKey.of(joinAttributes, bindings);
+        if (key.isComplete())
+            table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(bindings);
+        else
+            partial.add(bindings);
+        size++;
+    }
+
+    /**
+     * Finds the binding sets of the table that are compatible with {@code bindings}
+     * on the join attributes.
+     * @param bindings the probing binding set
+     * @return the list of matching binding sets
+     */
+    public List<BindingSet> probe(BindingSet bindings) {
+        JoinKey key = JoinKey.of(joinAttributes, bindings);
+
+        if (!key.isComplete())
+            return scan(bindings);
+
+        List<BindingSet> matches = table.getOrDefault(key, Collections.emptyList());
+
+        if (partial.isEmpty())
+            return matches;
+
+        List<BindingSet> result = new ArrayList<>(matches);
+        for (BindingSet b : partial) {
+            if (BindingSetUtil.agreesOn(b, bindings))
+                result.add(b);
+        }
+        return result;
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        table.clear();
+        partial.clear();
+        size = 0;
+    }
+
+    private List<BindingSet> scan(BindingSet bindings) {
+        List<BindingSet> result = new ArrayList<>();
+        for (List<BindingSet> bucket : table.values()) {
+            for (BindingSet b : bucket) {
+                if (BindingSetUtil.agreesOn(b, bindings))
+                    result.add(b);
+            }
+        }
+        for (BindingSet b : partial) {
+            if (BindingSetUtil.agreesOn(b, bindings))
+                result.add(b);
+        }
+        return result;
+    }
+}
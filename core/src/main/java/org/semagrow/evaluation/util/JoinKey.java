@@ -0,0 +1,71 @@
+package org.semagrow.evaluation.util;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+
+import java.util.Arrays;
+
+/**
+ * A compact key over the values of a fixed list of join attributes.
+ * It is used as a hash table key in hash-based joins instead of
+ * projecting each {@link BindingSet} into a new {@link BindingSet}.
+ * Unbound attributes are represented as {@code null} values.
+ *
+ * @author acharal
+ */
+public final class JoinKey {
+
+    private final Value[] values;
+    private final int hash;
+
+    private JoinKey(Value[] values) {
+        this.values = values;
+        this.hash = Arrays.hashCode(values);
+    }
+
+    /**
+     * Creates a key with the values of the {@code names} in {@code bindings}.
+     * @param names the join attributes; the order must be the same for all keys that are compared
+     * @param bindings the binding set to extract the values from
+     * @return the key of {@code bindings}
+     */
+    public static JoinKey of(String[] names, BindingSet bindings) {
+        Value[] values = new Value[names.length];
+        for (int i = 0; i < names.length; i++)
+            values[i] = bindings.getValue(names[i]);
+        return new JoinKey(values);
+    }
+
+    /**
+     * Checks whether all the join attributes are bound.
+     * @return true if no value of the key is missing
+     */
+    public boolean isComplete() {
+        for (Value v : values) {
+            if (v == null)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o instanceof JoinKey) {
+            JoinKey k = (JoinKey) o;
+            return hash == k.hash && Arrays.equals(values, k.values);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,249 @@
+package org.semagrow.evaluation.util;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.semagrow.evaluation.BindingSetOps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The state of a symmetric hash join. Tuples of both operands are probed against
+ * the hash table of the opposite operand and then inserted in their own hash table.
+ * When the total number of tuples kept in memory reaches {@code maxSize}, tuples
+ * that arrive later are still probed against the in-memory tables but are spilled
+ * to temporary files instead of being inserted. The only pairs that are not
+ * produced during insertion are the ones where both tuples are spilled; those are
+ * produced by {@link #remaining()} after both operands are exhausted, by joining
+ * the spilled files in chunks of at most {@code maxSize} tuples.
+ * <p>
+ * Instances are not thread-safe; insertions are expected to be serialized.
+ *
+ * @author acharal
+ */
+public class SymmetricJoinHashTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SymmetricJoinHashTable.class);
+
+    private final Collection<String> joinAttributes;
+
+    private final JoinHashTable leftTable;
+    private final JoinHashTable rightTable;
+
+    private final int maxSize;
+
+    private final BindingSetOps bindingSetOps;
+
+    private SpillFile leftSpill;
+    private SpillFile rightSpill;
+
+    public SymmetricJoinHashTable(Collection<String> joinAttributes, int maxSize, BindingSetOps bindingSetOps) {
+        this.joinAttributes = joinAttributes;
+        this.leftTable = new JoinHashTable(joinAttributes);
+        this.rightTable = new JoinHashTable(joinAttributes);
+        this.maxSize = Math.max(1, maxSize);
+        this.bindingSetOps = bindingSetOps;
+    }
+
+    /**
+     * Inserts a tuple of the left operand.
+     * @return the joined tuples that can be produced with the tuples of the right operand seen so far
+     */
+    public List<BindingSet> insertLeft(BindingSet bindings) {
+        List<BindingSet> matches = rightTable.probe(bindings);
+        List<BindingSet> joined = new ArrayList<>(matches.size());
+        for (BindingSet m : matches)
+            joined.add(bindingSetOps.merge(bindings, m));
+
+        if (isFull())
+            leftSpill = spill(leftSpill, bindings);
+        else
+            leftTable.add(bindings);
+
+        return joined;
+    }
+
+    /**
+     * Inserts a tuple of the right operand.
+     * @return the joined tuples that can be produced with the tuples of the left operand seen so far
+     */
+    public List<BindingSet> insertRight(BindingSet bindings) {
+        List<BindingSet> matches = leftTable.probe(bindings);
+        List<BindingSet> joined = new ArrayList<>(matches.size());
+        for (BindingSet m : matches)
+            joined.add(bindingSetOps.merge(m, bindings));
+
+        if (isFull())
+            rightSpill = spill(rightSpill, bindings);
+        else
+            rightTable.add(bindings);
+
+        return joined;
+    }
+
+    /**
+     * Returns the joined tuples of which both operand tuples are spilled.
+     * Must be called only after both operands are exhausted.
+     */
+    public Iterable<BindingSet> remaining() {
+        if (leftSpill == null || rightSpill == null)
+            return Collections.emptyList();
+
+        // the in-memory tables are not needed anymore
+        leftTable.clear();
+        rightTable.clear();
+
+        logger.debug("Joining {} and {} spilled tuples", leftSpill.size(), rightSpill.size());
+
+        return SpilledJoinIterator::new;
+    }
+
+    public void close() {
+        leftTable.clear();
+        rightTable.clear();
+
+        if (leftSpill != null)
+            leftSpill.delete();
+
+        if (rightSpill != null)
+            rightSpill.delete();
+    }
+
+    private boolean isFull() {
+        return leftTable.size() + rightTable.size() >= maxSize;
+    }
+
+    private SpillFile spill(SpillFile spill, BindingSet bindings) {
+        try {
+            if (spill == null) {
+                spill = new SpillFile();
+                logger.debug("Hash tables reached {} tuples, spilling to {}", maxSize, spill.file);
+            }
+            spill.write(bindings);
+            return spill;
+        } catch (IOException e) {
+            throw new QueryEvaluationException("Cannot spill join tuples to disk", e);
+        }
+    }
+
+    /**
+     * Joins the left spill file with the right spill file by loading chunks
+     * of the left spill file in memory and scanning the right spill file once per chunk.
+     */
+    private class SpilledJoinIterator implements Iterator<BindingSet> {
+
+        private ObjectInputStream buildIn;
+        private int buildRead = 0;
+
+        private ObjectInputStream probeIn;
+        private int probeRead = 0;
+
+        private JoinHashTable chunk;
+
+        private BindingSet probing;
+        private Iterator<BindingSet> matches = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (!matches.hasNext()) {
+                    if (probeIn != null && probeRead < rightSpill.size()) {
+                        probing = rightSpill.read(probeIn);
+                        probeRead++;
+                        matches = chunk.probe(probing).iterator();
+                        continue;
+                    }
+
+                    if (probeIn != null) {
+                        probeIn.close();
+                        probeIn = null;
+                    }
+
+                    if (buildIn == null)
+                        buildIn = leftSpill.open();
+
+                    if (buildRead >= leftSpill.size()) {
+                        buildIn.close();
+                        return false;
+                    }
+
+                    chunk = new JoinHashTable(joinAttributes);
+                    while (chunk.size() < maxSize && buildRead < leftSpill.size()) {
+                        chunk.add(leftSpill.read(buildIn));
+                        buildRead++;
+                    }
+
+                    probeIn = rightSpill.open();
+                    probeRead = 0;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new QueryEvaluationException("Cannot read spilled join tuples", e);
+            }
+        }
+
+        @Override
+        public BindingSet next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return bindingSetOps.merge(matches.next(), probing);
+        }
+    }
+
+    private static class SpillFile {
+
+        // reset the stream periodically so that it does not keep references to the written objects
+        private static final int RESET_INTERVAL = 1000;
+
+        private final File file;
+
+        private ObjectOutputStream out;
+
+        private int size = 0;
+
+        SpillFile() throws IOException {
+            file = File.createTempFile("semagrow-join", ".spill");
+            file.deleteOnExit();
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        }
+
+        void write(BindingSet bindings) throws IOException {
+            out.writeObject(bindings);
+            if (++size % RESET_INTERVAL == 0)
+                out.reset();
+        }
+
+        int size() { return size; }
+
+        ObjectInputStream open() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        BindingSet read(ObjectInputStream in) throws IOException {
+            try {
+                return (BindingSet) in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        void delete() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot close spill file {}", file, e);
+            }
+            if (!file.delete())
+                logger.warn("Cannot delete spill file {}", file);
+        }
+    }
+}
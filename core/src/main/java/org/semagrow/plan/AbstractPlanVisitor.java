@@ -27,6 +27,10 @@ public abstract class AbstractPlanVisitor<X extends Exception>
         meet((Join) join);
     }
 
+    public void meet(SymmetricHashJoin join) throws X {
+        meet((Join) join);
+    }
+
     public void meet(BindJoin join) throws X {
         meet((Join) join);
     }
@@ -56,6 +60,8 @@ public abstract class AbstractPlanVisitor<X extends Exception>
             meet((SourceQuery)node);
         else if (node instanceof BindJoin)
             meet((BindJoin)node);
+        else if (node instanceof SymmetricHashJoin)
+            meet((SymmetricHashJoin)node);
         else if (node instanceof HashJoin)
             meet((HashJoin)node);
         else if (node instanceof MergeJoin)
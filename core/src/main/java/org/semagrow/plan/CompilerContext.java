@@ -18,6 +18,24 @@ public interface CompilerContext {
 
     SourceSelector getSourceSelector();
 
+    /**
+     * Returns a context that differs from this one only in the {@link SourceSelector}.
+     * @param selector the source selector of the new context
+     * @return the new context
+     */
+    CompilerContext withSourceSelector(SourceSelector selector);
+
+    /**
+     * The maximum number of quantifiers of a block whose joins are enumerated exhaustively.
+     */
+    default int getExhaustiveJoinThreshold() { return Integer.MAX_VALUE; }
+
+    /**
+     * The time in milliseconds after which the exhaustive enumeration of the joins of a block
+     * is abandoned in favor of greedy ordering; 0 if it is never abandoned.
+     */
+    default long getExhaustiveJoinTimeout() { return 0; }
+
     /**
      *
      * @param physicalExpr
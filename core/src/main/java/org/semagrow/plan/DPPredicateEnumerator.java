@@ -1,17 +1,40 @@
 package org.semagrow.plan;
 
 
+import org.semagrow.util.LongObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.*;
-import java.util.stream.Stream;
 
 /**
+ * A dynamic programming join enumerator.
+ * <p>
+ * Up to {@link #MAX_BITSET_ITEMS} items are enumerated with the DPccp algorithm of
+ * Moerkotte and Neumann ("Analysis of Two Existing and One New Dynamic Programming
+ * Algorithm for the Generation of Optimal Bushy Join Trees without Cross Products"):
+ * sets of items are represented as {@code long} bitmasks and only the pairs of connected
+ * subgraphs that are connected to each other are composed, so no cross product is ever
+ * generated. Larger inputs fall back to enumerating all the pairs of subsets.
+ * <p>
+ * Exhaustive enumeration is exponential, so it is skipped for inputs with more items than
+ * the threshold and abandoned when it exceeds its timeout; the joins are then ordered greedily,
+ * by repeatedly composing the two adjacent sets of items whose cheapest plan costs the least.
  *
  * @author acharal
  */
 public class DPPredicateEnumerator<T,P> {
 
+    public static final int MAX_BITSET_ITEMS = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(DPPredicateEnumerator.class);
+
     private PlanGenerator<T,P> generator;
 
+    private int threshold = Integer.MAX_VALUE;
+
+    private long timeout = 0;
+
     public DPPredicateEnumerator(PlanGenerator<T,P> generator) {
         this.generator = generator;
     }
@@ -24,16 +47,63 @@ public class DPPredicateEnumerator<T,P> {
 
         Iterator<Pair<Collection<T>, Collection<T>>> enumerate(Collection<T> tt);
 
+        /**
+         * Checks whether plans of {@code t1} may be composed with plans of {@code t2}, i.e.
+         * whether the two items are adjacent in the query graph. Two sets of items are composed
+         * only if they contain adjacent items; by default all the items are adjacent.
+         */
+        default boolean isConnected(T t1, T t2) { return true; }
+
+        /**
+         * Compares the costs of two plans; used to order the joins greedily.
+         */
+        default int compareCost(P p1, P p2) { return 0; }
+
         void prune(Collection<P> plans);
     }
 
+    /**
+     * Sets the maximum number of items whose joins are enumerated exhaustively.
+     */
+    public void setThreshold(int threshold) { this.threshold = threshold; }
+
+    /**
+     * Sets the time in milliseconds after which an exhaustive enumeration is abandoned;
+     * 0 if it is never abandoned.
+     */
+    public void setTimeout(long timeout) { this.timeout = timeout; }
+
     public Collection<P> enumerate(Collection<T> aa) {
 
-        Map<Collection<T>, Pair<Collection<T>, Collection<P>>> dpTbl = new HashMap<>();
+        Map<T, Pair<Collection<T>, Collection<P>>> accessPlans = new HashMap<>();
+        for (T t : aa)
+            accessPlans.put(t, generator.access(t));
+
+        if (aa.size() > threshold) {
+            logger.info("Ordering the joins of {} items greedily, since they exceed the threshold of {}", aa.size(), threshold);
+            return new Greedy(aa, accessPlans).enumerate();
+        }
+
+        if (aa.size() > MAX_BITSET_ITEMS)
+            return enumerateSubsets(aa, accessPlans);
+
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+        try {
+            return new Ccp(aa, accessPlans, deadline).enumerate();
+        } catch (TimeoutException e) {
+            logger.info("Ordering the joins of {} items greedily, since their exhaustive enumeration exceeded {} ms", aa.size(), timeout);
+            return new Greedy(aa, accessPlans).enumerate();
+        }
+    }
 
-        Stream<Pair<Collection<T>, Collection<P>>> pp = aa.stream().map(generator::access);
+    private Collection<P> enumerateSubsets(Collection<T> aa, Map<T, Pair<Collection<T>, Collection<P>>> accessPlans) {
+
+        Map<Collection<T>, Pair<Collection<T>, Collection<P>>> dpTbl = new HashMap<>();
 
-        pp.forEach(e -> dpTbl.put(e.getFirst(), e));
+        // the table is keyed by the sets of items, since an item may stand for many
+        for (T t : aa)
+            dpTbl.put(Collections.singleton(t), accessPlans.get(t));
 
         Iterator<Pair<Collection<T>, Collection<T>>> it = generator.enumerate(aa);
         while (it.hasNext()) {
@@ -44,7 +114,169 @@ public class DPPredicateEnumerator<T,P> {
 
             Pair<Collection<T>, Collection<P>> cp = generator.compose(f, s);
 
-            Pair<Collection<T>, Collection<P>> optCol = dpTbl.get(cp.getFirst());
+            Set<T> key = new HashSet<>(p.getFirst());
+            key.addAll(p.getSecond());
+
+            Pair<Collection<T>, Collection<P>> optCol = dpTbl.get(key);
+            if (optCol == null)
+                optCol = cp;
+            else
+                optCol.getSecond().addAll(cp.getSecond());
+
+            generator.prune(optCol.getSecond());
+
+            dpTbl.put(key, optCol);
+        }
+
+        return dpTbl.get(new HashSet<>(aa)).getSecond();
+    }
+
+    /**
+     * The state of a DPccp enumeration. The items are numbered in breadth-first order
+     * of the query graph, which guarantees that the plans of both sides of a pair are
+     * complete when the pair is emitted.
+     */
+    private final class Ccp {
+
+        private final List<T> items = new ArrayList<>();
+
+        // the neighbours of each item
+        private final long[] adjacent;
+
+        private final LongObjectMap<Pair<Collection<T>, Collection<P>>> dpTbl;
+
+        private final Map<T, Pair<Collection<T>, Collection<P>>> accessPlans;
+
+        private final long deadline;
+
+        Ccp(Collection<T> aa, Map<T, Pair<Collection<T>, Collection<P>>> accessPlans, long deadline) {
+            this.accessPlans = accessPlans;
+            this.deadline = deadline;
+
+            List<T> input = new ArrayList<>(aa);
+            int n = input.size();
+
+            boolean[][] connected = new boolean[n][n];
+            for (int i = 0; i < n; i++)
+                for (int j = i + 1; j < n; j++)
+                    connected[i][j] = connected[j][i] = generator.isConnected(input.get(i), input.get(j));
+
+            // breadth-first numbering; disconnected items are appended and never composed
+            int[] order = new int[n];
+            int[] number = new int[n];
+            Arrays.fill(number, -1);
+
+            int k = 0;
+            for (int root = 0; root < n; root++) {
+                if (number[root] >= 0)
+                    continue;
+
+                number[root] = k;
+                order[k++] = root;
+
+                for (int head = k - 1; head < k; head++) {
+                    int u = order[head];
+                    for (int v = 0; v < n; v++) {
+                        if (connected[u][v] && number[v] < 0) {
+                            number[v] = k;
+                            order[k++] = v;
+                        }
+                    }
+                }
+            }
+
+            adjacent = new long[n];
+            for (int i = 0; i < n; i++) {
+                items.add(input.get(order[i]));
+                for (int j = 0; j < n; j++) {
+                    if (connected[order[i]][order[j]])
+                        adjacent[i] |= 1L << j;
+                }
+            }
+
+            dpTbl = new LongObjectMap<>(4 * n * n);
+        }
+
+        Collection<P> enumerate() {
+            int n = items.size();
+
+            for (int i = 0; i < n; i++)
+                dpTbl.put(1L << i, accessPlans.get(items.get(i)));
+
+            for (int i = n - 1; i >= 0; i--) {
+                long v = 1L << i;
+                emitCsg(v);
+                enumerateCsgRec(v, upTo(i));
+            }
+
+            Pair<Collection<T>, Collection<P>> all = dpTbl.get(upTo(n - 1));
+
+            if (all == null)
+                return new LinkedList<>();
+            else
+                return all.getSecond();
+        }
+
+        private void enumerateCsgRec(long s1, long x) {
+            long nb = neighbours(s1) & ~x;
+
+            if (nb == 0)
+                return;
+
+            // the subsets are visited in increasing numeric order, hence before their supersets
+            for (long s = -nb & nb; s != 0; s = (s - nb) & nb)
+                emitCsg(s1 | s);
+
+            for (long s = -nb & nb; s != 0; s = (s - nb) & nb)
+                enumerateCsgRec(s1 | s, x | nb);
+        }
+
+        private void emitCsg(long s1) {
+            long x = s1 | upTo(Long.numberOfTrailingZeros(s1));
+            long nb = neighbours(s1) & ~x;
+
+            while (nb != 0) {
+                int v = 63 - Long.numberOfLeadingZeros(nb);
+                long s2 = 1L << v;
+
+                emitCsgCmp(s1, s2);
+                enumerateCmpRec(s1, s2, x | (nb & upTo(v)));
+
+                nb &= ~s2;
+            }
+        }
+
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long nb = neighbours(s2) & ~x;
+
+            if (nb == 0)
+                return;
+
+            for (long s = -nb & nb; s != 0; s = (s - nb) & nb)
+                emitCsgCmp(s1, s2 | s);
+
+            for (long s = -nb & nb; s != 0; s = (s - nb) & nb)
+                enumerateCmpRec(s1, s2 | s, x | nb);
+        }
+
+        private void emitCsgCmp(long s1, long s2) {
+            Pair<Collection<T>, Collection<P>> f = dpTbl.get(s1);
+            Pair<Collection<T>, Collection<P>> s = dpTbl.get(s2);
+
+            if (f == null || s == null)
+                return;
+
+            if (System.currentTimeMillis() > deadline)
+                throw new TimeoutException();
+
+            // composition is not symmetric (e.g. bind joins), so both orders are generated
+            add(s1 | s2, generator.compose(f, s));
+            add(s1 | s2, generator.compose(s, f));
+        }
+
+        private void add(long set, Pair<Collection<T>, Collection<P>> cp) {
+            Pair<Collection<T>, Collection<P>> optCol = dpTbl.get(set);
+
             if (optCol == null)
                 optCol = cp;
             else
@@ -52,10 +284,147 @@ public class DPPredicateEnumerator<T,P> {
 
             generator.prune(optCol.getSecond());
 
-            dpTbl.put(cp.getFirst(), optCol);
+            dpTbl.put(set, optCol);
+        }
+
+        private long neighbours(long set) {
+            long nb = 0;
+            for (long s = set; s != 0; s &= s - 1)
+                nb |= adjacent[Long.numberOfTrailingZeros(s)];
+            return nb & ~set;
         }
 
-        return dpTbl.get(aa).getSecond();
+        // the set of the items that are numbered up to i
+        private long upTo(int i) { return -1L >>> (63 - i); }
+    }
+
+    /**
+     * Greedy join ordering: starting from the access plans of the items, the two adjacent
+     * sets whose composition has the cheapest plan are composed, until a single set remains.
+     * The compositions are cached, so each pair of sets is composed once.
+     */
+    private final class Greedy {
+
+        private final List<Component> components = new LinkedList<>();
+
+        private final LongObjectMap<Pair<Collection<T>, Collection<P>>> joins = new LongObjectMap<>();
+
+        private int nextId = 0;
+
+        Greedy(Collection<T> aa, Map<T, Pair<Collection<T>, Collection<P>>> accessPlans) {
+            List<T> items = new ArrayList<>(aa);
+            int n = items.size();
+
+            for (int i = 0; i < n; i++) {
+                BitSet members = new BitSet(n);
+                members.set(i);
+
+                BitSet neighbours = new BitSet(n);
+                for (int j = 0; j < n; j++) {
+                    if (i != j && generator.isConnected(items.get(i), items.get(j)))
+                        neighbours.set(j);
+                }
+                components.add(new Component(nextId++, members, neighbours, accessPlans.get(items.get(i))));
+            }
+        }
+
+        Collection<P> enumerate() {
+
+            while (components.size() > 1) {
+                Component bestLeft = null;
+                Component bestRight = null;
+                Pair<Collection<T>, Collection<P>> best = null;
+                P bestPlan = null;
+
+                for (int i = 0; i < components.size(); i++) {
+                    Component c1 = components.get(i);
+
+                    for (int j = i + 1; j < components.size(); j++) {
+                        Component c2 = components.get(j);
+
+                        if (!c1.neighbours.intersects(c2.members))
+                            continue;
+
+                        Pair<Collection<T>, Collection<P>> join = join(c1, c2);
+                        P plan = cheapest(join.getSecond());
+
+                        if (plan != null && (bestPlan == null || generator.compareCost(plan, bestPlan) < 0)) {
+                            bestLeft = c1;
+                            bestRight = c2;
+                            best = join;
+                            bestPlan = plan;
+                        }
+                    }
+                }
+
+                if (best == null)
+                    return new LinkedList<>();
+
+                components.remove(bestLeft);
+                components.remove(bestRight);
+
+                BitSet members = (BitSet) bestLeft.members.clone();
+                members.or(bestRight.members);
+
+                BitSet neighbours = (BitSet) bestLeft.neighbours.clone();
+                neighbours.or(bestRight.neighbours);
+                neighbours.andNot(members);
+
+                components.add(new Component(nextId++, members, neighbours, best));
+            }
+
+            return components.get(0).plans.getSecond();
+        }
+
+        private Pair<Collection<T>, Collection<P>> join(Component c1, Component c2) {
+            long key = ((long) c1.id << 32) | c2.id;
+            Pair<Collection<T>, Collection<P>> join = joins.get(key);
+
+            if (join == null) {
+                Pair<Collection<T>, Collection<P>> cp1 = generator.compose(c1.plans, c2.plans);
+                Pair<Collection<T>, Collection<P>> cp2 = generator.compose(c2.plans, c1.plans);
+
+                Collection<P> plans = new LinkedList<>(cp1.getSecond());
+                plans.addAll(cp2.getSecond());
+                generator.prune(plans);
+
+                join = new Pair<>(cp1.getFirst(), plans);
+                joins.put(key, join);
+            }
+            return join;
+        }
+
+        private P cheapest(Collection<P> plans) {
+            P cheapest = null;
+            for (P p : plans) {
+                if (cheapest == null || generator.compareCost(p, cheapest) < 0)
+                    cheapest = p;
+            }
+            return cheapest;
+        }
+    }
+
+    private final class Component {
+
+        final int id;
+
+        final BitSet members;
+
+        final BitSet neighbours;
+
+        final Pair<Collection<T>, Collection<P>> plans;
+
+        Component(int id, BitSet members, BitSet neighbours, Pair<Collection<T>, Collection<P>> plans) {
+            this.id = id;
+            this.members = members;
+            this.neighbours = neighbours;
+            this.plans = plans;
+        }
+    }
+
+    private static final class TimeoutException extends RuntimeException {
+
+        TimeoutException() { super(null, null, false, false); }
     }
 
 }
@@ -28,6 +28,10 @@ public class DefaultCompilerContext implements CompilerContext {
 
     private SourceSelector sourceSelector;
 
+    private int exhaustiveJoinThreshold = Integer.MAX_VALUE;
+
+    private long exhaustiveJoinTimeout = 0;
+
     public CostEstimatorResolver getCostEstimatorResolver() { return costEstimatorResolver; }
 
     public void setCostEstimatorResolver(CostEstimatorResolver costEstimatorResolver) {
@@ -44,6 +48,24 @@ public class DefaultCompilerContext implements CompilerContext {
 
     public void setSourceSelector(SourceSelector sourceSelector) { this.sourceSelector = sourceSelector; }
 
+    public CompilerContext withSourceSelector(SourceSelector selector) {
+        DefaultCompilerContext context = new DefaultCompilerContext();
+        context.setCostEstimatorResolver(costEstimatorResolver);
+        context.setCardinalityEstimatorResolver(cardinalityEstimatorResolver);
+        context.setSourceSelector(selector);
+        context.setExhaustiveJoinThreshold(exhaustiveJoinThreshold);
+        context.setExhaustiveJoinTimeout(exhaustiveJoinTimeout);
+        return context;
+    }
+
+    public int getExhaustiveJoinThreshold() { return exhaustiveJoinThreshold; }
+
+    public void setExhaustiveJoinThreshold(int threshold) { this.exhaustiveJoinThreshold = threshold; }
+
+    public long getExhaustiveJoinTimeout() { return exhaustiveJoinTimeout; }
+
+    public void setExhaustiveJoinTimeout(long timeout) { this.exhaustiveJoinTimeout = timeout; }
+
     public Plan asPlan(TupleExpr physicalExpr, PlanProperties initProps) {
 
         Plan p = new Plan(physicalExpr);
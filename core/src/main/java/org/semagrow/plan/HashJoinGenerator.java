@@ -1,9 +1,11 @@
 package org.semagrow.plan;
 
 import org.semagrow.plan.operators.HashJoin;
+import org.semagrow.plan.operators.SymmetricHashJoin;
 import org.semagrow.local.LocalSite;
 import org.eclipse.rdf4j.query.algebra.Join;
 
+import java.math.BigInteger;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -18,7 +20,18 @@ class HashJoinGenerator implements JoinImplGenerator {
 
         Collection<Join> l = new LinkedList<Join>();
 
-        Join expr = new HashJoin(ctx.enforce(p1, LocalSite.getInstance()), ctx.enforce(p2, LocalSite.getInstance()));
+        BigInteger card = p1.getProperties().getCardinality();
+
+        if (card == null || card.compareTo(HashJoin.MIN_CARDINALITY) < 0)
+            return l;
+
+        Plan pp1 = ctx.enforce(p1, LocalSite.getInstance());
+        Plan pp2 = ctx.enforce(p2, LocalSite.getInstance());
+
+        // two remote operands can be fetched concurrently and joined as they arrive
+        Join expr = (p1.getProperties().getSite().isRemote() && p2.getProperties().getSite().isRemote())
+                ? new SymmetricHashJoin(pp1, pp2)
+                : new HashJoin(pp1, pp2);
 
         l.add(expr);
 
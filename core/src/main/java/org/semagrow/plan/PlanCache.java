@@ -0,0 +1,355 @@
+package org.semagrow.plan;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A cache of the compiled {@link Plan}s of the queries.
+ * <p>
+ * Queries that differ only in the names of their variables share the same
+ * cache entry; the variables are numbered by their first occurrence and the cached
+ * plan is renamed to the variables of the requested query. Constants are kept
+ * by value, since both the source selection and the estimated cardinalities depend on them.
+ * The cache holds at most {@code maxSize} entries and each entry expires {@code ttl}
+ * milliseconds after it was added. The entries must be invalidated whenever the
+ * metadata, and therefore the selected sources and the statistics, change.
+ *
+ * @author acharal
+ */
+public class PlanCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private static final String CANONICAL_PREFIX = "_plan_v";
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final long ttl;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PlanCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize the maximum number of cached plans
+     * @param ttl the time in milliseconds after which a cached plan expires; 0 for no expiration
+     */
+    public PlanCache(int maxSize, long ttl) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Computes the canonical form of a query request. It must be called before
+     * the query is optimized or compiled, since both modify the query.
+     * @return the key of the request or null if the query cannot be cached
+     */
+    public Key key(TupleExpr expr, Dataset dataset, BindingSet bindings,
+                   Collection<IRI> includeOnly, Collection<IRI> exclude)
+    {
+        TupleExpr canonical = expr.clone();
+
+        Map<String, String> names = new LinkedHashMap<>();
+        Renamer renamer = new Renamer(n -> names.computeIfAbsent(n, k -> CANONICAL_PREFIX + names.size()));
+        canonical.visit(renamer);
+
+        if (!renamer.isCacheable())
+            return null;
+
+        StringBuilder sb = new StringBuilder(1024);
+        canonical.visit(new KeyWriter(sb));
+
+        if (bindings != null) {
+            SortedMap<String, String> bound = new TreeMap<>();
+            for (Binding b : bindings) {
+                String name = names.get(b.getName());
+                if (name != null)
+                    bound.put(name, b.getValue().toString());
+            }
+            sb.append("\nbindings ").append(bound);
+        }
+
+        if (dataset != null) {
+            sb.append("\ndefault ").append(sorted(dataset.getDefaultGraphs()));
+            sb.append("\nnamed ").append(sorted(dataset.getNamedGraphs()));
+        }
+
+        sb.append("\ninclude ").append(sorted(includeOnly));
+        sb.append("\nexclude ").append(sorted(exclude));
+
+        return new Key(sb.toString(), names);
+    }
+
+    /**
+     * Returns a copy of the cached plan of the request in terms of the variables of the request.
+     */
+    public Optional<Plan> get(Key key) {
+        Entry entry = cache.get(key.canonical);
+
+        if (entry != null && entry.isExpired()) {
+            cache.remove(key.canonical, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        hits.incrementAndGet();
+
+        Map<String, String> inverse = new HashMap<>();
+        for (Map.Entry<String, String> e : key.names.entrySet())
+            inverse.put(e.getValue(), e.getKey());
+
+        return Optional.of(rename(entry.plan, inverse));
+    }
+
+    /**
+     * Caches a copy of the compiled plan of the request.
+     */
+    public void put(Key key, Plan plan) {
+        if (plan == null)
+            return;
+
+        cache.put(key.canonical, new Entry(rename(plan, key.names)));
+
+        if (cache.size() > maxSize)
+            evict();
+    }
+
+    public long getHitCount() { return hits.get(); }
+
+    public long getMissCount() { return misses.get(); }
+
+    public long getEvictionCount() { return evictions.get(); }
+
+    public int size() { return cache.size(); }
+
+    public void invalidateAll() { cache.clear(); }
+
+    /**
+     * Removes the expired entries and, if the cache is still full, the oldest
+     * entries so that a tenth of the capacity becomes available.
+     */
+    private synchronized void evict() {
+        if (cache.size() <= maxSize)
+            return;
+
+        cache.entrySet().removeIf(e -> {
+            boolean expired = e.getValue().isExpired();
+            if (expired)
+                evictions.incrementAndGet();
+            return expired;
+        });
+
+        int excess = cache.size() - (maxSize - maxSize / 10);
+
+        if (excess <= 0)
+            return;
+
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(cache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().created));
+
+        for (Map.Entry<String, Entry> e : entries.subList(0, Math.min(excess, entries.size()))) {
+            if (cache.remove(e.getKey(), e.getValue()))
+                evictions.incrementAndGet();
+        }
+    }
+
+    private static Plan rename(Plan plan, Map<String, String> theta) {
+        Plan copy = (Plan) plan.clone();
+        copy.setParentNode(null);
+        copy.visit(new Renamer(n -> theta.getOrDefault(n, n)));
+        return copy;
+    }
+
+    private static List<String> sorted(Collection<?> values) {
+        List<String> l = new ArrayList<>();
+        if (values != null) {
+            for (Object v : values)
+                l.add(v.toString());
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * The canonical form of a query request along with the renaming of the
+     * variables of the request to the canonical variables.
+     */
+    public static final class Key {
+
+        private final String canonical;
+
+        private final Map<String, String> names;
+
+        Key(String canonical, Map<String, String> names) {
+            this.canonical = canonical;
+            this.names = names;
+        }
+
+        @Override
+        public int hashCode() { return canonical.hashCode(); }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && canonical.equals(((Key) o).canonical);
+        }
+    }
+
+    private final class Entry {
+
+        private final Plan plan;
+
+        private final long created = System.currentTimeMillis();
+
+        Entry(Plan plan) { this.plan = plan; }
+
+        boolean isExpired() {
+            return ttl > 0 && System.currentTimeMillis() - created > ttl;
+        }
+    }
+
+    /**
+     * Renames every occurrence of the variables of a query or a plan, including the
+     * names that are introduced by projections, extensions and groups.
+     */
+    private static class Renamer extends AbstractQueryModelVisitor<RuntimeException> {
+
+        private final Function<String, String> theta;
+
+        private boolean cacheable = true;
+
+        Renamer(Function<String, String> theta) { this.theta = theta; }
+
+        boolean isCacheable() { return cacheable; }
+
+        @Override
+        public void meet(Var v) {
+            if (!v.isConstant())
+                v.setName(theta.apply(v.getName()));
+        }
+
+        @Override
+        public void meet(ProjectionElem elem) {
+            elem.setSourceName(theta.apply(elem.getSourceName()));
+            elem.setTargetName(theta.apply(elem.getTargetName()));
+        }
+
+        @Override
+        public void meet(ExtensionElem elem) {
+            elem.setName(theta.apply(elem.getName()));
+            super.meet(elem);
+        }
+
+        @Override
+        public void meet(GroupElem elem) {
+            elem.setName(theta.apply(elem.getName()));
+            super.meet(elem);
+        }
+
+        @Override
+        public void meet(Group group) {
+            super.meet(group);
+            List<String> names = new ArrayList<>();
+            for (String name : group.getGroupBindingNames())
+                names.add(theta.apply(name));
+            group.setGroupBindingNames(names);
+        }
+
+        @Override
+        public void meet(BindingSetAssignment node) {
+            Set<String> names = new LinkedHashSet<>();
+            for (String name : node.getBindingNames())
+                names.add(theta.apply(name));
+
+            List<BindingSet> bindingSets = new ArrayList<>();
+            for (BindingSet bs : node.getBindingSets()) {
+                MapBindingSet renamed = new MapBindingSet();
+                for (Binding b : bs)
+                    renamed.addBinding(theta.apply(b.getName()), b.getValue());
+                bindingSets.add(renamed);
+            }
+
+            node.setBindingNames(names);
+            node.setBindingSets(bindingSets);
+        }
+
+        @Override
+        public void meet(Service node) {
+            // the service expression refers to the variables by name
+            cacheable = false;
+        }
+
+        @Override
+        public void meetOther(QueryModelNode node) {
+            // the memoized estimates of a plan refer to its variables by name
+            if (node instanceof Plan)
+                ((Plan) node).getProperties().clearVarEstimates();
+            super.meetOther(node);
+        }
+    }
+
+    /**
+     * Writes the structure of a query along with the attributes of its nodes that
+     * are not part of their signatures.
+     */
+    private static class KeyWriter extends AbstractQueryModelVisitor<RuntimeException> {
+
+        private final StringBuilder sb;
+
+        KeyWriter(StringBuilder sb) { this.sb = sb; }
+
+        @Override
+        protected void meetNode(QueryModelNode node) {
+            sb.append(node.getSignature());
+
+            if (node instanceof StatementPattern)
+                sb.append(' ').append(((StatementPattern) node).getScope());
+            else if (node instanceof AbstractAggregateOperator)
+                sb.append(((AbstractAggregateOperator) node).isDistinct() ? " distinct" : "");
+            else if (node instanceof ArbitraryLengthPath)
+                sb.append(" min=").append(((ArbitraryLengthPath) node).getMinLength());
+            else if (node instanceof CompareAny)
+                sb.append(' ').append(((CompareAny) node).getOperator());
+            else if (node instanceof CompareAll)
+                sb.append(' ').append(((CompareAll) node).getOperator());
+            else if (node instanceof BindingSetAssignment) {
+                for (BindingSet bs : ((BindingSetAssignment) node).getBindingSets())
+                    sb.append(' ').append(new TreeMap<>(toMap(bs)));
+            }
+
+            sb.append('(');
+            node.visitChildren(this);
+            sb.append(')');
+        }
+
+        private static Map<String, String> toMap(BindingSet bs) {
+            Map<String, String> m = new HashMap<>();
+            for (Binding b : bs)
+                m.put(b.getName(), b.getValue().toString());
+            return m;
+        }
+    }
+}
@@ -17,6 +17,8 @@ public interface PlanVisitor<X extends Exception> extends QueryModelVisitor<X> {
 
     void meet(HashJoin j) throws X;
 
+    void meet(SymmetricHashJoin j) throws X;
+
     void meet(MergeJoin j) throws X;
 
     void meet(MergeUnion u) throws X;
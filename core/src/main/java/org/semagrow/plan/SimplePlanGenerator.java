@@ -37,7 +37,7 @@ public class SimplePlanGenerator implements PlanGenerator, PlanGenerationContext
         this.joinImplGenerators = new LinkedList<JoinImplGenerator>();
         this.joinImplGenerators.add(new BindJoinGenerator());
         this.joinImplGenerators.add(new RemoteJoinGenerator());
-        //this.joinImplGenerators.add(new HashJoinGenerator());
+        this.joinImplGenerators.add(new HashJoinGenerator());
         //this.joinImplGenerators.add(new MergeJoinGenerator());
     }
 
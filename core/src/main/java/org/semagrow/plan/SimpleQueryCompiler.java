@@ -28,6 +28,9 @@ public class SimpleQueryCompiler implements QueryCompiler {
     private CardinalityEstimatorResolver cardinalityEstimatorResolver;
     private SourceSelector sourceSelector;
 
+    private int exhaustiveJoinThreshold = Integer.MAX_VALUE;
+    private long exhaustiveJoinTimeout = 0;
+
     public SimpleQueryCompiler(CostEstimatorResolver costEstimatorResolver,
                                CardinalityEstimatorResolver cardinalityEstimatorResolver,
                                SourceSelector sourceSelector)
@@ -37,6 +40,18 @@ public class SimpleQueryCompiler implements QueryCompiler {
         this.sourceSelector = sourceSelector;
     }
 
+    /**
+     * Sets the maximum number of quantifiers of a block whose joins are enumerated exhaustively;
+     * the joins of larger blocks are ordered greedily.
+     */
+    public void setExhaustiveJoinThreshold(int threshold) { this.exhaustiveJoinThreshold = threshold; }
+
+    /**
+     * Sets the time in milliseconds after which the exhaustive enumeration of the joins
+     * of a block falls back to greedy ordering; 0 for no limit.
+     */
+    public void setExhaustiveJoinTimeout(long timeout) { this.exhaustiveJoinTimeout = timeout; }
+
     @Override
     public Plan compile(QueryRoot query, Dataset dataset, BindingSet bindings) {
 
@@ -103,6 +118,8 @@ public class SimpleQueryCompiler implements QueryCompiler {
         context.setCardinalityEstimatorResolver(cardinalityEstimatorResolver);
         context.setCostEstimatorResolver(costEstimatorResolver);
         context.setSourceSelector(sourceSelector);
+        context.setExhaustiveJoinThreshold(exhaustiveJoinThreshold);
+        context.setExhaustiveJoinTimeout(exhaustiveJoinTimeout);
         return context;
     }
 }
@@ -85,6 +85,7 @@ public class SimpleQueryDecomposer implements QueryDecomposer
         	 * Specifically, collects FILTER statements */
             DecomposerContext ctx = new DecomposerContext( bgp );
 
+            /* resolves the sources of all the patterns of the bgp at once */
             SourceSelector staticSelector = new StaticSourceSelector(sourceSelector.getSources(bgp, dataset, bindings));
 
 
@@ -94,7 +95,7 @@ public class SimpleQueryDecomposer implements QueryDecomposer
             /*PlanGenerator planGenerator =
             		new PlanGeneratorImpl( ctx, sourceSelector, costEstimator, cardinalityEstimator );*/
 
-            PlanGenerator planGenerator = new SimplePlanGenerator(ctx, sourceSelector, planFactory);
+            PlanGenerator planGenerator = new SimplePlanGenerator(ctx, staticSelector, planFactory);
 
         	/* optimizes the plans generated by the PlanGenerator */
             DPPlanOptimizer planOptimizer = new DPPlanOptimizer(planGenerator);
@@ -3,6 +3,8 @@ package org.semagrow.plan.operators;
 import org.eclipse.rdf4j.query.algebra.Join;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 
+import java.math.BigInteger;
+
 /**
  * Hash join is a join implementation that hash the result set
  * of the left operand and probe each result tuple of the right operand
@@ -11,6 +13,12 @@ import org.eclipse.rdf4j.query.algebra.TupleExpr;
  */
 public class HashJoin extends Join {
 
+    /**
+     * Hash joins are considered only when the left operand is expected to be large,
+     * i.e. when a bind join would flood the source of the right operand with queries.
+     */
+    public static final BigInteger MIN_CARDINALITY = BigInteger.valueOf(1000);
+
     public HashJoin(TupleExpr e1, TupleExpr e2) {
         super(e1,e2);
     }
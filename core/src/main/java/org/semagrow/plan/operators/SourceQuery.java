@@ -5,6 +5,10 @@ import org.eclipse.rdf4j.query.algebra.QueryModelVisitor;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
 /**
  * Source query represents the operation of executing its argument using
  * an appropriate {@link org.semagrow.evaluation.QueryExecutor} to a
@@ -19,6 +23,8 @@ public class SourceQuery extends UnaryTupleOperator {
 
     private Site site;
 
+    private volatile Map<Class<?>, Object> renderings = new ConcurrentHashMap<>();
+
     public SourceQuery(TupleExpr expr, Site fromSite) {
         super(expr);
         site = fromSite;
@@ -26,6 +32,27 @@ public class SourceQuery extends UnaryTupleOperator {
 
     public Site getSite() { return site; }
 
+    /**
+     * Returns the rendering of the argument of the given type, computing it on the first request.
+     * The executors keep the parts of the query that is sent to the site that do not depend on
+     * the bindings, so that they are rendered once per plan instead of once per request.
+     * The renderings are dropped when the argument is replaced and are not shared with the clones;
+     * the argument must not be modified in place after it has been rendered.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getRendering(Class<T> type, Function<TupleExpr, T> renderer) {
+        return (T) renderings.computeIfAbsent(type, t -> renderer.apply(getArg()));
+    }
+
+    @Override
+    public void setArg(TupleExpr arg) {
+        super.setArg(arg);
+        // also called by the constructor of the superclass, before the renderings are
+        // initialized, and by clone() on the copy
+        if (renderings != null)
+            renderings = new ConcurrentHashMap<>();
+    }
+
     public <X extends Exception> void visit(QueryModelVisitor<X> xQueryModelVisitor) throws X {
         xQueryModelVisitor.meetOther(this);
     }
@@ -0,0 +1,33 @@
+package org.semagrow.plan.operators;
+
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+
+/**
+ * Symmetric hash join is a pipelined join implementation that consumes
+ * both operands concurrently. Each result tuple of an operand is first
+ * probed against the hash table of the other operand and then inserted
+ * in its own hash table, so that results are produced as soon as
+ * both matching tuples have arrived.
+ * @author acharal
+ */
+public class SymmetricHashJoin extends Join {
+
+    public SymmetricHashJoin(TupleExpr e1, TupleExpr e2) {
+        super(e1,e2);
+    }
+
+    @Override
+    public int hashCode() {
+        return "symmetrichash".hashCode() + super.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof SymmetricHashJoin) {
+            SymmetricHashJoin j = (SymmetricHashJoin) o;
+            return getLeftArg().equals(j.getLeftArg()) && getRightArg().equals(j.getRightArg());
+        }
+        return false;
+    }
+}
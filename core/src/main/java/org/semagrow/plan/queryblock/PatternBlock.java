@@ -25,6 +25,8 @@ public class PatternBlock extends AbstractQueryBlock {
         this.pattern = pattern;
     }
 
+    public StatementPattern getPattern() { return pattern; }
+
     public Set<String> getOutputVariables() {
         return VarNameCollector.process(pattern);
     }
@@ -2,13 +2,18 @@ package org.semagrow.plan.queryblock;
 
 import org.eclipse.rdf4j.query.algebra.*;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.semagrow.local.LocalSite;
 import org.semagrow.plan.*;
 import org.semagrow.plan.operators.*;
 import org.semagrow.selector.Site;
+import org.semagrow.selector.SourceMetadata;
+import org.semagrow.selector.SourceSelector;
+import org.semagrow.selector.StaticSourceSelector;
 import org.semagrow.util.CombinationIterator;
 import org.semagrow.util.PartitionedSet;
 
+import java.math.BigInteger;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -156,13 +161,18 @@ public class SelectBlock extends AbstractQueryBlock {
 
         Collection<Pair<Collection<Quantifier>, Collection<Plan>>> planList = new LinkedList<>();
 
-        PredicateApplicator applicator = new PredicateApplicator(context);
+        PredicateApplicator applicator = new PredicateApplicator(context, prefetchSources(context));
         for (Collection<Quantifier> qc : qList) {
 
             DPPredicateEnumerator<Quantifier, Plan> enumerator = new DPPredicateEnumerator<>(applicator);
+            enumerator.setThreshold(context.getExhaustiveJoinThreshold());
+            enumerator.setTimeout(context.getExhaustiveJoinTimeout());
+
+            // the quantifiers that only one remote site can answer are pushed down as a whole
+            Collection<Quantifier> items = applicator.groupExclusive(qc);
 
             // filter out from qc Quantifier with Quantification other than EACH
-            Collection<Plan> plans = enumerator.enumerate(qc);
+            Collection<Plan> plans = enumerator.enumerate(items);
 
             if (!plans.isEmpty())
                 planList.add(new Pair<>(qc, plans));
@@ -186,6 +196,65 @@ public class SelectBlock extends AbstractQueryBlock {
         }
     }
 
+    /**
+     * Resolves the sources of the patterns of this block with a single request to
+     * the source selector, so that the selector can resolve them together.
+     * The patterns that are joined are resolved as a basic graph pattern, so that
+     * the selector can prune the sources that do not contribute to their joins.
+     * @return a context that serves the resolved sources to the {@link PatternBlock}s
+     *         of this block
+     */
+    protected CompilerContext prefetchSources(CompilerContext context) {
+        SourceSelector selector = context.getSourceSelector();
+
+        // the quantifiers of an optional are not (inner) joined to the rest of the block
+        Set<Quantifier> outer = getPredicates().stream()
+                .filter(p -> p instanceof LeftJoinPredicate)
+                .flatMap(p -> p.getEL().stream())
+                .collect(Collectors.toSet());
+
+        List<StatementPattern> joined = new LinkedList<>();
+        List<StatementPattern> rest = new LinkedList<>();
+
+        for (Quantifier q : getQuantifiers()) {
+            if (q.isFrom() && q.getBlock() instanceof PatternBlock) {
+                StatementPattern pattern = ((PatternBlock) q.getBlock()).getPattern();
+                if (outer.contains(q))
+                    rest.add(pattern);
+                else
+                    joined.add(pattern);
+            }
+        }
+
+        if (joined.size() == 1)
+            rest.addAll(joined);
+
+        Map<StatementPattern, Collection<SourceMetadata>> sources = new HashMap<>();
+
+        if (joined.size() > 1) {
+            TupleExpr bgp = joined.stream()
+                    .map(p -> (TupleExpr) p.clone())
+                    .reduce(Join::new).get();
+
+            for (StatementPattern p : joined)
+                sources.put(p, new LinkedList<>());
+
+            for (SourceMetadata m : selector.getSources(bgp, null, EmptyBindingSet.getInstance())) {
+                Collection<SourceMetadata> list = sources.get(m.original());
+                if (list != null)
+                    list.add(m);
+            }
+        }
+
+        if (!rest.isEmpty())
+            sources.putAll(selector.getSources(rest, null, EmptyBindingSet.getInstance()));
+
+        if (sources.isEmpty())
+            return context;
+
+        return context.withSourceSelector(new StaticSourceSelector(sources));
+    }
+
     /**
      * Returns a list of sets of quantifiers that are connected directly or indirectly
      * via a predicate.
@@ -281,6 +350,13 @@ public class SelectBlock extends AbstractQueryBlock {
 
         public VarRenamer(Map<String,String> theta) { this.theta = theta; }
 
+        public void meetOther(QueryModelNode node) {
+            // the memoized estimates of a plan refer to its variables by name
+            if (node instanceof Plan)
+                ((Plan) node).getProperties().clearVarEstimates();
+            super.meetOther(node);
+        }
+
         public void meet(Var v) {
             if (!v.isConstant()) {
                 String name = theta.get(v.getName());
@@ -356,7 +432,18 @@ public class SelectBlock extends AbstractQueryBlock {
 
         private CompilerContext context;
 
-        public PredicateApplicator(CompilerContext context) { this.context = context; }
+        // the context that serves the prefetched sources of the patterns of the block
+        private CompilerContext patternContext;
+
+        // the plans of the enumerated items; an exclusive group is keyed by one of its members
+        private final Map<Quantifier, Pair<Collection<Quantifier>, Collection<Plan>>> units = new HashMap<>();
+
+        public PredicateApplicator(CompilerContext context) { this(context, context); }
+
+        public PredicateApplicator(CompilerContext context, CompilerContext patternContext) {
+            this.context = context;
+            this.patternContext = patternContext;
+        }
 
         /**
          * Creates a {@link Plan} for {@link Quantifier} {@code q} by applying all
@@ -368,6 +455,10 @@ public class SelectBlock extends AbstractQueryBlock {
         public Pair<Collection<Quantifier>, Collection<Plan>> access(Quantifier q) {
             // FIXME: What happens if q is Quantification.ALL or Quantification.ANY
 
+            Pair<Collection<Quantifier>, Collection<Plan>> unit = units.get(q);
+            if (unit != null)
+                return unit;
+
             Collection<Quantifier> k = Collections.singleton(q);
 
             // apply thetajoinpredicates that contain only this quantifier.
@@ -375,7 +466,9 @@ public class SelectBlock extends AbstractQueryBlock {
                     .filter(p -> isRelevant(p, k))
                     .collect(Collectors.toList());
 
-            Collection<Plan> plans = q.getBlock().getPlans(context);
+            boolean prefetched = q.isFrom() && q.getBlock() instanceof PatternBlock;
+
+            Collection<Plan> plans = q.getBlock().getPlans(prefetched ? patternContext : context);
 
             // rename each plan variable with the representative variable of its equivalent class
             Map<String,String> varMap = q.getVariables().stream()
@@ -388,7 +481,131 @@ public class SelectBlock extends AbstractQueryBlock {
                 plans = apply(plans, predicates);
             }
 
-            return new Pair<>(k, plans);
+            unit = new Pair<>(k, plans);
+            units.put(q, unit);
+            return unit;
+        }
+
+        /**
+         * Finds the exclusive groups of a set of connected quantifiers, i.e. the maximal connected
+         * subsets of quantifiers that can be answered only by the same remote site. Each group is
+         * composed, along with the filters and the optionals among its members, into plans that
+         * are evaluated entirely at that site, so that it is sent as a single query.
+         * @param qc a set of connected quantifiers
+         * @return the items to be enumerated, where each group is represented by one of its members
+         */
+        public Collection<Quantifier> groupExclusive(Collection<Quantifier> qc) {
+
+            Map<Quantifier, Site> sites = new HashMap<>();
+            for (Quantifier q : qc)
+                exclusiveSite(access(q).getSecond()).ifPresent(s -> sites.put(q, s));
+
+            // an optional quantifier can only be composed after the quantifiers it depends on
+            List<Quantifier> seeds = qc.stream()
+                    .filter(sites::containsKey)
+                    .sorted(Comparator.comparing(this::isOptional))
+                    .collect(Collectors.toList());
+
+            List<Quantifier> items = new ArrayList<>(qc);
+            Set<Quantifier> grouped = new HashSet<>();
+
+            for (Quantifier seed : seeds) {
+                if (grouped.contains(seed))
+                    continue;
+
+                Site site = sites.get(seed);
+                Pair<Collection<Quantifier>, Collection<Plan>> group = access(seed);
+
+                boolean grown = true;
+                while (grown) {
+                    grown = false;
+                    for (Quantifier q : seeds) {
+                        if (grouped.contains(q) || group.getFirst().contains(q) || !site.equals(sites.get(q)))
+                            continue;
+
+                        Pair<Collection<Quantifier>, Collection<Plan>> next = composeRemote(group, access(q));
+
+                        if (next.getSecond().isEmpty())
+                            next = composeRemote(access(q), group);
+
+                        if (!next.getSecond().isEmpty()) {
+                            group = next;
+                            grown = true;
+                        }
+                    }
+                }
+
+                if (group.getFirst().size() > 1) {
+                    grouped.addAll(group.getFirst());
+                    items.removeAll(group.getFirst());
+                    items.add(seed);
+                    units.put(seed, group);
+                }
+            }
+
+            return items;
+        }
+
+        /**
+         * Returns the site of a collection of alternative plans if all of them are evaluated
+         * at the same remote site.
+         */
+        private Optional<Site> exclusiveSite(Collection<Plan> plans) {
+            Set<Site> sites = plans.stream()
+                    .map(p -> p.getProperties().getSite())
+                    .collect(Collectors.toSet());
+
+            if (sites.size() == 1) {
+                Site s = sites.iterator().next();
+                if (s != null && s.isRemote())
+                    return Optional.of(s);
+            }
+            return Optional.empty();
+        }
+
+        private boolean isOptional(Quantifier q) {
+            return getPredicates().stream()
+                    .anyMatch(p -> p instanceof LeftJoinPredicate && ((LeftJoinPredicate) p).getTo().getQuantifier().equals(q));
+        }
+
+        /**
+         * Composes two collections of plans like {@link #compose} but only into plans that are
+         * evaluated at the common remote site of both.
+         */
+        private Pair<Collection<Quantifier>, Collection<Plan>> composeRemote(Pair<Collection<Quantifier>, Collection<Plan>> left,
+                                                                             Pair<Collection<Quantifier>, Collection<Plan>> right)
+        {
+            Collection<Quantifier> all = new HashSet<>(left.getFirst().size() + right.getFirst().size());
+            all.addAll(left.getFirst());
+            all.addAll(right.getFirst());
+
+            Collection<Predicate> predicates = getPredicates().stream()
+                    .filter(p -> isRelevant(p, left.getFirst(), right.getFirst()))
+                    .filter(p -> isApplicable(p, left.getFirst(), right.getFirst()))
+                    .collect(Collectors.toList());
+
+            Collection<Plan> plans = new LinkedList<>();
+
+            if (predicates.isEmpty())
+                return new Pair<>(all, plans);
+
+            Collection<Predicate> joinPredicates = predicates.stream()
+                    .filter(p -> p instanceof InnerJoinPredicate || p instanceof ThetaJoinPredicate).collect(Collectors.toList());
+
+            Collection<Predicate> leftjoinPredicates = predicates.stream()
+                    .filter(p -> p instanceof LeftJoinPredicate).collect(Collectors.toList());
+
+            for (Plan leftPlan : left.getSecond()) {
+                for (Plan rightPlan : right.getSecond()) {
+                    if (!joinPredicates.isEmpty())
+                        plans.addAll(new RemoteJoinImplGenerator().apply(leftPlan, rightPlan, joinPredicates, context));
+                    else
+                        plans.addAll(new RemoteLeftJoinImplGenerator().apply(leftPlan, rightPlan, leftjoinPredicates, context));
+                }
+            }
+
+            prune(plans);
+            return new Pair<>(all, plans);
         }
 
         /**
@@ -578,7 +795,7 @@ public class SelectBlock extends AbstractQueryBlock {
             JoinImplGenerator[] impls = new JoinImplGenerator[]{
                     new BindJoinImplGenerator()
                     , new RemoteJoinImplGenerator()
-                    //, new HashJoinImplGenerator()
+                    , new HashJoinImplGenerator()
             };
 
             for (JoinImplGenerator joinImpl : impls)
@@ -620,6 +837,36 @@ public class SelectBlock extends AbstractQueryBlock {
             return new PairSubsetIterator<>(tt);
         }
 
+        /**
+         * Two quantifiers are connected if a predicate refers to (equivalent) variables of both,
+         * since only then {@link #compose} can find an applicable predicate. A quantifier that
+         * represents an exclusive group is connected through any of the members of the group.
+         */
+        @Override
+        public boolean isConnected(Quantifier q1, Quantifier q2) {
+            Collection<Quantifier> k1 = members(q1);
+            Collection<Quantifier> k2 = members(q2);
+
+            return getPredicates().stream().anyMatch(p -> isRelevant(p, k1, k2));
+        }
+
+        private Collection<Quantifier> members(Quantifier q) {
+            Pair<Collection<Quantifier>, Collection<Plan>> unit = units.get(q);
+            return (unit != null) ? unit.getFirst() : Collections.singleton(q);
+        }
+
+        @Override
+        public int compareCost(Plan p1, Plan p2) {
+            Cost c1 = p1.getProperties().getCost();
+            Cost c2 = p2.getProperties().getCost();
+
+            // plans without a cost estimate are the least preferred
+            if (c1 == null || c2 == null)
+                return (c1 == null) ? ((c2 == null) ? 0 : 1) : -1;
+
+            return c1.compareTo(c2);
+        }
+
         public Collection<Plan> finalize(Pair<Collection<Quantifier>, Collection<Plan>> plans) {
 
             return plans.getSecond().stream()
@@ -903,15 +1150,24 @@ public class SelectBlock extends AbstractQueryBlock {
             public Collection<Plan> apply(Plan p1, Plan p2, Collection<Predicate> preds, CompilerContext context) {
                 Collection<Plan> plans = new LinkedList<>();
 
+                BigInteger card = p1.getProperties().getCardinality();
+
+                if (card == null || card.compareTo(HashJoin.MIN_CARDINALITY) < 0)
+                    return plans;
+
                 RequestedPlanProperties props = new RequestedPlanProperties();
                 props.setSite(LocalSite.getInstance());
 
                 Collection<Plan> pp1c = context.enforceProps(p1, props);
                 Collection<Plan> pp2c = context.enforceProps(p2, props);
 
+                // two remote operands can be fetched concurrently and joined as they arrive
+                boolean symmetric = p1.getProperties().getSite().isRemote() &&
+                                    p2.getProperties().getSite().isRemote();
+
                 for (Plan pp1 : pp1c) {
                     for (Plan pp2 : pp2c) {
-                        HashJoin b = new HashJoin(pp1, pp2);
+                        Join b = symmetric ? new SymmetricHashJoin(pp1, pp2) : new HashJoin(pp1, pp2);
                         // find remaining thetajoin predicates and also apply then in b
                         plans.add(context.asPlan(b));
 
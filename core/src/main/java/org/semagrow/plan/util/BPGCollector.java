@@ -23,6 +23,18 @@ public class BPGCollector extends AbstractQueryModelVisitor<RuntimeException> {
         return bpgCollector.bgps;
     }
 
+    /**
+     * Collects the BGPs of {@code expr} like {@link #process(TupleExpr)}, but it also
+     * reports {@code expr} itself if it is a BGP (e.g. a join of statement patterns).
+     */
+    public static Collection<TupleExpr> processIncludingRoot(TupleExpr expr){
+        BPGCollector bpgCollector = new BPGCollector();
+        expr.visit(bpgCollector);
+        if (bpgCollector.lastBGPNode != null)
+            bpgCollector.bgps.add(bpgCollector.lastBGPNode);
+        return bpgCollector.bgps;
+    }
+
     // --------------------------------------------------------------
 
     /**
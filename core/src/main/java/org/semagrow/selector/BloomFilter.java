@@ -0,0 +1,104 @@
+package org.semagrow.selector;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Bloom filter of strings. A filter never reports that a string that was added is missing,
+ * while it reports a missing string as present with a probability that is set on creation.
+ *
+ * @author acharal
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+
+    private final int hashes;
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    /**
+     * @param expectedInsertions the number of strings that will be added
+     * @param fpp the desired probability of reporting a missing string as present
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) / 64));
+
+        this.bits = new long[words];
+        this.hashes = Math.max(1, (int) Math.round((double) words * 64 / n * Math.log(2)));
+    }
+
+    public void put(String s) {
+        long h = hash(s);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = (long) bits.length * 64;
+
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String s) {
+        long h = hash(s);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = (long) bits.length * 64;
+
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The size of the filter in bytes.
+     */
+    public long size() { return (long) bits.length * 8; }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long w : bits)
+            out.writeLong(w);
+    }
+
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int hashes = in.readInt();
+        int words = in.readInt();
+
+        if (hashes <= 0 || words <= 0)
+            throw new IOException("Invalid Bloom filter");
+
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++)
+            bits[i] = in.readLong();
+        return new BloomFilter(bits, hashes);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, followed by the finalizer of MurmurHash3.
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
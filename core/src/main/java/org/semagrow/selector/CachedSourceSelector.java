@@ -1,63 +1,418 @@
 package org.semagrow.selector;
 
 import org.semagrow.art.Loggable;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Collection;
-import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Wraps a underlying @{link SourceSelector} and provides a simple
- * caching mechanism to tha source selection requests
+ * caching mechanism to tha source selection requests.
+ * <p>
+ * Patterns that differ only in the names of their variables share the same
+ * cache entry; the cached {@link SourceMetadata} are renamed to the variables
+ * of the requested pattern. The cache holds at most {@code maxSize} entries
+ * and each entry expires {@code ttl} milliseconds after it was added.
+ * The cached collections are immutable. The counters of the cache are exposed through JMX.
  * @author Angelos Charalambidis
  */
-public class CachedSourceSelector extends SourceSelectorWrapper
+public class CachedSourceSelector extends SourceSelectorWrapper implements CachedSourceSelectorMXBean
 {
-    private Map<StatementPattern, Collection<SourceMetadata>> cache = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(CachedSourceSelector.class);
+
+    private static final String OBJECT_NAME = "org.semagrow:type=CachedSourceSelector";
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private final ConcurrentMap<Key, Entry> cache = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final long ttl;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ObjectName objectName;
 
     public CachedSourceSelector(SourceSelector selector) {
+        this(selector, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param selector the underlying selector
+     * @param maxSize the maximum number of cached patterns
+     * @param ttl the time in milliseconds after which a cached pattern expires; 0 for no expiration
+     */
+    public CachedSourceSelector(SourceSelector selector, int maxSize, long ttl) {
         super(selector);
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = ttl;
     }
 
     @Override
     @Loggable
     public Collection<SourceMetadata> getSources(StatementPattern pattern, Dataset dataset, BindingSet bindings)
     {
-        Collection<SourceMetadata> retv;
+        Key key = new Key(pattern, dataset, bindings);
 
-        if( cache.containsKey(pattern) ) {
-            retv = cache.get(pattern);
-        }
-        else {
-            Collection<SourceMetadata> list = super.getSources(pattern, dataset, bindings);
-            cache.put(pattern, list);
-            retv = list;
-        }
+        Collection<SourceMetadata> list = lookup(key, pattern, bindings);
 
-        return retv;
+        if (list != null)
+            return list;
+
+        return store(key, pattern, super.getSources(pattern, dataset, bindings));
     }
 
-    private Collection<SourceMetadata> getSources(Iterable<StatementPattern> patterns, Dataset dataset, BindingSet bindings)
+    /**
+     * Resolves the patterns that are not cached with a single request to the underlying selector,
+     * so that they are resolved together.
+     */
+    @Override
+    @Loggable
+    public Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings)
     {
-        Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
-        for (StatementPattern p : patterns) {
-            list.addAll(this.getSources(p, dataset, bindings));
+        Map<StatementPattern, Collection<SourceMetadata>> sources = new LinkedHashMap<>();
+        Map<StatementPattern, Key> missing = new LinkedHashMap<>();
+
+        for (StatementPattern pattern : patterns) {
+            if (sources.containsKey(pattern) || missing.containsKey(pattern))
+                continue;
+
+            Key key = new Key(pattern, dataset, bindings);
+            Collection<SourceMetadata> list = lookup(key, pattern, bindings);
+
+            if (list != null)
+                sources.put(pattern, list);
+            else
+                missing.put(pattern, key);
         }
-        return list;
+
+        if (!missing.isEmpty()) {
+            Map<StatementPattern, Collection<SourceMetadata>> resolved =
+                    super.getSources(missing.keySet(), dataset, bindings);
+
+            for (Map.Entry<StatementPattern, Key> e : missing.entrySet()) {
+                Collection<SourceMetadata> list = resolved.get(e.getKey());
+                if (list != null)
+                    sources.put(e.getKey(), store(e.getValue(), e.getKey(), list));
+            }
+        }
+
+        // keep the order of the requested patterns
+        Map<StatementPattern, Collection<SourceMetadata>> result = new LinkedHashMap<>();
+        for (StatementPattern pattern : patterns) {
+            Collection<SourceMetadata> list = sources.get(pattern);
+            if (list != null)
+                result.put(pattern, list);
+        }
+        return result;
     }
 
     @Override
     public Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
         //FIXME: This is not the case in general but only in a pattern-wise src selector
         Collection<StatementPattern> patterns  = StatementPatternCollector.process( expr );
-        return getSources( patterns, dataset, bindings );
+
+        Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
+        for (Collection<SourceMetadata> l : getSources(patterns, dataset, bindings).values()) {
+            list.addAll(l);
+        }
+        return list;
+    }
+
+    private Collection<SourceMetadata> lookup(Key key, StatementPattern pattern, BindingSet bindings) {
+        Entry entry = cache.get(key);
+
+        if (entry != null && entry.isExpired()) {
+            cache.remove(key, entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.getSources(pattern, bindings);
+    }
+
+    private Collection<SourceMetadata> store(Key key, StatementPattern pattern, Collection<SourceMetadata> list) {
+        Entry entry = new Entry(pattern, list);
+
+        cache.put(key, entry);
+
+        if (cache.size() > maxSize)
+            evict();
+
+        return entry.sources;
+    }
+
+    @Override
+    public long getHitCount() { return hits.get(); }
+
+    @Override
+    public long getMissCount() { return misses.get(); }
+
+    @Override
+    public long getEvictionCount() { return evictions.get(); }
+
+    @Override
+    public int getSize() { return cache.size(); }
+
+    @Override
+    public void invalidateAll() { cache.clear(); }
+
+    /**
+     * Registers the cache to the platform MBean server.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (JMException e) {
+            logger.warn("Cannot register source selector cache to JMX", e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("Cannot unregister source selector cache from JMX", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Removes the expired entries and, if the cache is still full, the oldest
+     * entries so that a tenth of the capacity becomes available.
+     */
+    private synchronized void evict() {
+        if (cache.size() <= maxSize)
+            return;
+
+        cache.entrySet().removeIf(e -> {
+            boolean expired = e.getValue().isExpired();
+            if (expired)
+                evictions.incrementAndGet();
+            return expired;
+        });
+
+        int excess = cache.size() - (maxSize - maxSize / 10);
+
+        if (excess <= 0)
+            return;
+
+        List<Map.Entry<Key, Entry>> entries = new ArrayList<>(cache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().created));
+
+        for (Map.Entry<Key, Entry> e : entries.subList(0, Math.min(excess, entries.size()))) {
+            if (cache.remove(e.getKey(), e.getValue()))
+                evictions.incrementAndGet();
+        }
+    }
+
+    private static List<Var> positions(StatementPattern pattern) {
+        return Arrays.asList(pattern.getSubjectVar(), pattern.getPredicateVar(),
+                pattern.getObjectVar(), pattern.getContextVar());
+    }
+
+    private static Value valueOf(Var var, BindingSet bindings) {
+        if (var.hasValue())
+            return var.getValue();
+        else if (bindings != null)
+            return bindings.getValue(var.getName());
+        else
+            return null;
+    }
+
+    /**
+     * The canonical form of a pattern request: constants and bound variables are
+     * kept by value and the rest of the variables are numbered by their first occurrence.
+     */
+    private static final class Key {
+
+        private final Object[] terms;
+
+        private final StatementPattern.Scope scope;
+
+        private final Set<IRI> defaultGraphs;
+
+        private final Set<IRI> namedGraphs;
+
+        private final int hash;
+
+        Key(StatementPattern pattern, Dataset dataset, BindingSet bindings) {
+            List<Var> vars = positions(pattern);
+            List<String> names = new ArrayList<>(4);
+
+            terms = new Object[vars.size()];
+
+            for (int i = 0; i < terms.length; i++) {
+                Var var = vars.get(i);
+
+                if (var == null)
+                    continue;
+
+                Value value = valueOf(var, bindings);
+
+                if (value != null) {
+                    terms[i] = value;
+                } else {
+                    int index = names.indexOf(var.getName());
+                    if (index < 0) {
+                        index = names.size();
+                        names.add(var.getName());
+                    }
+                    terms[i] = index;
+                }
+            }
+
+            scope = pattern.getScope();
+            defaultGraphs = (dataset == null) ? null : new HashSet<>(dataset.getDefaultGraphs());
+            namedGraphs = (dataset == null) ? null : new HashSet<>(dataset.getNamedGraphs());
+            hash = Objects.hash(Arrays.hashCode(terms), scope, defaultGraphs, namedGraphs);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key) o;
+            return hash == k.hash
+                    && Arrays.equals(terms, k.terms)
+                    && scope == k.scope
+                    && Objects.equals(defaultGraphs, k.defaultGraphs)
+                    && Objects.equals(namedGraphs, k.namedGraphs);
+        }
     }
 
+    private final class Entry {
 
+        private final StatementPattern pattern;
+
+        private final Collection<SourceMetadata> sources;
+
+        private final long created = System.currentTimeMillis();
+
+        Entry(StatementPattern pattern, Collection<SourceMetadata> sources) {
+            this.pattern = pattern;
+            this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        }
+
+        boolean isExpired() {
+            return ttl > 0 && System.currentTimeMillis() - created > ttl;
+        }
+
+        /**
+         * Returns the cached sources in terms of the variables of {@code requested}.
+         */
+        Collection<SourceMetadata> getSources(StatementPattern requested, BindingSet bindings) {
+            if (requested.equals(pattern))
+                return sources;
+
+            Map<String, String> renaming = new HashMap<>();
+
+            List<Var> from = positions(pattern);
+            List<Var> to = positions(requested);
+
+            for (int i = 0; i < from.size(); i++) {
+                Var f = from.get(i);
+                Var t = to.get(i);
+                if (f != null && t != null && valueOf(f, bindings) == null && !f.getName().equals(t.getName()))
+                    renaming.put(f.getName(), t.getName());
+            }
+
+            List<SourceMetadata> renamed = new ArrayList<>(sources.size());
+            for (SourceMetadata m : sources)
+                renamed.add(new RenamedSourceMetadata(m, requested, renaming));
+
+            return Collections.unmodifiableList(renamed);
+        }
+    }
+
+    private static class RenamedSourceMetadata implements SourceMetadata {
+
+        private final SourceMetadata metadata;
+
+        private final StatementPattern original;
+
+        private final Map<String, String> renaming;
+
+        private StatementPattern target;
+
+        RenamedSourceMetadata(SourceMetadata metadata, StatementPattern original, Map<String, String> renaming) {
+            this.metadata = metadata;
+            this.original = original;
+            this.renaming = renaming;
+        }
+
+        public Collection<Site> getSites() { return metadata.getSites(); }
+
+        public StatementPattern original() { return original; }
+
+        public synchronized StatementPattern target() {
+            if (target == null) {
+                target = metadata.target().clone();
+                target.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+                    @Override
+                    public void meet(Var var) {
+                        String name = renaming.get(var.getName());
+                        if (name != null)
+                            var.setName(name);
+                    }
+                });
+            }
+            return target;
+        }
+
+        public Collection<IRI> getSchema(String var) {
+            for (Map.Entry<String, String> e : renaming.entrySet()) {
+                if (e.getValue().equals(var))
+                    return metadata.getSchema(e.getKey());
+            }
+            return metadata.getSchema(var);
+        }
+
+        public boolean isTransformed() { return metadata.isTransformed(); }
+
+        public double getSemanticProximity() { return metadata.getSemanticProximity(); }
+    }
 }
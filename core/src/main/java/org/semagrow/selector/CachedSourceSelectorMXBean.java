@@ -0,0 +1,18 @@
+package org.semagrow.selector;
+
+/**
+ * Management interface of the {@link CachedSourceSelector}.
+ * @author Angelos Charalambidis
+ */
+public interface CachedSourceSelectorMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    int getSize();
+
+    void invalidateAll();
+}
@@ -0,0 +1,237 @@
+package org.semagrow.selector;
+
+import org.semagrow.art.Loggable;
+import org.semagrow.plan.util.BPGCollector;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.repository.Repository;
+
+import java.util.*;
+
+/**
+ * Wraps a pattern-wise {@link SourceSelector} and prunes the sources of each basic graph
+ * pattern that cannot contribute to its joins.
+ * <p>
+ * The SEVOD subject and object regex patterns of the datasets give the prefixes of the IRIs
+ * that a source can bind to a variable of a triple pattern. If a variable is shared by two
+ * patterns of the same basic graph pattern, a source of the one pattern whose prefixes do
+ * not overlap with the prefixes of any source of the other pattern cannot produce a join
+ * result and is removed. Sources without prefix summaries are never removed, and a pattern
+ * is never left without sources, since the metadata may be incomplete.
+ *
+ * @author acharal
+ */
+public class JoinAwareSourceSelector extends SourceSelectorWrapper {
+
+    private final VOIDIndex index;
+
+    public JoinAwareSourceSelector(SourceSelector selector, Repository metadata) {
+        super(selector);
+        this.index = VOIDIndex.of(metadata);
+    }
+
+    @Override
+    @Loggable
+    public Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
+
+        if (expr instanceof StatementPattern)
+            return getSources((StatementPattern) expr, dataset, bindings);
+
+        List<List<StatementPattern>> bgps = new ArrayList<>();
+        Set<StatementPattern> collected = new HashSet<>();
+
+        for (TupleExpr bgp : BPGCollector.processIncludingRoot(expr)) {
+            List<StatementPattern> patterns = distinct(StatementPatternCollector.process(bgp));
+            collected.addAll(patterns);
+            bgps.add(patterns);
+        }
+
+        // the patterns that are not reported in a basic graph pattern are not known
+        // to be joined, so their sources are kept
+        List<StatementPattern> rest = distinct(StatementPatternCollector.process(expr));
+        rest.removeAll(collected);
+        bgps.add(rest);
+
+        // the sources of a pattern are looked up by the pattern, so a pattern that appears
+        // in more than one basic graph pattern must keep the sources that are relevant to all
+        Set<StatementPattern> seen = new HashSet<>();
+        Set<StatementPattern> shared = new HashSet<>(rest);
+        for (List<StatementPattern> patterns : bgps) {
+            for (StatementPattern p : patterns) {
+                if (!seen.add(p))
+                    shared.add(p);
+            }
+        }
+
+        Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
+        Set<StatementPattern> reported = new HashSet<>();
+
+        for (List<StatementPattern> patterns : bgps) {
+            Map<StatementPattern, List<SourceMetadata>> sources = prune(patterns, shared, dataset, bindings);
+            for (Map.Entry<StatementPattern, List<SourceMetadata>> e : sources.entrySet()) {
+                if (reported.add(e.getKey()))
+                    list.addAll(e.getValue());
+            }
+        }
+
+        return list;
+    }
+
+    private static List<StatementPattern> distinct(Collection<StatementPattern> patterns) {
+        return new ArrayList<>(new LinkedHashSet<>(patterns));
+    }
+
+    private Map<StatementPattern, List<SourceMetadata>> prune(List<StatementPattern> patterns, Set<StatementPattern> shared,
+                                                              Dataset dataset, BindingSet bindings)
+    {
+
+        List<List<Candidate>> candidates = new ArrayList<>(patterns.size());
+
+        // the object summaries describe only IRIs, so they are used only for variables
+        // that cannot be bound to literals
+        Set<String> subjectVars = new HashSet<>();
+        for (StatementPattern p : patterns)
+            subjectVars.add(p.getSubjectVar().getName());
+
+        Map<StatementPattern, Collection<SourceMetadata>> sources = super.getSources(patterns, dataset, bindings);
+
+        for (StatementPattern p : patterns) {
+            List<Candidate> l = new LinkedList<>();
+            for (SourceMetadata m : sources.getOrDefault(p, Collections.emptyList()))
+                l.add(new Candidate(p, m, bindings, subjectVars));
+            candidates.add(l);
+        }
+
+        if (patterns.size() > 1) {
+            boolean changed = true;
+
+            // removing a source may render sources of other patterns useless
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < candidates.size(); i++) {
+                    for (int j = 0; j < candidates.size(); j++) {
+                        if (i != j && !shared.contains(patterns.get(i)) && prune(candidates.get(i), candidates.get(j)))
+                            changed = true;
+                    }
+                }
+            }
+        }
+
+        Map<StatementPattern, List<SourceMetadata>> result = new LinkedHashMap<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            List<SourceMetadata> l = new LinkedList<>();
+            for (Candidate c : candidates.get(i))
+                l.add(c.metadata);
+            result.put(patterns.get(i), l);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the candidates of {@code pruned} that do not join with any candidate of {@code other}.
+     * @return true if any candidate was removed
+     */
+    private boolean prune(List<Candidate> pruned, List<Candidate> other) {
+        if (pruned.size() <= 1 || other.isEmpty())
+            return false;
+
+        Set<String> vars = new HashSet<>(pruned.get(0).prefixes.keySet());
+        vars.retainAll(other.get(0).prefixes.keySet());
+
+        boolean changed = false;
+
+        for (String var : vars) {
+            Set<String> prefixes = new HashSet<>();
+
+            for (Candidate c : other) {
+                Set<String> p = c.prefixes.get(var);
+                if (p == null) {
+                    prefixes = null;
+                    break;
+                }
+                prefixes.addAll(p);
+            }
+
+            if (prefixes == null)
+                continue;
+
+            List<Candidate> kept = new ArrayList<>(pruned.size());
+            for (Candidate c : pruned) {
+                Set<String> p = c.prefixes.get(var);
+                if (p == null || overlap(p, prefixes))
+                    kept.add(c);
+            }
+
+            if (!kept.isEmpty() && kept.size() < pruned.size()) {
+                pruned.retainAll(kept);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Two sets of prefixes overlap if an IRI can start with a prefix of both sets.
+     */
+    private static boolean overlap(Set<String> a, Set<String> b) {
+        for (String x : a) {
+            for (String y : b) {
+                if (x.startsWith(y) || y.startsWith(x))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A candidate source of a pattern, along with the prefixes of the IRIs that it can bind
+     * to each free variable of the pattern; a null set of prefixes stands for any IRI.
+     */
+    private final class Candidate {
+
+        final SourceMetadata metadata;
+
+        final Map<String, Set<String>> prefixes = new HashMap<>();
+
+        Candidate(StatementPattern pattern, SourceMetadata metadata, BindingSet bindings, Set<String> subjectVars) {
+            this.metadata = metadata;
+
+            Var s = pattern.getSubjectVar();
+            Var o = pattern.getObjectVar();
+
+            if (isFree(s, bindings))
+                prefixes.put(s.getName(), null);
+            if (isFree(o, bindings))
+                prefixes.put(o.getName(), null);
+
+            if (metadata.isTransformed() || metadata.getSites().size() != 1)
+                return;
+
+            Resource id = metadata.getSites().iterator().next().getID();
+            Value p = pattern.getPredicateVar().getValue();
+
+            if (!(id instanceof IRI) || (p != null && !(p instanceof IRI)))
+                return;
+
+            IRI endpoint = (IRI) id;
+            IRI predicate = (IRI) p;
+
+            // a variable in both positions is constrained by both summaries; keep the subject's
+            if (isFree(o, bindings) && subjectVars.contains(o.getName()))
+                index.getObjectPrefixes(endpoint, predicate).ifPresent(x -> prefixes.put(o.getName(), x));
+            if (isFree(s, bindings))
+                index.getSubjectPrefixes(endpoint, predicate).ifPresent(x -> prefixes.put(s.getName(), x));
+        }
+
+        private boolean isFree(Var var, BindingSet bindings) {
+            return !var.hasValue() && (bindings == null || !bindings.hasBinding(var.getName()));
+        }
+    }
+}
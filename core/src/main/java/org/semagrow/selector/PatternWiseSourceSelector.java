@@ -21,8 +21,8 @@ public abstract class PatternWiseSourceSelector implements SourceSelector {
             return getSources((StatementPattern)expr, dataset, bindingSet);
         else {
             Collection<StatementPattern> patterns = StatementPatternCollector.process(expr);
-            return patterns.stream().distinct()
-                    .flatMap(p -> getSources(p, dataset, bindingSet).stream())
+            return getSources(patterns, dataset, bindingSet).values().stream()
+                    .flatMap(Collection::stream)
                     .collect(Collectors.toList());
         }
     }
@@ -0,0 +1,231 @@
+package org.semagrow.selector;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An index of regular expressions that returns the ids of the expressions
+ * that match a string, such as the SEVOD subject and object regex patterns of the datasets.
+ * <p>
+ * Anchored prefix patterns, such as {@code ^http://dbpedia.org/resource/}, are by far the
+ * most common and they are compiled into a character trie, in which an unescaped {@code .}
+ * matches any character. The trie is matched in a single pass over the string, regardless
+ * of the number of patterns. The rest of the patterns are precompiled and tested one by one.
+ * <p>
+ * The index is immutable and safe to share between threads.
+ *
+ * @author acharal
+ */
+final class RegexPatternIndex {
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final Node root;
+
+    private final int[] ids;
+
+    private final Pattern[] patterns;
+
+    private RegexPatternIndex(Node root, int[] ids, Pattern[] patterns) {
+        this.root = root;
+        this.ids = ids;
+        this.patterns = patterns;
+    }
+
+    /**
+     * Returns the ids of the patterns that match (a part of) the given string.
+     */
+    BitSet match(String s) {
+        BitSet result = new BitSet();
+
+        List<Node> active = new ArrayList<>(2);
+        List<Node> next = new ArrayList<>(2);
+        active.add(root);
+
+        for (int i = 0; i < s.length() && !active.isEmpty(); i++) {
+            char c = s.charAt(i);
+
+            for (Node n : active) {
+                n.collect(result);
+
+                Node child = n.child(c);
+                if (child != null)
+                    next.add(child);
+                if (n.any != null)
+                    next.add(n.any);
+            }
+
+            List<Node> t = active;
+            active = next;
+            next = t;
+            next.clear();
+        }
+
+        for (Node n : active)
+            n.collect(result);
+
+        for (int i = 0; i < patterns.length; i++) {
+            if (!result.get(ids[i]) && patterns[i].matcher(s).find())
+                result.set(ids[i]);
+        }
+
+        return result;
+    }
+
+    static final class Builder {
+
+        private final Node root = new Node();
+
+        private final List<Integer> ids = new ArrayList<>();
+
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        /**
+         * Adds the regular expression {@code regex} with the given id.
+         * @throws PatternSyntaxException if the expression is not valid
+         */
+        Builder add(String regex, int id) {
+            String prefix = prefixOf(regex);
+
+            if (prefix != null) {
+                Node n = root;
+                for (int i = 0; i < prefix.length(); i += 2)
+                    n = n.add(prefix.charAt(i), prefix.charAt(i + 1) == '.');
+                n.ids.add(id);
+            } else {
+                patterns.add(Pattern.compile(regex));
+                ids.add(id);
+            }
+            return this;
+        }
+
+        RegexPatternIndex build() {
+            int[] a = new int[ids.size()];
+            for (int i = 0; i < a.length; i++)
+                a[i] = ids.get(i);
+
+            return new RegexPatternIndex(root.compact(), a, patterns.toArray(new Pattern[0]));
+        }
+
+        /**
+         * Returns the literal prefix of the strings that match {@code regex}, up to its first
+         * wildcard, or null if {@code regex} is not an anchored prefix pattern.
+         */
+        static String literalPrefix(String regex) {
+            String prefix = prefixOf(regex);
+
+            if (prefix == null)
+                return null;
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < prefix.length() && prefix.charAt(i + 1) != '.'; i += 2)
+                sb.append(prefix.charAt(i));
+            return sb.toString();
+        }
+
+        /**
+         * Returns the characters that an anchored prefix pattern must match, or null
+         * if the pattern is not an anchored prefix pattern. Each character is followed
+         * by {@code .} if it is a wildcard or {@code =} if it must match exactly.
+         */
+        private static String prefixOf(String regex) {
+            if (!regex.startsWith("^"))
+                return null;
+
+            StringBuilder sb = new StringBuilder();
+            int i = 1;
+
+            while (i < regex.length()) {
+                char c = regex.charAt(i);
+
+                if (c == '\\') {
+                    if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1)))
+                        return null;
+                    c = regex.charAt(i + 1);
+                    i += 2;
+                    if (quantified(regex, i))
+                        return null;
+                    sb.append(c).append('=');
+                } else if (c == '.') {
+                    if (regex.startsWith(".*", i) && (i + 2 == regex.length()))
+                        return sb.toString();
+                    i++;
+                    if (quantified(regex, i))
+                        return null;
+                    sb.append(c).append('.');
+                } else if (METACHARACTERS.indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    i++;
+                    if (quantified(regex, i))
+                        return null;
+                    sb.append(c).append('=');
+                }
+            }
+            return sb.toString();
+        }
+
+        private static boolean quantified(String regex, int i) {
+            return i < regex.length() && "?*+{".indexOf(regex.charAt(i)) >= 0;
+        }
+    }
+
+    private static final class Node {
+
+        private static final int[] NONE = new int[0];
+
+        // used while building
+        private Map<Character, Node> map = new TreeMap<>();
+        private List<Integer> ids = new ArrayList<>(0);
+
+        private char[] keys;
+        private Node[] children;
+        private Node any;
+        private int[] matches = NONE;
+
+        Node add(char c, boolean wildcard) {
+            if (wildcard) {
+                if (any == null)
+                    any = new Node();
+                return any;
+            }
+            return map.computeIfAbsent(c, k -> new Node());
+        }
+
+        Node compact() {
+            keys = new char[map.size()];
+            children = new Node[map.size()];
+
+            int i = 0;
+            for (Map.Entry<Character, Node> e : map.entrySet()) {
+                keys[i] = e.getKey();
+                children[i] = e.getValue().compact();
+                i++;
+            }
+
+            if (any != null)
+                any.compact();
+
+            if (!ids.isEmpty()) {
+                matches = new int[ids.size()];
+                for (int j = 0; j < matches.length; j++)
+                    matches[j] = ids.get(j);
+            }
+
+            map = null;
+            ids = null;
+            return this;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return (i < 0) ? null : children[i];
+        }
+
+        void collect(BitSet result) {
+            for (int id : matches)
+                result.set(id);
+        }
+    }
+}
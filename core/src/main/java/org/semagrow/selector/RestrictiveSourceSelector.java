@@ -51,6 +51,20 @@ public class RestrictiveSourceSelector extends SourceSelectorWrapper {
         return isRestrictive() ? restrictSourceList(res) : res;
     }
 
+    @Override
+    public Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+
+        Map<StatementPattern, Collection<SourceMetadata>> res = getWrappedSelector().getSources(patterns, dataset, bindings);
+
+        if (!isRestrictive())
+            return res;
+
+        Map<StatementPattern, Collection<SourceMetadata>> restricted = new LinkedHashMap<>();
+        for (Map.Entry<StatementPattern, Collection<SourceMetadata>> e : res.entrySet())
+            restricted.put(e.getKey(), restrictSourceList(e.getValue()));
+        return restricted;
+    }
+
     private Collection<SourceMetadata> restrictSourceList(Collection<SourceMetadata> list) {
         Collection<SourceMetadata> restrictedList = new LinkedList<SourceMetadata>();
 
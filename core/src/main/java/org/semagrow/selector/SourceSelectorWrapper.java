@@ -6,6 +6,7 @@ import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * A simple wrapper of a @{link SourceSelector} that can be
@@ -35,4 +36,8 @@ public class SourceSelectorWrapper  implements SourceSelector {
     public Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
         return getWrappedSelector().getSources(expr, dataset, bindings);
     }
+
+    public Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+        return getWrappedSelector().getSources(patterns, dataset, bindings);
+    }
 }
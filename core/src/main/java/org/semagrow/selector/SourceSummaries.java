@@ -0,0 +1,151 @@
+package org.semagrow.selector;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bloom filter summaries of the subjects and objects of the triples of each endpoint,
+ * one pair of filters per predicate and one pair over all the triples of the endpoint.
+ * The summaries are built offline and they are used during source selection to reject
+ * the endpoints that certainly do not contain a bound subject or object.
+ * <p>
+ * Only IRIs and string literals are summarized, since other literals may match
+ * values with a different lexical form; patterns that bind other values are never rejected.
+ *
+ * @author acharal
+ */
+public class SourceSummaries {
+
+    private static final int MAGIC = 0x53475346;
+
+    private static final int VERSION = 1;
+
+    // the predicate of the summary over all the triples of an endpoint
+    private static final String ANY = "";
+
+    private final Map<String, Map<String, Summary>> summaries = new HashMap<>();
+
+    /**
+     * Returns false if {@code endpoint} certainly contains no triple that matches {@code pattern}.
+     * The summaries describe only the default graph of the endpoints, so patterns over
+     * named graphs are never rejected.
+     */
+    public boolean mightMatch(IRI endpoint, StatementPattern pattern) {
+        if (pattern.getContextVar() != null || pattern.getScope() == StatementPattern.Scope.NAMED_CONTEXTS)
+            return true;
+
+        Map<String, Summary> endpointSummaries = summaries.get(endpoint.stringValue());
+
+        if (endpointSummaries == null)
+            return true;
+
+        Value p = pattern.getPredicateVar().getValue();
+        Summary summary = endpointSummaries.get((p == null) ? ANY : p.stringValue());
+
+        if (summary == null)
+            // the predicate has been summarized only if the endpoint contains it
+            return p == null || !endpointSummaries.containsKey(ANY);
+
+        String s = key(pattern.getSubjectVar().getValue());
+        String o = key(pattern.getObjectVar().getValue());
+
+        return (s == null || summary.subjects.mightContain(s))
+                && (o == null || summary.objects.mightContain(o));
+    }
+
+    public void put(String endpoint, IRI predicate, BloomFilter subjects, BloomFilter objects) {
+        summaries.computeIfAbsent(endpoint, k -> new HashMap<>())
+                .put((predicate == null) ? ANY : predicate.stringValue(), new Summary(subjects, objects));
+    }
+
+    public void remove(String endpoint) { summaries.remove(endpoint); }
+
+    public Set<String> getEndpoints() { return Collections.unmodifiableSet(summaries.keySet()); }
+
+    /**
+     * Returns the string that is added to the filters for {@code value}, or null if
+     * {@code value} is not summarized.
+     */
+    public static String key(Value value) {
+        if (value instanceof IRI)
+            return "<" + value.stringValue() + ">";
+
+        if (value instanceof Literal) {
+            Literal l = (Literal) value;
+            IRI datatype = l.getDatatype();
+
+            if (l.getLanguage().isPresent())
+                return "\"" + l.getLabel() + "\"@" + l.getLanguage().get().toLowerCase();
+            else if (datatype == null || datatype.equals(XMLSchema.STRING))
+                return "\"" + l.getLabel() + "\"";
+        }
+        return null;
+    }
+
+    public static SourceSummaries load(File file) throws IOException {
+        SourceSummaries s = new SourceSummaries();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a source summary file: " + file);
+
+            int endpoints = in.readInt();
+            for (int i = 0; i < endpoints; i++) {
+                String endpoint = in.readUTF();
+                Map<String, Summary> endpointSummaries = new HashMap<>();
+
+                int predicates = in.readInt();
+                for (int j = 0; j < predicates; j++) {
+                    String predicate = in.readUTF();
+                    BloomFilter subjects = BloomFilter.readFrom(in);
+                    BloomFilter objects = BloomFilter.readFrom(in);
+                    endpointSummaries.put(predicate, new Summary(subjects, objects));
+                }
+                s.summaries.put(endpoint, endpointSummaries);
+            }
+        }
+        return s;
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(summaries.size());
+
+            for (Map.Entry<String, Map<String, Summary>> e : summaries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+
+                for (Map.Entry<String, Summary> p : e.getValue().entrySet()) {
+                    out.writeUTF(p.getKey());
+                    p.getValue().subjects.writeTo(out);
+                    p.getValue().objects.writeTo(out);
+                }
+            }
+        }
+    }
+
+    private static final class Summary {
+
+        final BloomFilter subjects;
+
+        final BloomFilter objects;
+
+        Summary(BloomFilter subjects, BloomFilter objects) {
+            this.subjects = subjects;
+            this.objects = objects;
+        }
+    }
+}
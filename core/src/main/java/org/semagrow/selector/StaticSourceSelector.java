@@ -19,6 +19,13 @@ public class StaticSourceSelector implements SourceSelector {
         buildMap(list);
     }
 
+    /**
+     * Serves the sources that are already resolved for each pattern.
+     */
+    public StaticSourceSelector(Map<StatementPattern, Collection<SourceMetadata>> sources) {
+        map.putAll(sources);
+    }
+
     private void buildMap(Collection<SourceMetadata> list) {
         for (SourceMetadata l : list) {
             Collection<SourceMetadata> ll = new LinkedList<SourceMetadata>();
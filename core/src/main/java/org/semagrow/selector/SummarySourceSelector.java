@@ -0,0 +1,75 @@
+package org.semagrow.selector;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Wraps a {@link SourceSelector} and removes the candidate sources that certainly
+ * do not contain triples that match the pattern, according to their {@link SourceSummaries}.
+ * The check is done in memory, so it is meant to be placed in front of selectors
+ * that contact the sources, such as the ASK based selection.
+ *
+ * @author acharal
+ */
+public class SummarySourceSelector extends SourceSelectorWrapper {
+
+    private final SourceSummaries summaries;
+
+    public SummarySourceSelector(SourceSelector selector, SourceSummaries summaries) {
+        super(selector);
+        this.summaries = summaries;
+    }
+
+    @Override
+    public Collection<SourceMetadata> getSources(StatementPattern pattern, Dataset dataset, BindingSet bindings) {
+        return restrictSourceList(super.getSources(pattern, dataset, bindings));
+    }
+
+    @Override
+    public Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
+        if (expr instanceof StatementPattern)
+            return getSources((StatementPattern) expr, dataset, bindings);
+
+        Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
+        for (Collection<SourceMetadata> l : getSources(StatementPatternCollector.process(expr), dataset, bindings).values())
+            list.addAll(l);
+        return list;
+    }
+
+    @Override
+    public Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+        Map<StatementPattern, Collection<SourceMetadata>> sources = new LinkedHashMap<>();
+        for (Map.Entry<StatementPattern, Collection<SourceMetadata>> e : super.getSources(patterns, dataset, bindings).entrySet())
+            sources.put(e.getKey(), restrictSourceList(e.getValue()));
+        return sources;
+    }
+
+    private Collection<SourceMetadata> restrictSourceList(Collection<SourceMetadata> list) {
+        Collection<SourceMetadata> restrictedList = new LinkedList<SourceMetadata>();
+
+        for (SourceMetadata metadata : list) {
+            if (mightMatch(metadata))
+                restrictedList.add(metadata);
+        }
+        return restrictedList;
+    }
+
+    private boolean mightMatch(SourceMetadata metadata) {
+        for (Site site : metadata.getSites()) {
+            Resource id = site.getID();
+            if (!(id instanceof IRI) || summaries.mightMatch((IRI) id, metadata.target()))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,497 @@
+package org.semagrow.selector;
+
+import org.semagrow.model.vocabulary.SEVOD;
+import org.semagrow.model.vocabulary.VOID;
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An in-memory index of the VoID and SEVOD descriptions of a metadata repository.
+ * <p>
+ * The index is built once by scanning the metadata repository and it answers the
+ * lookups of {@link VOIDBase} without querying the repository. Each dataset is
+ * assigned an ordinal and its statistics are kept in primitive arrays indexed by
+ * the ordinal. The SEVOD regex patterns are compiled into a {@link RegexPatternIndex}.
+ * A snapshot is immutable; {@link #invalidate()} causes the next lookup to build
+ * a new snapshot that replaces the current one atomically, so concurrent readers
+ * always see a consistent index.
+ * <p>
+ * A repository that does not report its changes can be rescanned periodically with
+ * {@link #setRefreshInterval(long)}; the lookups keep using the previous snapshot
+ * while the new one is built.
+ * <p>
+ * There is one index per metadata repository, shared by the source selector and the
+ * statistics of all sites.
+ *
+ * @author acharal
+ */
+public class VOIDIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(VOIDIndex.class);
+
+    private static final Map<Repository, VOIDIndex> indexes = new WeakHashMap<>();
+
+    private static final long UNKNOWN = -1;
+
+    // the registry holds the index weakly, so the index must not keep the repository alive
+    private final WeakReference<Repository> repository;
+
+    private volatile Snapshot snapshot;
+
+    private volatile long refreshInterval = 0;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private VOIDIndex(Repository repository) {
+        this.repository = new WeakReference<>(repository);
+    }
+
+    /**
+     * Returns the index of the given metadata repository.
+     */
+    public static synchronized VOIDIndex of(Repository repository) {
+        return indexes.computeIfAbsent(repository, VOIDIndex::new);
+    }
+
+    /**
+     * Discards the current snapshot; the next lookup rebuilds the index from the repository.
+     * Must be called whenever the contents of the metadata repository change.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Rebuilds the index from the repository and replaces the current snapshot.
+     */
+    public void refresh() {
+        snapshot = build();
+    }
+
+    /**
+     * Sets the age in milliseconds after which a snapshot is rebuilt from the repository
+     * by the next lookup; 0 if the snapshot is rebuilt only after {@link #invalidate()}.
+     */
+    public void setRefreshInterval(long millis) {
+        refreshInterval = millis;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public Set<Resource> getDatasetsOfPredicate(IRI predicate) {
+        return lookup(get().predicateDatasets, predicate);
+    }
+
+    public Set<Resource> getDatasetsOfClass(IRI c) {
+        return lookup(get().classDatasets, c);
+    }
+
+    public Set<Resource> getDatasetsOfEndpoint(IRI endpoint) {
+        return lookup(get().endpointDatasets, endpoint);
+    }
+
+    public Set<Resource> getDatasetsOfSubject(IRI subject) {
+        Snapshot s = get();
+        return s.match(s.subjectDatasets, s.subjectPatterns, subject.stringValue());
+    }
+
+    public Set<Resource> getDatasetsOfObject(IRI object) {
+        Snapshot s = get();
+        return s.match(s.objectDatasets, s.objectPatterns, object.stringValue());
+    }
+
+    /**
+     * Returns the prefixes of the subjects of the triples with predicate {@code predicate}
+     * (or of any triple, if null) that are served by {@code endpoint}.
+     * @return the prefixes, or empty if a relevant dataset does not declare prefix
+     *         {@code sevod:subjectRegexPattern}s
+     */
+    public Optional<Set<String>> getSubjectPrefixes(IRI endpoint, IRI predicate) {
+        Snapshot s = get();
+        return s.prefixes(s.subjectPrefixes, endpoint, predicate);
+    }
+
+    /**
+     * Returns the prefixes of the IRI objects of the triples with predicate {@code predicate}
+     * (or of any triple, if null) that are served by {@code endpoint}.
+     * @return the prefixes, or empty if a relevant dataset does not declare prefix
+     *         {@code sevod:objectRegexPattern}s
+     */
+    public Optional<Set<String>> getObjectPrefixes(IRI endpoint, IRI predicate) {
+        Snapshot s = get();
+        return s.prefixes(s.objectPrefixes, endpoint, predicate);
+    }
+
+    public Set<IRI> getEndpoints() {
+        return get().endpoints;
+    }
+
+    public IRI getEndpoint(Resource dataset) {
+        Snapshot s = get();
+        Integer i = s.ordinals.get(dataset);
+        return (i == null) ? null : s.endpoint[i];
+    }
+
+    public Long getTriples(Resource dataset) {
+        Snapshot s = get();
+        return s.value(s.triples, dataset);
+    }
+
+    public Long getDistinctSubjects(Resource dataset) {
+        Snapshot s = get();
+        return s.value(s.distinctSubjects, dataset);
+    }
+
+    public Long getDistinctObjects(Resource dataset) {
+        Snapshot s = get();
+        return s.value(s.distinctObjects, dataset);
+    }
+
+    public Long getDistinctPredicates(Resource dataset) {
+        Snapshot s = get();
+        return s.value(s.properties, dataset);
+    }
+
+    public Long getEntities(Resource dataset) {
+        Snapshot s = get();
+        return s.value(s.entities, dataset);
+    }
+
+    private Snapshot get() {
+        Snapshot s = snapshot;
+
+        if (s != null) {
+            if (refreshInterval > 0 && System.currentTimeMillis() - s.created > refreshInterval)
+                refreshExpired(s);
+            return snapshot;
+        }
+
+        synchronized (this) {
+            if (snapshot == null)
+                snapshot = build();
+            return snapshot;
+        }
+    }
+
+    /**
+     * Rebuilds an expired snapshot. Only one thread rebuilds it and the
+     * rest of the threads keep using the expired snapshot meanwhile.
+     */
+    private void refreshExpired(Snapshot expired) {
+        if (!refreshLock.tryLock())
+            return;
+
+        try {
+            if (snapshot == expired)
+                snapshot = build();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private static <K> Set<Resource> lookup(Map<K, Set<Resource>> map, K key) {
+        Set<Resource> datasets = map.get(key);
+        return (datasets == null) ? Collections.emptySet() : datasets;
+    }
+
+    private Snapshot build() {
+        long start = System.currentTimeMillis();
+
+        Builder builder = new Builder();
+        RepositoryConnection conn = null;
+
+        try {
+            Repository repository = this.repository.get();
+
+            if (repository != null)
+                conn = repository.getConnection();
+
+            if (conn == null)
+                return builder.build();
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.TRIPLES, null, true)))
+                builder.count(builder.triples, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.DISTINCTSUBJECTS, null, true)))
+                builder.count(builder.distinctSubjects, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.DISTINCTOBJECTS, null, true)))
+                builder.count(builder.distinctObjects, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.PROPERTIES, null, true)))
+                builder.count(builder.properties, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.ENTITIES, null, true)))
+                builder.count(builder.entities, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.SPARQLENDPOINT, null, true)))
+                builder.endpoint(st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.PROPERTY, null, true)))
+                builder.add(builder.predicateDatasets, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, VOID.CLASS, null, true)))
+                builder.add(builder.classDatasets, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, SEVOD.SUBJECTREGEXPATTERN, null, true)))
+                builder.pattern(builder.subjectPatterns, st);
+
+            for (Statement st : Iterations.asList(conn.getStatements(null, SEVOD.OBJECTREGEXPATTERN, null, true)))
+                builder.pattern(builder.objectPatterns, st);
+
+        } catch (RepositoryException e) {
+            logger.warn("Cannot build the index of the metadata repository", e);
+        } finally {
+            if (conn != null)
+                try { conn.close(); } catch (RepositoryException e) { }
+        }
+
+        Snapshot s = builder.build();
+        logger.info("Indexed {} datasets of {} endpoints in {}ms",
+                s.ordinals.size(), s.endpoints.size(), System.currentTimeMillis() - start);
+        return s;
+    }
+
+    /**
+     * Collects the metadata of the datasets before they are compiled to a {@link Snapshot}.
+     */
+    private static final class Builder {
+
+        final Map<Resource, Long> triples = new HashMap<>();
+        final Map<Resource, Long> distinctSubjects = new HashMap<>();
+        final Map<Resource, Long> distinctObjects = new HashMap<>();
+        final Map<Resource, Long> properties = new HashMap<>();
+        final Map<Resource, Long> entities = new HashMap<>();
+
+        final Map<Resource, IRI> endpoints = new HashMap<>();
+
+        final Map<Value, Set<Resource>> predicateDatasets = new HashMap<>();
+        final Map<Value, Set<Resource>> classDatasets = new HashMap<>();
+        final Map<Value, Set<Resource>> endpointDatasets = new HashMap<>();
+
+        final Map<Resource, List<String>> subjectPatterns = new LinkedHashMap<>();
+        final Map<Resource, List<String>> objectPatterns = new LinkedHashMap<>();
+
+        void count(Map<Resource, Long> counts, Statement st) {
+            try {
+                long value = Long.parseLong(st.getObject().stringValue());
+                counts.merge(st.getSubject(), value, Math::max);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid {} of {}", st.getPredicate(), st.getSubject());
+            }
+        }
+
+        void endpoint(Statement st) {
+            if (st.getObject() instanceof IRI) {
+                endpoints.putIfAbsent(st.getSubject(), (IRI) st.getObject());
+                add(endpointDatasets, st);
+            }
+        }
+
+        void add(Map<Value, Set<Resource>> map, Statement st) {
+            map.computeIfAbsent(st.getObject(), k -> new HashSet<>()).add(st.getSubject());
+        }
+
+        void pattern(Map<Resource, List<String>> map, Statement st) {
+            map.computeIfAbsent(st.getSubject(), k -> new ArrayList<>()).add(st.getObject().stringValue());
+        }
+
+        Snapshot build() {
+            // the datasets without triples do not match any pattern
+            predicateDatasets.values().forEach(d -> d.removeIf(r -> !hasTriples(r)));
+            subjectPatterns.keySet().removeIf(r -> !hasTriples(r));
+            objectPatterns.keySet().removeIf(r -> !hasTriples(r));
+
+            return new Snapshot(this);
+        }
+
+        boolean hasTriples(Resource dataset) {
+            Long t = triples.get(dataset);
+            return t != null && t > 0;
+        }
+    }
+
+    /**
+     * An immutable compilation of the metadata repository.
+     */
+    private static final class Snapshot {
+
+        final long created = System.currentTimeMillis();
+
+        final Map<Resource, Integer> ordinals = new HashMap<>();
+
+        final IRI[] endpoint;
+
+        final long[] triples;
+        final long[] distinctSubjects;
+        final long[] distinctObjects;
+        final long[] properties;
+        final long[] entities;
+
+        final Set<IRI> endpoints;
+
+        final Map<Value, Set<Resource>> predicateDatasets;
+        final Map<Value, Set<Resource>> classDatasets;
+        final Map<Value, Set<Resource>> endpointDatasets;
+
+        final Resource[] subjectDatasets;
+        final RegexPatternIndex subjectPatterns;
+
+        final Resource[] objectDatasets;
+        final RegexPatternIndex objectPatterns;
+
+        // the literal prefixes of the datasets whose regex patterns are all prefix patterns
+        final Map<Resource, Set<String>> subjectPrefixes;
+        final Map<Resource, Set<String>> objectPrefixes;
+
+        Snapshot(Builder b) {
+            Set<Resource> datasets = new LinkedHashSet<>();
+            datasets.addAll(b.triples.keySet());
+            datasets.addAll(b.distinctSubjects.keySet());
+            datasets.addAll(b.distinctObjects.keySet());
+            datasets.addAll(b.properties.keySet());
+            datasets.addAll(b.entities.keySet());
+            datasets.addAll(b.endpoints.keySet());
+
+            for (Resource d : datasets)
+                ordinals.put(d, ordinals.size());
+
+            endpoint = new IRI[ordinals.size()];
+            for (Map.Entry<Resource, IRI> e : b.endpoints.entrySet())
+                endpoint[ordinals.get(e.getKey())] = e.getValue();
+
+            triples = counts(b.triples);
+            distinctSubjects = counts(b.distinctSubjects);
+            distinctObjects = counts(b.distinctObjects);
+            properties = counts(b.properties);
+            entities = counts(b.entities);
+
+            endpoints = Collections.unmodifiableSet(new HashSet<>(b.endpoints.values()));
+
+            predicateDatasets = freeze(b.predicateDatasets);
+            classDatasets = freeze(b.classDatasets);
+            endpointDatasets = freeze(b.endpointDatasets);
+
+            subjectDatasets = b.subjectPatterns.keySet().toArray(new Resource[0]);
+            subjectPatterns = patterns(b.subjectPatterns);
+
+            objectDatasets = b.objectPatterns.keySet().toArray(new Resource[0]);
+            objectPatterns = patterns(b.objectPatterns);
+
+            subjectPrefixes = prefixes(b.subjectPatterns);
+            objectPrefixes = prefixes(b.objectPatterns);
+        }
+
+        Optional<Set<String>> prefixes(Map<Resource, Set<String>> map, IRI endpoint, IRI predicate) {
+            Set<Resource> datasets = lookup(endpointDatasets, endpoint);
+
+            if (predicate != null) {
+                datasets = new HashSet<>(datasets);
+                datasets.retainAll(lookup(predicateDatasets, predicate));
+            }
+
+            if (datasets.isEmpty())
+                return Optional.empty();
+
+            Set<String> result = new HashSet<>();
+
+            for (Resource d : datasets) {
+                Long t = value(triples, d);
+                if (t != null && t == 0)
+                    continue;
+
+                Set<String> p = map.get(d);
+                if (p == null)
+                    return Optional.empty();
+                result.addAll(p);
+            }
+            return Optional.of(result);
+        }
+
+        Long value(long[] counts, Resource dataset) {
+            Integer i = ordinals.get(dataset);
+            return (i == null || counts[i] == UNKNOWN) ? null : counts[i];
+        }
+
+        Set<Resource> match(Resource[] datasets, RegexPatternIndex patterns, String iri) {
+            Set<Resource> result = new HashSet<>();
+            BitSet matches = patterns.match(iri);
+
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+                result.add(datasets[i]);
+
+            return result;
+        }
+
+        private long[] counts(Map<Resource, Long> map) {
+            long[] counts = new long[ordinals.size()];
+            Arrays.fill(counts, UNKNOWN);
+            for (Map.Entry<Resource, Long> e : map.entrySet())
+                counts[ordinals.get(e.getKey())] = e.getValue();
+            return counts;
+        }
+
+        private static Map<Value, Set<Resource>> freeze(Map<Value, Set<Resource>> map) {
+            Map<Value, Set<Resource>> frozen = new HashMap<>();
+            for (Map.Entry<Value, Set<Resource>> e : map.entrySet()) {
+                if (!e.getValue().isEmpty())
+                    frozen.put(e.getKey(), Collections.unmodifiableSet(e.getValue()));
+            }
+            return frozen;
+        }
+
+        private static Map<Resource, Set<String>> prefixes(Map<Resource, List<String>> map) {
+            Map<Resource, Set<String>> prefixes = new HashMap<>();
+
+            for (Map.Entry<Resource, List<String>> e : map.entrySet()) {
+                Set<String> p = new HashSet<>();
+                for (String regex : e.getValue()) {
+                    String prefix = RegexPatternIndex.Builder.literalPrefix(regex);
+                    if (prefix == null) {
+                        p = null;
+                        break;
+                    }
+                    p.add(prefix);
+                }
+                if (p != null)
+                    prefixes.put(e.getKey(), Collections.unmodifiableSet(p));
+            }
+            return prefixes;
+        }
+
+        /**
+         * Compiles the regex patterns of the datasets; the id of a pattern is the
+         * position of its dataset in the key set of {@code map}.
+         */
+        private static RegexPatternIndex patterns(Map<Resource, List<String>> map) {
+            RegexPatternIndex.Builder builder = new RegexPatternIndex.Builder();
+            int i = 0;
+            for (Map.Entry<Resource, List<String>> e : map.entrySet()) {
+                for (String regex : e.getValue()) {
+                    try {
+                        builder.add(regex, i);
+                    } catch (PatternSyntaxException ex) {
+                        logger.warn("Ignoring invalid regex pattern {} of {}", regex, e.getKey());
+                    }
+                }
+                i++;
+            }
+            return builder.build();
+        }
+    }
+}
@@ -53,10 +53,6 @@ public class VOIDSourceSelector extends VOIDBase
             return getSources((StatementPattern)expr, dataset, bindings);
 
         List<StatementPattern> patterns = StatementPatternCollector.process(expr);
-        return getSources(patterns, dataset, bindings);
-    }
-
-    private Collection<SourceMetadata> getSources(Iterable<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
         Collection<SourceMetadata> metadata = new LinkedList<SourceMetadata>();
         for (StatementPattern pattern : patterns) {
             metadata.addAll(getSources(pattern, dataset, bindings));
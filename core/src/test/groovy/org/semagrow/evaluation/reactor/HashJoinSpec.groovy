@@ -0,0 +1,143 @@
+package org.semagrow.evaluation.reactor
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.impl.MapBindingSet
+import org.semagrow.evaluation.util.BindingSetUtil
+import org.semagrow.evaluation.util.SimpleBindingSetOps
+import org.semagrow.evaluation.util.SymmetricJoinHashTable
+import org.semagrow.plan.operators.HashJoin
+import org.semagrow.plan.operators.SymmetricHashJoin
+import reactor.core.publisher.Flux
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class HashJoinSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    static iri(String name) { vf.createIRI("http://ex.org/" + name) }
+
+    def rows(List<Map<String, String>> maps) {
+        maps.collect { row ->
+            def b = new MapBindingSet()
+            row.each { name, value -> b.addBinding(name, iri(value)) }
+            (BindingSet) b
+        }
+    }
+
+    def operand(List<String> names, List<Map<String, String>> maps) {
+        def expr = new BindingSetAssignment()
+        expr.setBindingNames(names as Set)
+        expr.setBindingSets(rows(maps))
+        expr
+    }
+
+    /**
+     * The results of a nested loop join of the operands, as a bag of maps.
+     */
+    static nestedLoop(BindingSetAssignment left, BindingSetAssignment right) {
+        def ops = SimpleBindingSetOps.getInstance()
+        def result = []
+        for (l in left.getBindingSets())
+            for (r in right.getBindingSets())
+                if (BindingSetUtil.agreesOn(l, r))
+                    result << ops.merge(l, r)
+        bag(result)
+    }
+
+    static bag(Collection<BindingSet> bindings) {
+        bindings.collect { b -> b.collectEntries { [(it.name): it.value] } }.countBy { it }
+    }
+
+    def evaluate(FederatedEvaluationStrategyImpl strategy, Join join) {
+        bag(Flux.from(strategy.evaluate(join, EmptyBindingSet.getInstance())).collectList().block())
+    }
+
+    static final LEFT = [
+            [x: "a1", y: "b1"],
+            [x: "a2", y: "b1"],
+            [x: "a3", y: "b2"],
+            [x: "a4", y: "b3"],
+    ]
+
+    static final RIGHT = [
+            [y: "b1", z: "c1"],
+            [y: "b1", z: "c2"],
+            [y: "b2", z: "c3"],
+            [y: "b4", z: "c4"],
+    ]
+
+    // the join variable is unbound in some tuples of each operand
+    static final LEFT_PARTIAL = LEFT + [[x: "a5"]]
+
+    static final RIGHT_PARTIAL = RIGHT + [[z: "c5"], [y: "b3"]]
+
+    static final CASES = [
+            [LEFT, RIGHT],
+            [LEFT_PARTIAL, RIGHT],
+            [LEFT, RIGHT_PARTIAL],
+            [LEFT_PARTIAL, RIGHT_PARTIAL],
+            [[], RIGHT],
+            [LEFT, []],
+    ]
+
+    @Unroll
+    def "a hash join has the results of a nested loop join" () {
+        setup :
+            def left = operand(["x", "y"], leftRows)
+            def right = operand(["y", "z"], rightRows)
+            def strategy = new FederatedEvaluationStrategyImpl(vf)
+        expect :
+            evaluate(strategy, new HashJoin(left, right)) == nestedLoop(left, right)
+        where :
+            [leftRows, rightRows] << CASES
+    }
+
+    @Unroll
+    def "a symmetric hash join that spills after #maxSize tuples has the results of a nested loop join" () {
+        setup :
+            def left = operand(["x", "y"], leftRows)
+            def right = operand(["y", "z"], rightRows)
+            def strategy = new FederatedEvaluationStrategyImpl(vf)
+            strategy.setMaxJoinTableSize(maxSize)
+        expect :
+            evaluate(strategy, new SymmetricHashJoin(left, right)) == nestedLoop(left, right)
+        where :
+            [leftRows, rightRows, maxSize] << [CASES, [100000, 3, 1]].combinations().collect { c, m -> c + [m] }
+    }
+
+    def "a join without common variables is the cross product of the operands" () {
+        setup :
+            def left = operand(["x"], [[x: "a1"], [x: "a2"]])
+            def right = operand(["z"], [[z: "c1"], [z: "c2"], [z: "c3"]])
+            def strategy = new FederatedEvaluationStrategyImpl(vf)
+            strategy.setMaxJoinTableSize(2)
+        expect :
+            evaluate(strategy, new HashJoin(left, right)).size() == 6
+            evaluate(strategy, new SymmetricHashJoin(left, right)) == nestedLoop(left, right)
+    }
+
+    def "the tuples that are both spilled are joined only after both operands are exhausted" () {
+        setup :
+            def table = new SymmetricJoinHashTable(["y"], 2, SimpleBindingSetOps.getInstance())
+            def l = rows(LEFT)
+            def r = rows(RIGHT)
+        when :
+            def early = []
+            early += table.insertLeft(l[0])
+            early += table.insertRight(r[0])
+            early += table.insertLeft(l[1])
+            early += table.insertRight(r[1])
+            def late = table.remaining().collect()
+            table.close()
+        then :
+            // (l0, r0) and (l0, r1) are joined in memory and (l1, r0) is joined as l1 is probed
+            // before it is spilled; (l1, r1) is joined only when the spill files are joined
+            early.size() == 3
+            bag(late) == bag([SimpleBindingSetOps.getInstance().merge(l[1], r[1])])
+    }
+}
@@ -0,0 +1,141 @@
+package org.semagrow.plan
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DPPredicateEnumeratorSpec extends Specification {
+
+    static chain(int n) { (0..<n - 1).collect { [it, it + 1] } }
+
+    static star(int n) { (1..<n).collect { [0, it] } }
+
+    static cycle(int n) { chain(n) + [[n - 1, 0]] }
+
+    static clique(int n) { [0..<n, 0..<n].combinations().findAll { a, b -> a < b } }
+
+    @Unroll
+    def "DPccp finds a plan as cheap as the subset enumeration for a #shape of #n items" () {
+        setup :
+            def ccp = new JoinGenerator(n, edges)
+            def subsets = new JoinGenerator(n, edges)
+        when :
+            def p1 = new DPPredicateEnumerator(ccp).enumerate(0..<n)
+            def p2 = new DPPredicateEnumerator(subsets).enumerateSubsets(0..<n, subsets.accessPlans())
+        then :
+            p1.size() == 1
+            p2.size() == 1
+            p1[0].cost == p2[0].cost
+            p1[0].items == (0..<n) as Set
+        and : "DPccp never composes sets that are not connected"
+            ccp.crossProducts == 0
+        where :
+            shape    | n | edges
+            "chain"  | 5 | chain(5)
+            "chain"  | 8 | chain(8)
+            "star"   | 5 | star(5)
+            "star"   | 7 | star(7)
+            "cycle"  | 5 | cycle(5)
+            "cycle"  | 7 | cycle(7)
+            "clique" | 5 | clique(5)
+    }
+
+    def "no plan is found for items that are not connected" () {
+        setup :
+            def generator = new JoinGenerator(4, [[0, 1], [2, 3]])
+        expect :
+            new DPPredicateEnumerator(generator).enumerate(0..<4).isEmpty()
+    }
+
+    def "the joins are ordered greedily above the threshold" () {
+        setup :
+            def generator = new JoinGenerator(6, chain(6))
+            def enumerator = new DPPredicateEnumerator(generator)
+            enumerator.setThreshold(3)
+        when :
+            def plans = enumerator.enumerate(0..<6)
+        then :
+            plans.size() == 1
+            plans[0].items == (0..<6) as Set
+            generator.crossProducts == 0
+    }
+
+    static class JoinPlan {
+        String tree
+        Set<Integer> items
+        double cardinality
+        double cost
+        String toString() { tree }
+    }
+
+    /**
+     * Joins items with distinct cardinalities; the cost of a join depends on the order
+     * of its operands, as the cost of a bind join does. Like PredicateApplicator,
+     * it generates no plan for sets that are not connected.
+     */
+    static class JoinGenerator implements DPPredicateEnumerator.PlanGenerator<Integer, JoinPlan> {
+
+        int n
+        Set<List<Integer>> edges = [] as Set
+        int crossProducts = 0
+
+        JoinGenerator(int n, List<List<Integer>> edges) {
+            this.n = n
+            edges.each { a, b -> this.edges << [a, b] << [b, a] }
+        }
+
+        Map<Integer, Pair<Collection<Integer>, Collection<JoinPlan>>> accessPlans() {
+            (0..<n).collectEntries { [(it): access(it)] }
+        }
+
+        boolean isConnected(Integer t1, Integer t2) { edges.contains([t1, t2]) }
+
+        Pair<Collection<Integer>, Collection<JoinPlan>> access(Integer t) {
+            double c = 10 * (t + 1) + 7 * t * t
+            new Pair([t], [new JoinPlan(tree: "$t", items: [t] as Set, cardinality: c, cost: c)] as LinkedList)
+        }
+
+        Pair<Collection<Integer>, Collection<JoinPlan>> compose(Pair<Collection<Integer>, Collection<JoinPlan>> p1,
+                                                             Pair<Collection<Integer>, Collection<JoinPlan>> p2) {
+            def items = p1.first + p2.first
+
+            if (!p1.first.any { a -> p2.first.any { b -> isConnected(a, b) } }) {
+                crossProducts++
+                return new Pair(items, new LinkedList())
+            }
+
+            def plans = new LinkedList()
+            p1.second.each { a ->
+                p2.second.each { b ->
+                    plans << new JoinPlan(tree: "(${a.tree} ${b.tree})", items: a.items + b.items,
+                            cardinality: a.cardinality * b.cardinality / 10,
+                            cost: a.cost + b.cost + a.cardinality + 3 * b.cardinality)
+                }
+            }
+            new Pair(items, plans)
+        }
+
+        Iterator<Pair<Collection<Integer>, Collection<Integer>>> enumerate(Collection<Integer> tt) {
+            def pairs = []
+            def items = tt as List
+            // all the pairs of disjoint subsets, ordered by the size of their union
+            (2..items.size()).each { k ->
+                items.subsequences().findAll { it.size() == k }.each { s ->
+                    s.subsequences().findAll { it.size() < k }.each { s1 ->
+                        pairs << new Pair(s1 as Set, (s - s1) as Set)
+                    }
+                }
+            }
+            pairs.iterator()
+        }
+
+        int compareCost(JoinPlan p1, JoinPlan p2) { Double.compare(p1.cost, p2.cost) }
+
+        void prune(Collection<JoinPlan> plans) {
+            if (plans.isEmpty())
+                return
+            def best = plans.min { it.cost }
+            plans.clear()
+            plans.add(best)
+        }
+    }
+}
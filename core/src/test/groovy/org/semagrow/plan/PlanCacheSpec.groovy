@@ -0,0 +1,96 @@
+package org.semagrow.plan
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.helpers.VarNameCollector
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.impl.MapBindingSet
+import org.eclipse.rdf4j.query.impl.SimpleDataset
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParserFactory
+import spock.lang.Specification
+
+class PlanCacheSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    def cache = new PlanCache()
+
+    def parse(String queryStr) {
+        new SPARQLParserFactory().getParser().parseQuery(queryStr, "http://test").getTupleExpr()
+    }
+
+    def key(String queryStr, bindings = EmptyBindingSet.getInstance(), dataset = null) {
+        cache.key(parse(queryStr), dataset, bindings, [], [])
+    }
+
+    def "queries that differ only in the names of their variables share a key" () {
+        expect :
+            key("SELECT * { ?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z }") ==
+                    key("SELECT * { ?a <http://ex.org/p> ?b . ?b <http://ex.org/q> ?c }")
+    }
+
+    def "queries that differ in their shape, constants or co-references do not share a key" () {
+        expect :
+            key(q1) != key(q2)
+        where :
+            q1                                                          | q2
+            "SELECT * { ?x <http://ex.org/p> ?y }"                      | "SELECT * { ?x <http://ex.org/q> ?y }"
+            "SELECT * { ?x <http://ex.org/p> <http://ex.org/a> }"       | "SELECT * { ?x <http://ex.org/p> <http://ex.org/b> }"
+            "SELECT * { ?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z }" | "SELECT * { ?x <http://ex.org/p> ?y . ?x <http://ex.org/q> ?z }"
+            "SELECT * { ?x <http://ex.org/p> ?y }"                      | "SELECT * { ?x <http://ex.org/p> ?x }"
+            "SELECT ?x { ?x <http://ex.org/p> ?y }"                     | "SELECT ?y { ?x <http://ex.org/p> ?y }"
+            "SELECT * { ?x <http://ex.org/p> ?y }"                      | "SELECT DISTINCT * { ?x <http://ex.org/p> ?y }"
+            "SELECT * { ?x <http://ex.org/p> ?y FILTER (?y > 1) }"     | "SELECT * { ?x <http://ex.org/p> ?y FILTER (?y < 1) }"
+    }
+
+    def "the bindings and the dataset of a request are part of its key" () {
+        setup :
+            def query = "SELECT * { ?x <http://ex.org/p> ?y }"
+            def b1 = new MapBindingSet()
+            b1.addBinding("y", vf.createIRI("http://ex.org/a"))
+            def b2 = new MapBindingSet()
+            b2.addBinding("y", vf.createIRI("http://ex.org/b"))
+            def d = new SimpleDataset()
+            d.addDefaultGraph(vf.createIRI("http://ex.org/g"))
+        expect :
+            key(query, b1) == key(query, b1)
+            key(query, b1) != key(query, b2)
+            key(query, b1) != key(query)
+            key(query, EmptyBindingSet.getInstance(), d) != key(query)
+    }
+
+    def "queries with a service clause are not cached" () {
+        expect :
+            key("SELECT * { SERVICE <http://ex.org/sparql> { ?x <http://ex.org/p> ?y } }") == null
+    }
+
+    def "a cached plan is returned in terms of the variables of the request" () {
+        setup :
+            def plan = new Plan(new StatementPattern(new Var("a"), new Var("p", vf.createIRI("http://ex.org/p")), new Var("b")))
+            plan.properties.setCardinality(BigInteger.TEN)
+            plan.properties.setVarSelectivity("a", 0.5)
+            cache.put(key("SELECT * { ?a <http://ex.org/p> ?b }"), plan)
+        when :
+            def cached = cache.get(key("SELECT * { ?x <http://ex.org/p> ?y }"))
+        then :
+            cached.isPresent()
+            VarNameCollector.process(cached.get().arg) == ["x", "p", "y"] as Set
+            cached.get().properties.cardinality == BigInteger.TEN
+            !cached.get().properties.is(plan.properties)
+        and : "the plan that was put is not modified"
+            VarNameCollector.process(plan.arg) == ["a", "p", "b"] as Set
+            plan.properties.getVarSelectivity("a") == Optional.of(0.5d)
+    }
+
+    def "a plan is not returned after the cache is invalidated" () {
+        setup :
+            def k = key("SELECT * { ?a <http://ex.org/p> ?b }")
+            cache.put(k, new Plan(parse("SELECT * { ?a <http://ex.org/p> ?b }")))
+        when :
+            cache.invalidateAll()
+        then :
+            !cache.get(k).isPresent()
+            cache.missCount == 1
+    }
+}
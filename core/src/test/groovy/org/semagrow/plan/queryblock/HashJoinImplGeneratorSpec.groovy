@@ -0,0 +1,79 @@
+package org.semagrow.plan.queryblock
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+import org.semagrow.local.LocalSite
+import org.semagrow.plan.CompilerContext
+import org.semagrow.plan.Plan
+import org.semagrow.plan.PlanProperties
+import org.semagrow.plan.operators.HashJoin
+import org.semagrow.plan.operators.SourceQuery
+import org.semagrow.plan.operators.SymmetricHashJoin
+import org.semagrow.selector.Site
+import spock.lang.Specification
+
+class HashJoinImplGeneratorSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    static Site EP1 = new SelectBlockSpec.FixedSite(id: vf.createIRI("http://ep1.org/sparql"))
+    static Site EP2 = new SelectBlockSpec.FixedSite(id: vf.createIRI("http://ep2.org/sparql"))
+
+    static BigInteger LARGE = HashJoin.MIN_CARDINALITY
+    static BigInteger SMALL = HashJoin.MIN_CARDINALITY - 1
+
+    def plan(String s, String o, Site site, BigInteger card) {
+        def props = new PlanProperties()
+        props.setSite(site)
+        props.setCardinality(card)
+        new Plan(new StatementPattern(new Var(s), new Var("const_p", vf.createIRI("http://ex.org/p")), new Var(o)), props)
+    }
+
+    /**
+     * A context that ships the plans of remote sites as source queries to the local site.
+     */
+    def context() {
+        def context = Mock(CompilerContext)
+        context.enforceProps(_ as Plan, _) >> { Plan p, props ->
+            p.getProperties().getSite().isRemote()
+                    ? [new Plan(new SourceQuery(p, p.getProperties().getSite()))]
+                    : [p]
+        }
+        context.asPlan(_ as TupleExpr) >> { TupleExpr e -> new Plan(e) }
+        context
+    }
+
+    def generate(Plan p1, Plan p2) {
+        def ctx = context()
+        def applicator = new SelectBlock.PredicateApplicator(new SelectBlock(), ctx)
+        def generator = new SelectBlock.PredicateApplicator.HashJoinImplGenerator(applicator)
+        generator.apply(p1, p2, [], ctx)*.getArg()
+    }
+
+    def "two remote operands are joined with a symmetric hash join" () {
+        when :
+            def joins = generate(plan("x", "y", EP1, LARGE), plan("y", "z", EP2, LARGE))
+        then :
+            joins.size() == 1
+            joins[0] instanceof SymmetricHashJoin
+            joins[0].getLeftArg().getArg() instanceof SourceQuery
+            joins[0].getRightArg().getArg() instanceof SourceQuery
+    }
+
+    def "a local operand is joined with a hash join" () {
+        when :
+            def joins = generate(plan("x", "y", LocalSite.getInstance(), LARGE), plan("y", "z", EP2, LARGE))
+        then :
+            joins.size() == 1
+            joins[0] instanceof HashJoin
+            !(joins[0] instanceof SymmetricHashJoin)
+    }
+
+    def "no hash join is generated when the left operand is small" () {
+        expect :
+            generate(plan("x", "y", EP1, SMALL), plan("y", "z", EP2, LARGE)).isEmpty()
+            generate(plan("x", "y", EP1, null), plan("y", "z", EP2, LARGE)).isEmpty()
+    }
+}
@@ -0,0 +1,289 @@
+package org.semagrow.plan.queryblock
+
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.LeftJoin
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParserFactory
+import org.eclipse.rdf4j.repository.sail.SailRepository
+import org.eclipse.rdf4j.sail.memory.MemoryStore
+import org.semagrow.estimator.CardinalityEstimator
+import org.semagrow.estimator.CardinalityEstimatorResolver
+import org.semagrow.estimator.CostEstimator
+import org.semagrow.estimator.CostEstimatorResolver
+import org.semagrow.model.vocabulary.SEVOD
+import org.semagrow.model.vocabulary.VOID
+import org.semagrow.plan.Cost
+import org.semagrow.plan.DefaultCompilerContext
+import org.semagrow.plan.Plan
+import org.semagrow.plan.SimpleQueryCompiler
+import org.semagrow.plan.operators.SourceQuery
+import org.semagrow.selector.JoinAwareSourceSelector
+import org.semagrow.selector.Site
+import org.semagrow.selector.SiteCapabilities
+import org.semagrow.selector.SiteResolver
+import org.semagrow.selector.SourceMetadata
+import org.semagrow.selector.SourceSelector
+import spock.lang.Specification
+
+class SelectBlockSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    static IRI P = vf.createIRI("http://ex.org/p")
+    static IRI Q = vf.createIRI("http://ex.org/q")
+    static IRI R = vf.createIRI("http://ex.org/r")
+
+    static IRI EP1 = vf.createIRI("http://ep1.org/sparql")
+    static IRI EP2 = vf.createIRI("http://ep2.org/sparql")
+    static IRI EP3 = vf.createIRI("http://ep3.org/sparql")
+
+    def pattern(String s, IRI p, String o) {
+        new StatementPattern(new Var(s), new Var("const_" + p.localName, p), new Var(o))
+    }
+
+    /**
+     * The datasets of EP1 and EP2 give the objects of ex:p in a.org and b.org respectively,
+     * and the dataset of EP3 gives the subjects of ex:q in a.org.
+     */
+    def metadata() {
+        def repo = new SailRepository(new MemoryStore())
+        repo.initialize()
+        def conn = repo.getConnection()
+        describe(conn, "http://ex.org/d1", EP1, P, null, "^http://a.org/")
+        describe(conn, "http://ex.org/d2", EP2, P, null, "^http://b.org/")
+        describe(conn, "http://ex.org/d3", EP3, Q, "^http://a.org/", null)
+        conn.close()
+        repo
+    }
+
+    def describe(conn, String dataset, IRI endpoint, IRI property, String subjectRegex, String objectRegex) {
+        def d = vf.createIRI(dataset)
+        conn.add(d, VOID.SPARQLENDPOINT, endpoint)
+        conn.add(d, VOID.TRIPLES, vf.createLiteral(100L))
+        conn.add(d, VOID.PROPERTY, property)
+        if (subjectRegex != null)
+            conn.add(d, SEVOD.SUBJECTREGEXPATTERN, vf.createLiteral(subjectRegex))
+        if (objectRegex != null)
+            conn.add(d, SEVOD.OBJECTREGEXPATTERN, vf.createLiteral(objectRegex))
+    }
+
+    def context(Map<StatementPattern, List<IRI>> sites) {
+        def table = sites.collectEntries { p, endpoints ->
+            [(p): endpoints.collect { new FixedSourceMetadata(site: new FixedSite(id: it), pattern: p) }]
+        }
+        def context = new DefaultCompilerContext()
+        context.setSourceSelector(new JoinAwareSourceSelector(new FixedSourceSelector(table: table), metadata()))
+        context
+    }
+
+    def endpoints(SourceSelector selector, StatementPattern p) {
+        selector.getSources(p, null, EmptyBindingSet.getInstance()).collectMany { it.sites*.getID() } as Set
+    }
+
+    def "the sources of a pattern that do not join with the sources of another pattern are pruned" () {
+        setup :
+            def p1 = pattern("x", P, "y")
+            def p2 = pattern("y", Q, "z")
+            def block = new SelectBlock()
+            block.addFromBlock(new PatternBlock(p1))
+            block.addFromBlock(new PatternBlock(p2))
+        when :
+            def selector = block.prefetchSources(context([(p1): [EP1, EP2], (p2): [EP3]])).getSourceSelector()
+        then :
+            endpoints(selector, p1) == [EP1] as Set
+            endpoints(selector, p2) == [EP3] as Set
+    }
+
+    def "the sources of patterns that are not joined are kept" () {
+        setup :
+            def p1 = pattern("x", P, "y")
+            def p2 = pattern("u", Q, "z")
+            def block = new SelectBlock()
+            block.addFromBlock(new PatternBlock(p1))
+            block.addFromBlock(new PatternBlock(p2))
+        when :
+            def selector = block.prefetchSources(context([(p1): [EP1, EP2], (p2): [EP3]])).getSourceSelector()
+        then :
+            endpoints(selector, p1) == [EP1, EP2] as Set
+            endpoints(selector, p2) == [EP3] as Set
+    }
+
+    /**
+     * Compiles a query whose patterns are answered by the sites of their predicates.
+     */
+    def compile(String where, Map<IRI, Site> sites) {
+        def parsed = new SPARQLParserFactory().getParser().parseQuery("SELECT * WHERE { " + where + " }", "http://test")
+        def cardinality = Stub(CardinalityEstimator)
+        cardinality.getCardinality(_) >> BigInteger.valueOf(100)
+        def cost = Stub(CostEstimator)
+        cost.getCost(_) >> new Cost(200)
+
+        def compiler = new SimpleQueryCompiler(
+                { s -> Optional.of(cost) } as CostEstimatorResolver,
+                { s -> Optional.of(cardinality) } as CardinalityEstimatorResolver,
+                new PredicateSourceSelector(sites: sites))
+        compiler.compile(new QueryRoot(parsed.getTupleExpr()), null, EmptyBindingSet.getInstance())
+    }
+
+    def site(IRI id) {
+        def capabilities = Stub(SiteCapabilities)
+        capabilities.acceptsBindings(_, _) >> true
+        new FixedSite(id: id, capabilities: capabilities)
+    }
+
+    static List<SourceQuery> sourceQueries(TupleExpr expr) {
+        def res = []
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            void meetOther(QueryModelNode node) {
+                if (node instanceof SourceQuery)
+                    res << node
+                super.meetOther(node)
+            }
+        })
+        res
+    }
+
+    static List<LeftJoin> leftJoins(TupleExpr expr) {
+        def res = []
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            void meet(LeftJoin node) {
+                res << node
+                super.meet(node)
+            }
+        })
+        res
+    }
+
+    static Set<IRI> predicates(TupleExpr expr) {
+        StatementPatternCollector.process(expr).collect { it.getPredicateVar().getValue() } as Set
+    }
+
+    def "a group of patterns that only one site answers is shipped as a single remote join" () {
+        setup :
+            def ep1 = site(EP1)
+        when :
+            Plan plan = compile("?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z . ?z <http://ex.org/r> ?w",
+                    [(P): ep1, (Q): ep1, (R): ep1])
+            def remote = sourceQueries(plan)
+        then :
+            remote.size() == 1
+            remote[0].getSite() == ep1
+            predicates(remote[0]) == [P, Q, R] as Set
+    }
+
+    def "an exclusive group only contains the patterns of its site that are connected" () {
+        setup :
+            def ep1 = site(EP1)
+            def ep2 = site(EP2)
+        when :
+            Plan plan = compile("?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z . ?x <http://ex.org/r> ?w",
+                    [(P): ep1, (Q): ep2, (R): ep1])
+            def remote = sourceQueries(plan)
+        then :
+            remote.size() == 2
+            remote*.getSite() as Set == [ep1, ep2] as Set
+            remote.find { it.getSite() == ep1 }.with { predicates(it) } == [P, R] as Set
+    }
+
+    def "an optional pattern of an exclusive group is composed last and stays a left join" () {
+        setup :
+            def ep1 = site(EP1)
+        when :
+            Plan plan = compile("?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z OPTIONAL { ?z <http://ex.org/r> ?w }",
+                    [(P): ep1, (Q): ep1, (R): ep1])
+            def remote = sourceQueries(plan)
+            def optionals = leftJoins(plan)
+        then :
+            remote.size() == 1
+            predicates(remote[0]) == [P, Q, R] as Set
+            optionals.size() == 1
+            predicates(optionals[0].getLeftArg()) == [P, Q] as Set
+            predicates(optionals[0].getRightArg()) == [R] as Set
+    }
+
+    def "patterns of the same site that are not connected are not merged into a cross product" () {
+        setup :
+            def ep1 = site(EP1)
+            def ep2 = site(EP2)
+        when :
+            Plan plan = compile("?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z . ?z <http://ex.org/r> ?w",
+                    [(P): ep1, (Q): ep2, (R): ep1])
+            def remote = sourceQueries(plan)
+        then :
+            remote.size() == 3
+            remote.every { predicates(it).size() == 1 }
+    }
+
+    static class FixedSite implements Site {
+        IRI id
+        SiteCapabilities capabilities
+        String getType() { "SPARQL" }
+        Resource getID() { id }
+        boolean isRemote() { true }
+        SiteCapabilities getCapabilities() { capabilities }
+    }
+
+    static class FixedSourceMetadata implements SourceMetadata {
+        Site site
+        StatementPattern pattern
+        Collection<Site> getSites() { [site] }
+        StatementPattern original() { pattern }
+        StatementPattern target() { pattern }
+        Collection<IRI> getSchema(String var) { [] }
+        boolean isTransformed() { false }
+        double getSemanticProximity() { 1.0 }
+    }
+
+    /**
+     * Selects the sites of the predicate of each pattern.
+     */
+    static class PredicateSourceSelector implements SourceSelector {
+        Map<IRI, Site> sites
+
+        void setSiteResolver(SiteResolver resolver) { }
+
+        Collection<SourceMetadata> getSources(StatementPattern p, Dataset dataset, BindingSet bindings) {
+            def site = sites.get(p.getPredicateVar().getValue())
+            (site == null) ? [] : [new FixedSourceMetadata(site: site, pattern: p)]
+        }
+
+        Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
+            StatementPatternCollector.process(expr).collectMany { getSources(it, dataset, bindings) }
+        }
+
+        Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+            patterns.collectEntries { [(it): getSources(it, dataset, bindings)] }
+        }
+    }
+
+    static class FixedSourceSelector implements SourceSelector {
+        Map<StatementPattern, Collection<SourceMetadata>> table
+
+        void setSiteResolver(SiteResolver resolver) { }
+
+        Collection<SourceMetadata> getSources(StatementPattern p, Dataset dataset, BindingSet bindings) {
+            table.getOrDefault(p, [])
+        }
+
+        Collection<SourceMetadata> getSources(TupleExpr expr, Dataset dataset, BindingSet bindings) {
+            StatementPatternCollector.process(expr).collectMany { getSources(it, dataset, bindings) }
+        }
+
+        Map<StatementPattern, Collection<SourceMetadata>> getSources(Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings) {
+            patterns.collectEntries { [(it): getSources(it, dataset, bindings)] }
+        }
+    }
+}
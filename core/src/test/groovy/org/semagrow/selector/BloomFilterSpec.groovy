@@ -0,0 +1,60 @@
+package org.semagrow.selector
+
+import spock.lang.Specification
+
+class BloomFilterSpec extends Specification {
+
+    def filter(int n, double fpp) {
+        def f = new BloomFilter(n, fpp)
+        (0..<n).each { f.put("http://example.org/resource/" + it) }
+        f
+    }
+
+    def "a string that was added is always reported as present" () {
+        setup :
+            def f = filter(10000, 0.01)
+        expect :
+            (0..<10000).every { f.mightContain("http://example.org/resource/" + it) }
+    }
+
+    def "missing strings are reported as present close to the requested probability" () {
+        setup :
+            def f = filter(10000, fpp)
+        when :
+            def positives = (0..<100000).count { f.mightContain("http://example.org/other/" + it) }
+        then :
+            positives / 100000 < fpp * 2
+        where :
+            fpp << [0.1, 0.01, 0.001]
+    }
+
+    def "an empty filter contains nothing" () {
+        expect :
+            !new BloomFilter(0, 0.01).mightContain("http://example.org/resource/0")
+    }
+
+    def "a filter that is written and read back answers the same" () {
+        setup :
+            def f = filter(1000, 0.01)
+            def bytes = new ByteArrayOutputStream()
+            f.writeTo(new DataOutputStream(bytes))
+        when :
+            def g = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        then :
+            g.size() == f.size()
+            (0..<2000).every { g.mightContain("http://example.org/resource/" + it) == f.mightContain("http://example.org/resource/" + it) }
+    }
+
+    def "an invalid filter is not read" () {
+        setup :
+            def bytes = new ByteArrayOutputStream()
+            def out = new DataOutputStream(bytes)
+            out.writeInt(0)
+            out.writeInt(1)
+            out.writeLong(0)
+        when :
+            BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        then :
+            thrown(IOException)
+    }
+}
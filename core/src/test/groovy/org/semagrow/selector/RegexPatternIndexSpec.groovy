@@ -0,0 +1,64 @@
+package org.semagrow.selector
+
+import spock.lang.Specification
+
+class RegexPatternIndexSpec extends Specification {
+
+    def index(String... regexes) {
+        def builder = new RegexPatternIndex.Builder()
+        regexes.eachWithIndex { regex, id -> builder.add(regex, id) }
+        builder.build()
+    }
+
+    def bits(int... ids) {
+        def set = new BitSet()
+        ids.each { set.set(it) }
+        set
+    }
+
+    def "prefix patterns match the strings that start with them" () {
+        setup :
+            def idx = index("^http://dbpedia.org/resource/", "^http://data.linkedmdb.org/", "^http://dbpedia.org/")
+        expect :
+            idx.match("http://dbpedia.org/resource/Italy") == bits(0, 2)
+            idx.match("http://data.linkedmdb.org/resource/film/1") == bits(1)
+            idx.match("http://example.org/dbpedia.org/resource/") == bits()
+    }
+
+    def "an unescaped dot matches any character and an escaped dot matches only a dot" () {
+        setup :
+            def idx = index("^http://a.org/", "^http://b\\.org/")
+        expect :
+            idx.match("http://aXorg/x") == bits(0)
+            idx.match("http://b.org/x") == bits(1)
+            idx.match("http://bXorg/x") == bits()
+    }
+
+    def "the index agrees with java.util.regex" () {
+        setup :
+            def regexes = ["^http://dbpedia.org/resource/", "^http://dbpedia.org/.*",
+                           "^http://ex.org/a+", "resource/It", "^urn:isbn:[0-9]+", "^http://(a|b).org/"]
+            def idx = index(regexes as String[])
+            def strings = ["http://dbpedia.org/resource/Italy", "http://dbpedia.org/ontology/director",
+                           "http://ex.org/aaa", "http://ex.org/b", "urn:isbn:123", "urn:isbn:x",
+                           "http://a.org/x", "http://c.org/x", "", "http://dbpedia.org"]
+        expect :
+            strings.every { s ->
+                def expected = new BitSet()
+                regexes.eachWithIndex { regex, id -> if (s =~ regex) expected.set(id) }
+                idx.match(s) == expected
+            }
+    }
+
+    def "the literal prefix stops at the first wildcard" () {
+        expect :
+            RegexPatternIndex.Builder.literalPrefix(regex) == prefix
+        where :
+            regex                        | prefix
+            "^http://dbpedia.org/"       | "http://dbpedia"
+            "^http://dbpedia\\.org/"     | "http://dbpedia.org/"
+            "^http://ex\\.org/.*"        | "http://ex.org/"
+            "http://ex\\.org/"           | null
+            "^http://ex\\.org/a+"        | null
+    }
+}
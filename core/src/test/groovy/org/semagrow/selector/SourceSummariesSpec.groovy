@@ -0,0 +1,76 @@
+package org.semagrow.selector
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.Var
+import spock.lang.Specification
+
+class SourceSummariesSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    static ENDPOINT = vf.createIRI("http://ep.org/sparql")
+    static P = vf.createIRI("http://ex.org/p")
+    static Q = vf.createIRI("http://ex.org/q")
+    static A = vf.createIRI("http://ex.org/a")
+    static B = vf.createIRI("http://ex.org/b")
+    static G = vf.createIRI("http://ex.org/g")
+
+    def summaries() {
+        def subjects = new BloomFilter(10, 0.001)
+        def objects = new BloomFilter(10, 0.001)
+        subjects.put(SourceSummaries.key(A))
+        objects.put(SourceSummaries.key(A))
+
+        def s = new SourceSummaries()
+        s.put(ENDPOINT.stringValue(), P, subjects, objects)
+        s.put(ENDPOINT.stringValue(), null, subjects, objects)
+        s
+    }
+
+    def pattern(s, p, Var context = null, StatementPattern.Scope scope = StatementPattern.Scope.DEFAULT_CONTEXTS) {
+        def v = { x -> (x instanceof String) ? new Var(x) : new Var("const_" + x.hashCode(), x) }
+        new StatementPattern(scope, v(s), v(p), new Var("o"), context)
+    }
+
+    def "patterns over the default graph are checked against the summaries" () {
+        expect :
+            summaries().mightMatch(ENDPOINT, pattern(s, p)) == match
+        where :
+            s   | p   | match
+            A   | P   | true
+            B   | P   | false
+            "s" | P   | true
+            "s" | Q   | false
+            B   | "p" | false
+    }
+
+    def "patterns over named graphs are never rejected" () {
+        expect :
+            summaries().mightMatch(ENDPOINT, pattern(B, p, context, scope))
+        where :
+            p   | context        | scope
+            P   | new Var("g")   | StatementPattern.Scope.NAMED_CONTEXTS
+            Q   | new Var("g")   | StatementPattern.Scope.NAMED_CONTEXTS
+            P   | new Var("g", G) | StatementPattern.Scope.NAMED_CONTEXTS
+            Q   | null           | StatementPattern.Scope.NAMED_CONTEXTS
+    }
+
+    def "the endpoints without summaries are never rejected" () {
+        expect :
+            new SourceSummaries().mightMatch(ENDPOINT, pattern(B, P))
+    }
+
+    def "the summaries that are saved are loaded back" () {
+        setup :
+            def file = File.createTempFile("summaries", ".bin")
+            file.deleteOnExit()
+            summaries().save(file)
+        when :
+            def loaded = SourceSummaries.load(file)
+        then :
+            loaded.endpoints == [ENDPOINT.stringValue()] as Set
+            loaded.mightMatch(ENDPOINT, pattern(A, P))
+            !loaded.mightMatch(ENDPOINT, pattern(B, P))
+    }
+}
@@ -0,0 +1,70 @@
+package org.semagrow.util
+
+import spock.lang.Specification
+
+class LongObjectMapSpec extends Specification {
+
+    def "the values that are put are returned for their keys" () {
+        setup :
+            def map = new LongObjectMap<String>()
+        when :
+            keys.each { map.put(it, "v" + it) }
+        then :
+            map.size() == keys.size()
+            keys.every { map.get(it) == "v" + it }
+            !map.containsKey(missing)
+            map.get(missing) == null
+        where :
+            keys                                      | missing
+            [0L, 1L, 2L]                              | 3L
+            [-1L, Long.MIN_VALUE, Long.MAX_VALUE]     | 1L
+            (0..<64).collect { 1L << it }             | 3L
+            (0..<1000).collect { it * 1024L }         | 1L
+    }
+
+    def "putting an existing key replaces its value" () {
+        setup :
+            def map = new LongObjectMap<String>()
+            map.put(42L, "a")
+        when :
+            def old = map.put(42L, "b")
+        then :
+            old == "a"
+            map.get(42L) == "b"
+            map.size() == 1
+    }
+
+    def "the map grows beyond its expected size" () {
+        setup :
+            def map = new LongObjectMap<Long>(4)
+            def reference = [:]
+            def random = new Random(7)
+        when :
+            10000.times {
+                long k = random.nextLong()
+                map.put(k, k)
+                reference[k] = k
+            }
+        then :
+            map.size() == reference.size()
+            reference.every { k, v -> map.get(k) == v }
+    }
+
+    def "null values are rejected" () {
+        when :
+            new LongObjectMap<String>().put(1L, null)
+        then :
+            thrown(IllegalArgumentException)
+    }
+
+    def "a cleared map is empty" () {
+        setup :
+            def map = new LongObjectMap<String>()
+            (0..<100).each { map.put(it, "v") }
+        when :
+            map.clear()
+        then :
+            map.isEmpty()
+            map.get(5L) == null
+    }
+}
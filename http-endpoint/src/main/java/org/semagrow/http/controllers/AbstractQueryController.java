@@ -25,6 +25,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static javax.servlet.http.HttpServletResponse.*;
 import static org.eclipse.rdf4j.http.protocol.Protocol.*;
@@ -40,7 +43,14 @@ public abstract class AbstractQueryController extends WebContentGenerator implem
     protected Logger logger = LoggerFactory.getLogger(this.getClass());
     protected RepositoryResolver resolver;
     private Repository repository;
-    private RepositoryConnection connection;
+
+    private int maxConcurrentQueries = 16;
+    private int maxQueuedQueries = 64;
+    private long maxQueueTime = 30000;
+    private int retryAfter = 10;
+
+    private Semaphore running = new Semaphore(maxConcurrentQueries, true);
+    private final AtomicInteger queued = new AtomicInteger();
 
     public AbstractQueryController() {
         resolver = new SemagrowRepositoryResolver();
@@ -50,6 +60,38 @@ public abstract class AbstractQueryController extends WebContentGenerator implem
 
     public void setRepositoryResolver(RepositoryResolver resolver) { this.resolver = resolver; }
 
+    /**
+     * The maximum number of queries that are evaluated concurrently.
+     */
+    public void setMaxConcurrentQueries(int n) {
+        maxConcurrentQueries = Math.max(1, n);
+        running = new Semaphore(maxConcurrentQueries, true);
+    }
+
+    public int getMaxConcurrentQueries() { return maxConcurrentQueries; }
+
+    /**
+     * The maximum number of queries that wait for one of the running queries to finish.
+     * Queries that arrive when the queue is full are rejected with 503 (Service Unavailable).
+     */
+    public void setMaxQueuedQueries(int n) { maxQueuedQueries = Math.max(0, n); }
+
+    public int getMaxQueuedQueries() { return maxQueuedQueries; }
+
+    /**
+     * The maximum time in milliseconds that a query waits in the queue before it is rejected.
+     */
+    public void setMaxQueueTime(long millis) { maxQueueTime = millis; }
+
+    public long getMaxQueueTime() { return maxQueueTime; }
+
+    /**
+     * The number of seconds that is suggested to rejected clients in the Retry-After header.
+     */
+    public void setRetryAfter(int seconds) { retryAfter = seconds; }
+
+    public int getRetryAfter() { return retryAfter; }
+
     protected abstract ModelAndView handleQuery(Query query, boolean headersOnly, HttpServletRequest request, HttpServletResponse response)  throws HTTPException;
 
     public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response)
@@ -98,13 +140,35 @@ public abstract class AbstractQueryController extends WebContentGenerator implem
 
         if (queryStr != null) {
 
+            Semaphore permits = running;
+
+            if (!acquire(permits)) {
+                logger.warn("Rejecting query {}: {} queries running, {} queued", qryCode, maxConcurrentQueries, queued.get());
+                response.setHeader("Retry-After", String.valueOf(retryAfter));
+                response.sendError(SC_SERVICE_UNAVAILABLE, "Too many concurrent queries");
+                return null;
+            }
+
             Repository repository = getRepository(request);
-            RepositoryConnection repositoryCon = getRepositoryConnection(request);
+            RepositoryConnection repositoryCon = null;
+
+            try {
+                repositoryCon = repository.getConnection();
 
-            synchronized (repositoryCon) {
                 Query query = getQuery(repository, repositoryCon, queryStr, request, response);
 
-                return handleQuery(query, headersOnly, request, response);
+                ModelAndView result = handleQuery(query, headersOnly, request, response);
+
+                // the query is evaluated while rendering, so render it while holding the connection
+                if (result != null && result.getView() != null) {
+                    result.getView().render(result.getModel(), request, response);
+                    return null;
+                }
+                return result;
+            } finally {
+                if (repositoryCon != null)
+                    closeQuietly(repositoryCon);
+                permits.release();
             }
         }
         else {
@@ -112,17 +176,31 @@ public abstract class AbstractQueryController extends WebContentGenerator implem
         }
     }
 
-    private RepositoryConnection getRepositoryConnection(HttpServletRequest request) {
+    private boolean acquire(Semaphore permits) throws InterruptedException {
+        if (permits.tryAcquire())
+            return true;
 
-        if (connection == null) {
-            Repository repository = getRepository(request);
-            connection = repository.getConnection();
+        if (queued.incrementAndGet() > maxQueuedQueries) {
+            queued.decrementAndGet();
+            return false;
         }
 
-        return connection;
+        try {
+            return permits.tryAcquire(maxQueueTime, TimeUnit.MILLISECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private void closeQuietly(RepositoryConnection conn) {
+        try {
+            conn.close();
+        } catch (RepositoryException e) {
+            logger.warn("Connection [{}] cannot be closed", conn, e);
+        }
     }
 
-    private Repository getRepository(HttpServletRequest request)
+    private synchronized Repository getRepository(HttpServletRequest request)
     {
         if (repository == null) {
             repository = resolver.getRepository(null);
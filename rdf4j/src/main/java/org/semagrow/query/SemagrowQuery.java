@@ -34,6 +34,15 @@ public interface SemagrowQuery extends Query
     Collection<IRI> getExcludedSources();
 
     Collection<IRI> getIncludedSources();
+
+    /**
+     * Sets whether the query is prepared. A prepared query is compiled without the values
+     * of its bindings, so that its plan is compiled once and reused by every execution;
+     * the values are substituted only when the plan is evaluated.
+     */
+    void setPrepared(boolean prepared);
+
+    boolean isPrepared();
     
     /**
      * This method changes the current thread's {link org.slf4j.MDC}
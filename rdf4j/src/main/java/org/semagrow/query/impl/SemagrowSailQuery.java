@@ -33,6 +33,8 @@ public class SemagrowSailQuery extends SailQuery implements SemagrowQuery
 
     private final Set<IRI> excludedSources;
     private final Set<IRI> includeOnlySources;
+
+    private boolean prepared = false;
     
     /* a copy of the MDC context map at the time of object instantiation */ 
     private final java.util.Map<String,String> contextMap;
@@ -76,9 +78,13 @@ public class SemagrowSailQuery extends SailQuery implements SemagrowQuery
             // No external dataset specified, use query's own dataset (if any)
             dataset = getParsedQuery().getDataset();
         }
-        return conn.decompose(expr, dataset, getBindings(), getIncludedSources(), getExcludedSources());
+        return conn.decompose(expr, dataset, getBindings(), getIncludedSources(), getExcludedSources(), isPrepared());
     }
 
+    public void setPrepared(boolean prepared) { this.prepared = prepared; }
+
+    public boolean isPrepared() { return prepared; }
+
     public void addExcludedSource(IRI source) { excludedSources.add(source); }
 
     public void addIncludedSource(IRI source) { includeOnlySources.add(source); }
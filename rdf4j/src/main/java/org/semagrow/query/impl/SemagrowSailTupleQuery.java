@@ -16,7 +16,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Title: SemagrowSailTupleQuery
@@ -59,54 +61,105 @@ public class SemagrowSailTupleQuery extends SemagrowSailQuery implements Semagro
         }
     }
 
+    /**
+     * Evaluates the query and reports the results to {@code handler} in the calling thread.
+     * More results are requested from the sources only after the previous ones are handed
+     * to the handler, so a handler that writes to a slow client slows down the evaluation
+     * instead of buffering the results.
+     * <p>
+     * The evaluation is cancelled, together with every pending request to the sources,
+     * when the handler fails (e.g. when the client disconnects) or when the maximum
+     * execution time of the query is exceeded.
+     */
     public void evaluate(TupleQueryResultHandler handler)
             throws QueryEvaluationException, TupleQueryResultHandlerException
     {
-        /*
-        TupleQueryResult queryResult = evaluate();
-        QueryResults.report(queryResult, handler);
-        */
-
         logger.info("SemaGrow query evaluate with handler {}", this.queryString);
-        TupleExpr tupleExpr = getParsedQuery().getTupleExpr();
 
-        try {
-            Publisher<? extends BindingSet> result;
+        // the compilation modifies the expression, which is reused by the next executions
+        TupleExpr tupleExpr = getParsedQuery().getTupleExpr().clone();
+
+        Publisher<? extends BindingSet> result;
 
+        BufferedSubscriber subscriber;
+
+        try {
             SemagrowSailConnection sailCon = (SemagrowSailConnection) getConnection().getSailConnection();
 
+            subscriber = new BufferedSubscriber(sailCon.getResultPrefetch(), sailCon.getResultLowWatermark());
+
             result = sailCon.evaluateReactive(tupleExpr, getActiveDataset(), getBindings(),
                     getIncludeInferred(), getIncludeProvenanceData(),
-                    getIncludedSources(), getExcludedSources());
+                    getIncludedSources(), getExcludedSources(), isPrepared());
+        }
+        catch (SailException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
 
-            //result = enforceMaxQueryTime(bindingsIter);
+        logger.info("Query evaluation Start.");
 
-            logger.info("Query evaluation Start.");
+        long maxTime = getMaxExecutionTime();
+        long deadline = (maxTime > 0) ? System.nanoTime() + TimeUnit.SECONDS.toNanos(maxTime) : 0;
 
-            CountDownLatch latch = new CountDownLatch(1);
+        result.subscribe(subscriber);
 
-            HandlerSubscriberAdapter subscriberAdapter = toSubscriber(handler, latch);
+        boolean isStarted = false;
+        int resultsCount = 0;
 
-            result.subscribe(subscriberAdapter);
+        try {
+            for (;;) {
+                Object signal = subscriber.take(deadline);
 
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                logger.error("awaiting a latch", e);
-            }
+                if (signal == null) {
+                    subscriber.cancel();
+                    logger.info("Query evaluation exceeded {} seconds, cancelled.", maxTime);
+                    throw new QueryInterruptedException("Query evaluation took too long");
+                }
 
-            if (subscriberAdapter.errorOccured) {
-                if (subscriberAdapter.errorThrown instanceof QueryEvaluationException)
-                    throw (QueryEvaluationException) subscriberAdapter.errorThrown;
-                else
-                    throw new QueryEvaluationException(subscriberAdapter.errorThrown);
-            }
+                if (signal instanceof BindingSet) {
+                    BindingSet bindings = (BindingSet) signal;
+                    if (!isStarted) {
+                        handler.startQueryResult(new ArrayList<>(bindings.getBindingNames()));
+                        isStarted = true;
+                        logger.info("Found first result.");
+                    }
+                    handler.handleSolution(bindings);
+                    logger.debug("-> Found {}", bindings);
+                    resultsCount++;
+                    subscriber.consumed();
+                }
+                else {
+                    if (!isStarted)
+                        handler.startQueryResult(Collections.emptyList());
+                    handler.endQueryResult();
+
+                    if (signal instanceof Throwable) {
+                        Throwable error = (Throwable) signal;
+                        logger.error("Evaluation error", error);
+                        if (error instanceof QueryEvaluationException)
+                            throw (QueryEvaluationException) error;
+                        else
+                            throw new QueryEvaluationException(error);
+                    }
 
-            logger.info("Query evaluation End.");
+                    logger.info("Found " + resultsCount + " results.");
+                    break;
+                }
+            }
         }
-        catch (SailException e) {
-            throw new QueryEvaluationException(e.getMessage(), e);
+        catch (InterruptedException e) {
+            subscriber.cancel();
+            Thread.currentThread().interrupt();
+            throw new QueryInterruptedException(e);
+        }
+        catch (TupleQueryResultHandlerException e) {
+            // e.g. the client closed the connection; stop fetching results from the sources
+            subscriber.cancel();
+            logger.error("Tuple handle solution error", e);
+            throw e;
         }
+
+        logger.info("Query evaluation End.");
     }
 
     public void setIncludeProvenanceData(boolean includeProvenance) {
@@ -115,110 +168,77 @@ public class SemagrowSailTupleQuery extends SemagrowSailQuery implements Semagro
 
     public boolean getIncludeProvenanceData() { return includeProvenanceData; }
 
-    private HandlerSubscriberAdapter toSubscriber(TupleQueryResultHandler handler, CountDownLatch latch) {
-        return new HandlerSubscriberAdapter(handler, latch);
-    }
-
-
-    private class HandlerSubscriberAdapter implements Subscriber<BindingSet>
+    /**
+     * A subscriber that hands the received signals over to the thread that
+     * evaluates the query. The buffer never holds more than {@code prefetch}
+     * results since that is the maximum outstanding demand.
+     */
+    private static class BufferedSubscriber implements Subscriber<BindingSet>
     {
-        private TupleQueryResultHandler handler;
+        private static final Object COMPLETE = new Object();
 
-        private boolean isStarted = false;
+        // number of results requested upfront
+        private final int prefetch;
 
-        private boolean errorOccured = false;
+        // the demand is replenished when the outstanding requests drop to that number
+        private final int lowWatermark;
 
-        private Throwable errorThrown = null;
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
 
-        private CountDownLatch latch;
+        private volatile Subscription subscription;
 
-        private Subscription subscription;
+        private volatile boolean cancelled = false;
 
-        private int resultsCount = 0;
+        // accessed only by the consuming thread
+        private int outstanding;
 
-        public HandlerSubscriberAdapter(TupleQueryResultHandler handler, CountDownLatch latch) {
-            this.handler = handler;
-            this.latch = latch;
+        BufferedSubscriber(int prefetch, int lowWatermark) {
+            this.prefetch = Math.max(1, prefetch);
+            this.lowWatermark = Math.max(0, Math.min(lowWatermark, this.prefetch - 1));
+            this.outstanding = this.prefetch;
         }
 
         public void onSubscribe(Subscription subscription) {
-            // FIXME: is it possible that tuplequeryhandler be slower than producer?
             this.subscription = subscription;
-            subscription.request(Long.MAX_VALUE);
-        }
-
-        public void onNext(BindingSet bindings) {
-            try {
-                if (!isStarted) {
-                    synchronized (handler) {
-                        handler.startQueryResult(new ArrayList<>(bindings.getBindingNames()));
-                    }
-                    isStarted = true;
-                    logger.info("Found first result.");
-                }
-                synchronized (handler) {
-                    handler.handleSolution(bindings);
-                }
-                logger.info("-> Found " + bindings);
-                resultsCount++;
-            } catch (TupleQueryResultHandlerException e) {
+            if (cancelled)
                 subscription.cancel();
-                logger.error("Tuple handle solution error", e);
-            }
+            else
+                subscription.request(prefetch);
         }
 
+        public void onNext(BindingSet bindings) { queue.add(bindings); }
 
-        public void onError(Throwable throwable) {
-            errorOccured = true;
-            errorThrown = throwable;
+        public void onError(Throwable throwable) { queue.add(throwable); }
 
-            logger.error("Evaluation error", throwable);
+        public void onComplete() { queue.add(COMPLETE); }
 
-            if (isStarted) {
-                try {
-                    synchronized (handler) {
-                        handler.endQueryResult();
-                    }
-                } catch (TupleQueryResultHandlerException e) {
-                    logger.error("Tuple handle solution error", e);
-                }
-            } else {
-                try {
-                    synchronized (handler) {
-                        handler.startQueryResult(Collections.emptyList());
-                        handler.endQueryResult();
-                    }
-                } catch (TupleQueryResultHandlerException e) {
-                    logger.error("Tuple handle solution error", e);
-                }
-            }
-            //subscription.cancel();
-            latch.countDown();
+        /**
+         * Waits for the next signal; a {@link BindingSet}, a {@link Throwable} or any other object on completion.
+         * @param deadline the {@link System#nanoTime()} until which to wait, or 0 to wait indefinitely
+         * @return the next signal or null if the deadline has passed
+         */
+        Object take(long deadline) throws InterruptedException {
+            if (deadline == 0)
+                return queue.take();
+            else
+                return queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
         }
 
-
-        public void onComplete() {
-            logger.info("Found " + resultsCount + " results.");
-            if (isStarted) {
-                try {
-                    synchronized (handler) {
-                        handler.endQueryResult();
-                    }
-                } catch (TupleQueryResultHandlerException e) {
-                    logger.error("Tuple handle solution error", e);
-                }
-            } else {
-                try {
-                    synchronized (handler) {
-                        handler.startQueryResult(Collections.emptyList());
-                        handler.endQueryResult();
-                    }
-                } catch (TupleQueryResultHandlerException e) {
-                    logger.error("Tuple handle solution error", e);
-                }
+        /**
+         * Marks a result as handled, requesting more results if necessary.
+         */
+        void consumed() {
+            if (--outstanding <= lowWatermark) {
+                subscription.request(prefetch - outstanding);
+                outstanding = prefetch;
             }
-            //subscription.cancel();
-            latch.countDown();
+        }
+
+        void cancel() {
+            cancelled = true;
+            Subscription s = subscription;
+            if (s != null)
+                s.cancel();
         }
     }
 }
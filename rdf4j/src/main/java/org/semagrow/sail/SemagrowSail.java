@@ -1,20 +1,33 @@
 package org.semagrow.sail;
 
+import org.semagrow.plan.PlanCache;
 import org.semagrow.plan.QueryCompiler;
 import org.semagrow.plan.QueryDecomposer;
 import org.semagrow.estimator.CardinalityEstimatorResolver;
 import org.semagrow.estimator.SelectivityEstimatorResolver;
 import org.semagrow.estimator.CostEstimatorResolver;
+import org.semagrow.connector.sparql.selector.AskCache;
+import org.semagrow.evaluation.AdaptiveBatchSizeController;
+import org.semagrow.evaluation.QueryExecutor;
+import org.semagrow.evaluation.QueryExecutorFactory;
+import org.semagrow.evaluation.QueryExecutorRegistry;
+import org.semagrow.evaluation.QueryExecutorResolver;
+import org.semagrow.evaluation.RequestLimiter;
+import org.semagrow.evaluation.SimpleQueryExecutorResolver;
 import org.semagrow.evaluation.file.FileManager;
 import org.semagrow.evaluation.file.MaterializationManager;
+import org.semagrow.selector.CachedSourceSelector;
 import org.semagrow.selector.RestrictiveSourceSelector;
+import org.semagrow.selector.Site;
 import org.semagrow.selector.SourceSelector;
+import org.semagrow.selector.SourceSelectorWrapper;
 import org.semagrow.querylog.api.QueryLogException;
 import org.semagrow.querylog.config.QueryLogFactory;
 import org.semagrow.querylog.api.QueryLogWriter;
 import org.semagrow.querylog.impl.rdf.config.RDFQueryLogConfig;
 import org.semagrow.querylog.impl.rdf.config.RDFQueryLogFactory;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
@@ -31,6 +44,9 @@ import org.eclipse.rdf4j.sail.helpers.AbstractSail;
 
 import java.io.*;
 import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -53,6 +69,35 @@ public class SemagrowSail extends AbstractSail {
 
     private int batchSize;
 
+    private int maxInflightBatches = 4;
+
+    private int maxSiteRequests = 16;
+
+    private final ConcurrentMap<Resource, RequestLimiter> siteLimiters = new ConcurrentHashMap<>();
+
+    // the executors that are owned by this sail, per type of site
+    private final ConcurrentMap<String, QueryExecutor> queryExecutors = new ConcurrentHashMap<>();
+
+    private final QueryExecutorResolver sharedExecutors = new SimpleQueryExecutorResolver();
+
+    private boolean orderedBindJoin = false;
+
+    private int maxJoinTableSize = 100000;
+
+    private int resultPrefetch = 512;
+
+    private int resultLowWatermark = 128;
+
+    private int plannerExhaustiveThreshold = Integer.MAX_VALUE;
+
+    private long plannerExhaustiveTimeout = 0;
+
+    private AdaptiveBatchSizeController batchSizeController;
+
+    private AskCache askCache;
+
+    private PlanCache planCache;
+
     private ExecutorService executor = Executors.newCachedThreadPool();
     private Repository metadataRepository;
 
@@ -98,7 +143,11 @@ public class SemagrowSail extends AbstractSail {
         selector = new RestrictiveSourceSelector(selector, includeOnly, exclude);
         CostEstimatorResolver costEstimatorResolver = getCostEstimatorResolver();
         CardinalityEstimatorResolver cardinalityEstimatorResolver = getCardinalityEstimatorResolver();
-        return new org.semagrow.plan.SimpleQueryCompiler(costEstimatorResolver, cardinalityEstimatorResolver, selector);
+        org.semagrow.plan.SimpleQueryCompiler compiler =
+                new org.semagrow.plan.SimpleQueryCompiler(costEstimatorResolver, cardinalityEstimatorResolver, selector);
+        compiler.setExhaustiveJoinThreshold(plannerExhaustiveThreshold);
+        compiler.setExhaustiveJoinTimeout(plannerExhaustiveTimeout);
+        return compiler;
     }
 
     public SourceSelector getSourceSelector() { return sourceSelector; }
@@ -162,6 +211,26 @@ public class SemagrowSail extends AbstractSail {
                 throw new SailException(e);
             }
         }
+
+        if (batchSizeController != null) {
+            batchSizeController.shutdown();
+            batchSizeController.unregister();
+        }
+
+        if (askCache != null)
+            askCache.shutdown();
+
+        for (SourceSelector s = sourceSelector; s instanceof SourceSelectorWrapper; s = ((SourceSelectorWrapper) s).getWrappedSelector()) {
+            if (s instanceof CachedSourceSelector)
+                ((CachedSourceSelector) s).unregister();
+        }
+
+        for (QueryExecutor executor : queryExecutors.values())
+            executor.shutDown();
+        queryExecutors.clear();
+
+        for (QueryExecutorFactory factory : QueryExecutorRegistry.getInstance().getAll())
+            factory.shutDown();
        // super.shutDown();
 
     }
@@ -174,6 +243,141 @@ public class SemagrowSail extends AbstractSail {
         batchSize = b;
     }
 
+    public int getMaxInflightBatches() {
+        return maxInflightBatches;
+    }
+
+    public void setMaxInflightBatches(int n) {
+        maxInflightBatches = n;
+    }
+
+    public int getMaxSiteRequests() {
+        return maxSiteRequests;
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests of the queries of this sail to a site
+     * that does not define its own limit; 0 if such sites are not bounded.
+     */
+    public void setMaxSiteRequests(int n) {
+        maxSiteRequests = n;
+        for (RequestLimiter limiter : siteLimiters.values())
+            limiter.setLimit(Math.max(0, n));
+    }
+
+    /**
+     * The limiter of the requests to {@code site}: the limiter of the site if it defines
+     * its own limit, or else a limiter of this sail that is bounded by {@link #getMaxSiteRequests()}.
+     * @return the limiter or null if the requests to the site are not bounded
+     */
+    public RequestLimiter getRequestLimiter(Site site) {
+        RequestLimiter limiter = site.getCapabilities().getRequestLimiter();
+
+        if (limiter != null)
+            return limiter;
+
+        if (maxSiteRequests <= 0)
+            return null;
+
+        return siteLimiters.computeIfAbsent(site.getID(), id -> new RequestLimiter(maxSiteRequests));
+    }
+
+    /**
+     * Sets the executor of the subqueries to the sites of {@code type}. The executor
+     * is owned by this sail and is shut down with it.
+     */
+    public void setQueryExecutor(String type, QueryExecutor executor) {
+        QueryExecutor old = queryExecutors.put(type, executor);
+        if (old != null && old != executor)
+            old.shutDown();
+    }
+
+    /**
+     * Resolves the executor of a site to the executor of this sail for its type,
+     * or else to the shared executor of the {@link QueryExecutorRegistry}.
+     */
+    public QueryExecutorResolver getQueryExecutorResolver() {
+        return site -> {
+            QueryExecutor executor = queryExecutors.get(site.getType());
+            return (executor != null) ? Optional.of(executor) : sharedExecutors.resolve(site);
+        };
+    }
+
+    public boolean isOrderedBindJoin() {
+        return orderedBindJoin;
+    }
+
+    public void setOrderedBindJoin(boolean ordered) {
+        orderedBindJoin = ordered;
+    }
+
+    public int getMaxJoinTableSize() {
+        return maxJoinTableSize;
+    }
+
+    public void setMaxJoinTableSize(int size) {
+        maxJoinTableSize = size;
+    }
+
+    public int getResultPrefetch() {
+        return resultPrefetch;
+    }
+
+    public void setResultPrefetch(int n) {
+        resultPrefetch = n;
+    }
+
+    public int getResultLowWatermark() {
+        return resultLowWatermark;
+    }
+
+    public void setResultLowWatermark(int n) {
+        resultLowWatermark = n;
+    }
+
+    public int getPlannerExhaustiveThreshold() {
+        return plannerExhaustiveThreshold;
+    }
+
+    public void setPlannerExhaustiveThreshold(int n) {
+        plannerExhaustiveThreshold = n;
+    }
+
+    public long getPlannerExhaustiveTimeout() {
+        return plannerExhaustiveTimeout;
+    }
+
+    public void setPlannerExhaustiveTimeout(long millis) {
+        plannerExhaustiveTimeout = millis;
+    }
+
+    public AskCache getAskCache() {
+        return askCache;
+    }
+
+    public void setAskCache(AskCache cache) {
+        askCache = cache;
+    }
+
+    /**
+     * The cache of the compiled plans; null if the plans are not cached.
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+    public void setPlanCache(PlanCache cache) {
+        planCache = cache;
+    }
+
+    public AdaptiveBatchSizeController getBatchSizeController() {
+        return batchSizeController;
+    }
+
+    public void setBatchSizeController(AdaptiveBatchSizeController controller) {
+        batchSizeController = controller;
+    }
+
     public Repository getMetadataRepository() {
         return metadataRepository;
     }
@@ -2,6 +2,7 @@ package org.semagrow.sail;
 
 import org.semagrow.model.SemagrowValueFactory;
 import org.semagrow.plan.Plan;
+import org.semagrow.plan.PlanCache;
 import org.semagrow.plan.QueryCompiler;
 import org.semagrow.plan.QueryDecomposer;
 import org.semagrow.plan.QueryDecompositionException;
@@ -13,6 +14,7 @@ import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.SailReadOnlyException;
 import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Optional;
 
 /**
  * A Semagrow Readonly Connection
@@ -47,6 +50,20 @@ public class SemagrowSailConnection extends AbstractSailConnection {
 
     }
 
+    /**
+     * The number of results that a query requests upfront from its evaluation.
+     */
+    public int getResultPrefetch() {
+        return semagrowSail.getResultPrefetch();
+    }
+
+    /**
+     * The number of outstanding requested results below which a query requests more results.
+     */
+    public int getResultLowWatermark() {
+        return semagrowSail.getResultLowWatermark();
+    }
+
     /**
      * Evaluates a query represented as TupleExpr
      * @param tupleExpr the tuple expression to evaluate
@@ -144,7 +161,23 @@ public class SemagrowSailConnection extends AbstractSailConnection {
                          Collection<IRI> excludeSources)
             throws SailException
     {
-        return evaluateInternalReactive(tupleExpr, dataset, bindings, b, p, includeOnlySources, excludeSources);
+        return evaluateInternalReactive(tupleExpr, dataset, bindings, b, p, includeOnlySources, excludeSources, false);
+    }
+
+    /**
+     * Evaluates a query represented as TupleExpr
+     * @param prepared if true the query is compiled without the values of {@code bindings},
+     *                 which are substituted only when the plan is evaluated
+     * @see #decompose(TupleExpr, Dataset, BindingSet, Collection, Collection, boolean)
+     */
+    public  Publisher<? extends BindingSet>
+        evaluateReactive(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean b, boolean p,
+                         Collection<IRI> includeOnlySources,
+                         Collection<IRI> excludeSources,
+                         boolean prepared)
+            throws SailException
+    {
+        return evaluateInternalReactive(tupleExpr, dataset, bindings, b, p, includeOnlySources, excludeSources, prepared);
     }
 
     protected Publisher<? extends BindingSet>
@@ -153,7 +186,8 @@ public class SemagrowSailConnection extends AbstractSailConnection {
                      BindingSet bindings,
                      boolean b, boolean p,
                      Collection<IRI> includeOnlySources,
-                     Collection<IRI> excludeSources)
+                     Collection<IRI> excludeSources,
+                     boolean prepared)
             throws SailException
     {
         long start_time = System.currentTimeMillis();
@@ -161,7 +195,7 @@ public class SemagrowSailConnection extends AbstractSailConnection {
 
         TupleExpr decomposed = null;
 
-        decomposed = decompose(tupleExpr, dataset, bindings, includeOnlySources, excludeSources);
+        decomposed = decompose(tupleExpr, dataset, bindings, includeOnlySources, excludeSources, prepared);
 	    long end_time = System.currentTimeMillis();
 	    logger.debug("Decomposition duration = " + (end_time - start_time));
         logger.debug("Query decomposed to " + decomposed.toString());
@@ -205,6 +239,12 @@ public class SemagrowSailConnection extends AbstractSailConnection {
             //QueryExecutorImpl executor = new QueryExecutorImpl();
             FederatedEvaluationStrategyImpl strategy = new FederatedEvaluationStrategyImpl(SemagrowValueFactory.getInstance());
             strategy.setBatchSize(semagrowSail.getBatchSize());
+            strategy.setBatchSizeController(semagrowSail.getBatchSizeController());
+            strategy.setMaxInflightBatches(semagrowSail.getMaxInflightBatches());
+            strategy.setRequestLimiters(semagrowSail::getRequestLimiter);
+            strategy.setQueryExecutorResolver(semagrowSail.getQueryExecutorResolver());
+            strategy.setOrderedBindJoin(semagrowSail.isOrderedBindJoin());
+            strategy.setMaxJoinTableSize(semagrowSail.getMaxJoinTableSize());
             return strategy.evaluate(expr, bindings);
         } catch(QueryEvaluationException e) {
             throw new SailException(e);
@@ -221,6 +261,37 @@ public class SemagrowSailConnection extends AbstractSailConnection {
     public Plan decompose(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings,
                                Collection<IRI> includeOnlySources, Collection<IRI> excludeSources)
     {
+        return decompose(tupleExpr, dataset, bindings, includeOnlySources, excludeSources, false);
+    }
+
+    /**
+     * Compiles a query to a plan. A prepared query is compiled without the values of
+     * {@code bindings}; the bound variables are kept in the plan as placeholders and the values
+     * are passed to the sources only when the plan is evaluated with the bindings.
+     * Hence, the executions of a prepared query with different values share the same
+     * cached plan, at the expense of a plan that is not tailored to the values.
+     */
+    public Plan decompose(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings,
+                          Collection<IRI> includeOnlySources, Collection<IRI> excludeSources,
+                          boolean prepared)
+    {
+        if (prepared)
+            bindings = EmptyBindingSet.getInstance();
+
+        PlanCache cache = semagrowSail.getPlanCache();
+
+        // the key must be computed before the query is modified by the optimizer
+        PlanCache.Key key = (cache != null) ?
+                cache.key(tupleExpr, dataset, bindings, includeOnlySources, excludeSources) : null;
+
+        if (key != null) {
+            Optional<Plan> cached = cache.get(key);
+            if (cached.isPresent()) {
+                logger.debug("Using the cached plan of the query");
+                return cached.get();
+            }
+        }
+
         QueryOptimizer optimizer = semagrowSail.getOptimizer();
         optimizer.optimize(tupleExpr, dataset, bindings);
 
@@ -231,6 +302,9 @@ public class SemagrowSailConnection extends AbstractSailConnection {
         assert tupleExpr instanceof QueryRoot;
         Plan p = decomposer.compile((QueryRoot)tupleExpr, dataset, bindings);
 
+        if (key != null)
+            cache.put(key, p);
+
         return p;
     }
 
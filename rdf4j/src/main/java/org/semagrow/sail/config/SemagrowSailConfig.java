@@ -1,6 +1,9 @@
 package org.semagrow.sail.config;
 
 import org.semagrow.config.*;
+import org.semagrow.selector.SiteConfig;
+import org.semagrow.selector.SiteFactory;
+import org.semagrow.selector.SiteRegistry;
 import org.semagrow.selector.SourceSelectorRegistry;
 import org.semagrow.util.FileUtils;
 import org.eclipse.rdf4j.model.*;
@@ -27,6 +30,25 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
 
     private List<String> filenames = new LinkedList<String>();
     private int executorBatchSize = 10;
+    private int executorMaxBatchSize = 500;
+    private String batchSizeFile;
+    private int executorMaxInflightBatches = 4;
+    private boolean executorOrderedBindJoin = false;
+    private int executorMaxJoinTableSize = 100000;
+    private int executorMaxSiteRequests = 16;
+    private int executorSourcePoolSize = 32;
+    private int executorResultPrefetch = 512;
+    private int executorResultLowWatermark = 128;
+    private int executorMaxConnections = 200;
+    private int executorMaxSiteConnections = 16;
+    private long executorConnectionIdleTimeout = 30;
+    private int sourceSelectorCacheSize = 10000;
+    private long sourceSelectorCacheTTL = 3600;
+    private String askCacheFile;
+    private String sourceSummaryFile;
+    private int plannerExhaustiveThreshold = 16;
+    private long plannerExhaustiveTimeout = 2000;
+    private int planCacheSize = 1000;
 
     private String queryTransformationUser;
     private String queryTransformationPassword;
@@ -34,6 +56,8 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
 
     private SourceSelectorImplConfig sourceSelectorConfig = null;
 
+    private List<SiteConfig> siteConfigs = new LinkedList<>();
+
     public SemagrowSailConfig() { super(SemagrowSailFactory.SAIL_TYPE); }
 
     public SourceSelectorImplConfig getSourceSelectorConfig() {
@@ -44,6 +68,13 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
             return new RepositorySourceSelectorConfig();
     }
 
+    /**
+     * The configurations of the sites that override the defaults, e.g. the bind join mode of a SPARQL endpoint.
+     */
+    public List<SiteConfig> getSiteConfigs() { return siteConfigs; }
+
+    public void addSiteConfig(SiteConfig config) { siteConfigs.add(config); }
+
     public String getMetadataRepoId() { return metadataRepoId; }
 
     public void setMetadataRepoId(String metadataId) { metadataRepoId = metadataId; }
@@ -86,6 +117,142 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
         return executorBatchSize;
     }
 
+    public void setExecutorMaxBatchSize(int b) {
+        executorMaxBatchSize = b;
+    }
+
+    public int getExecutorMaxBatchSize() {
+        return executorMaxBatchSize;
+    }
+
+    /**
+     * The file where the batch sizes learned for each source are kept between restarts.
+     */
+    public String getBatchSizeFile() { return batchSizeFile; }
+
+    public void setBatchSizeFile(String file) { batchSizeFile = file; }
+
+    /**
+     * The maximum number of batches of a bind join that are sent concurrently
+     * to a source that does not define its own limit.
+     */
+    public int getExecutorMaxInflightBatches() { return executorMaxInflightBatches; }
+
+    public void setExecutorMaxInflightBatches(int n) { executorMaxInflightBatches = n; }
+
+    public boolean isExecutorOrderedBindJoin() { return executorOrderedBindJoin; }
+
+    public void setExecutorOrderedBindJoin(boolean ordered) { executorOrderedBindJoin = ordered; }
+
+    /**
+     * The maximum number of tuples that a symmetric hash join keeps in memory before it spills to disk.
+     */
+    public int getExecutorMaxJoinTableSize() { return executorMaxJoinTableSize; }
+
+    public void setExecutorMaxJoinTableSize(int size) { executorMaxJoinTableSize = size; }
+
+    /**
+     * The maximum number of requests that all the queries of the sail send concurrently
+     * to a source that does not define its own limit; 0 for no limit.
+     */
+    public int getExecutorMaxSiteRequests() { return executorMaxSiteRequests; }
+
+    public void setExecutorMaxSiteRequests(int n) { executorMaxSiteRequests = n; }
+
+    /**
+     * The number of threads that fetch the results of the remote subqueries.
+     */
+    public int getExecutorSourcePoolSize() { return executorSourcePoolSize; }
+
+    public void setExecutorSourcePoolSize(int size) { executorSourcePoolSize = size; }
+
+    /**
+     * The number of results that a query requests upfront from its evaluation.
+     */
+    public int getExecutorResultPrefetch() { return executorResultPrefetch; }
+
+    public void setExecutorResultPrefetch(int n) { executorResultPrefetch = n; }
+
+    /**
+     * The number of outstanding requested results below which a query requests more results.
+     */
+    public int getExecutorResultLowWatermark() { return executorResultLowWatermark; }
+
+    public void setExecutorResultLowWatermark(int n) { executorResultLowWatermark = n; }
+
+    /**
+     * The maximum number of open HTTP connections to all sources.
+     */
+    public int getExecutorMaxConnections() { return executorMaxConnections; }
+
+    public void setExecutorMaxConnections(int n) { executorMaxConnections = n; }
+
+    /**
+     * The maximum number of open HTTP connections to a source that does not define its own limit.
+     */
+    public int getExecutorMaxSiteConnections() { return executorMaxSiteConnections; }
+
+    public void setExecutorMaxSiteConnections(int n) { executorMaxSiteConnections = n; }
+
+    /**
+     * The number of seconds after which an idle HTTP connection to a source is closed.
+     */
+    public long getExecutorConnectionIdleTimeout() { return executorConnectionIdleTimeout; }
+
+    public void setExecutorConnectionIdleTimeout(long seconds) { executorConnectionIdleTimeout = seconds; }
+
+    /**
+     * The maximum number of patterns of which the sources are cached.
+     */
+    public int getSourceSelectorCacheSize() { return sourceSelectorCacheSize; }
+
+    public void setSourceSelectorCacheSize(int size) { sourceSelectorCacheSize = size; }
+
+    /**
+     * The number of seconds for which the sources of a pattern are cached; 0 if they never expire.
+     */
+    public long getSourceSelectorCacheTTL() { return sourceSelectorCacheTTL; }
+
+    public void setSourceSelectorCacheTTL(long seconds) { sourceSelectorCacheTTL = seconds; }
+
+    /**
+     * The file where the answers of the ASK queries of the source selection are kept across restarts.
+     */
+    public String getAskCacheFile() { return askCacheFile; }
+
+    public void setAskCacheFile(String file) { askCacheFile = file; }
+
+    /**
+     * The file with the Bloom filter summaries of the sources, as built by the SourceSummarizer.
+     */
+    public String getSourceSummaryFile() { return sourceSummaryFile; }
+
+    public void setSourceSummaryFile(String file) { sourceSummaryFile = file; }
+
+    /**
+     * The maximum number of joined patterns for which the planner searches all the join orders;
+     * the joins of larger queries are ordered greedily.
+     */
+    public int getPlannerExhaustiveThreshold() { return plannerExhaustiveThreshold; }
+
+    public void setPlannerExhaustiveThreshold(int n) { plannerExhaustiveThreshold = n; }
+
+    /**
+     * The number of milliseconds after which the planner stops searching all the join orders
+     * and orders the joins greedily; 0 if the search is never stopped.
+     */
+    public long getPlannerExhaustiveTimeout() { return plannerExhaustiveTimeout; }
+
+    public void setPlannerExhaustiveTimeout(long millis) { plannerExhaustiveTimeout = millis; }
+
+    /**
+     * The maximum number of compiled plans that are cached; 0 if the plans are not cached.
+     * The cached plans expire along with the cached sources of the patterns.
+     */
+    public int getPlanCacheSize() { return planCacheSize; }
+
+    public void setPlanCacheSize(int size) { planCacheSize = size; }
+
     @Override
     public Resource export(Model graph) {
         Resource implNode = super.export(graph);
@@ -94,6 +261,38 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
             graph.add(implNode, SemagrowSchema.METADATAINIT, vf.createLiteral(file));
         }
 
+        graph.add(implNode, SemagrowSchema.EXECUTORBATCHSIZE, vf.createLiteral(executorBatchSize));
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXBATCHSIZE, vf.createLiteral(executorMaxBatchSize));
+
+        if (batchSizeFile != null)
+            graph.add(implNode, SemagrowSchema.BATCHSIZEFILE, vf.createLiteral(batchSizeFile));
+
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXINFLIGHT, vf.createLiteral(executorMaxInflightBatches));
+        graph.add(implNode, SemagrowSchema.EXECUTORORDERED, vf.createLiteral(executorOrderedBindJoin));
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXJOINTABLESIZE, vf.createLiteral(executorMaxJoinTableSize));
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXSITEREQUESTS, vf.createLiteral(executorMaxSiteRequests));
+        graph.add(implNode, SemagrowSchema.EXECUTORSOURCEPOOLSIZE, vf.createLiteral(executorSourcePoolSize));
+        graph.add(implNode, SemagrowSchema.EXECUTORRESULTPREFETCH, vf.createLiteral(executorResultPrefetch));
+        graph.add(implNode, SemagrowSchema.EXECUTORRESULTLOWWATERMARK, vf.createLiteral(executorResultLowWatermark));
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXCONNECTIONS, vf.createLiteral(executorMaxConnections));
+        graph.add(implNode, SemagrowSchema.EXECUTORMAXSITECONNECTIONS, vf.createLiteral(executorMaxSiteConnections));
+        graph.add(implNode, SemagrowSchema.EXECUTORCONNECTIONIDLETIMEOUT, vf.createLiteral(executorConnectionIdleTimeout));
+        graph.add(implNode, SemagrowSchema.SOURCESELECTORCACHESIZE, vf.createLiteral(sourceSelectorCacheSize));
+        graph.add(implNode, SemagrowSchema.SOURCESELECTORCACHETTL, vf.createLiteral(sourceSelectorCacheTTL));
+
+        if (askCacheFile != null)
+            graph.add(implNode, SemagrowSchema.ASKCACHEFILE, vf.createLiteral(askCacheFile));
+
+        if (sourceSummaryFile != null)
+            graph.add(implNode, SemagrowSchema.SOURCESUMMARYFILE, vf.createLiteral(sourceSummaryFile));
+
+        graph.add(implNode, SemagrowSchema.PLANNEREXHAUSTIVETHRESHOLD, vf.createLiteral(plannerExhaustiveThreshold));
+        graph.add(implNode, SemagrowSchema.PLANNEREXHAUSTIVETIMEOUT, vf.createLiteral(plannerExhaustiveTimeout));
+        graph.add(implNode, SemagrowSchema.PLANCACHESIZE, vf.createLiteral(planCacheSize));
+
+        for (SiteConfig siteConfig : siteConfigs)
+            graph.add(implNode, SemagrowSchema.SITE, siteConfig.export(graph));
+
         String queryTransfDB = getQueryTransformationDB();
         if (queryTransfDB != null) {
             graph.add(implNode, SemagrowSchema.QUERYTRANSFORMDB, vf.createLiteral(queryTransfDB));
@@ -115,6 +314,99 @@ public class SemagrowSailConfig extends AbstractSailImplConfig {
             executorBatchSize = Integer.parseInt(o.stringValue());
         }
 
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXBATCHSIZE, null).objects()) {
+            executorMaxBatchSize = Integer.parseInt(o.stringValue());
+        }
+
+        Models.objectLiteral(graph.filter(node, SemagrowSchema.BATCHSIZEFILE, null))
+                .ifPresent(l -> batchSizeFile = l.stringValue());
+
+        Models.objectLiteral(graph.filter(node, SemagrowSchema.ASKCACHEFILE, null))
+                .ifPresent(l -> askCacheFile = l.stringValue());
+
+        Models.objectLiteral(graph.filter(node, SemagrowSchema.SOURCESUMMARYFILE, null))
+                .ifPresent(l -> sourceSummaryFile = l.stringValue());
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXINFLIGHT, null).objects()) {
+            executorMaxInflightBatches = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORORDERED, null).objects()) {
+            executorOrderedBindJoin = Boolean.parseBoolean(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXJOINTABLESIZE, null).objects()) {
+            executorMaxJoinTableSize = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXSITEREQUESTS, null).objects()) {
+            executorMaxSiteRequests = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORSOURCEPOOLSIZE, null).objects()) {
+            executorSourcePoolSize = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORRESULTPREFETCH, null).objects()) {
+            executorResultPrefetch = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORRESULTLOWWATERMARK, null).objects()) {
+            executorResultLowWatermark = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXCONNECTIONS, null).objects()) {
+            executorMaxConnections = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORMAXSITECONNECTIONS, null).objects()) {
+            executorMaxSiteConnections = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.EXECUTORCONNECTIONIDLETIMEOUT, null).objects()) {
+            executorConnectionIdleTimeout = Long.parseLong(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.SOURCESELECTORCACHESIZE, null).objects()) {
+            sourceSelectorCacheSize = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.SOURCESELECTORCACHETTL, null).objects()) {
+            sourceSelectorCacheTTL = Long.parseLong(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.PLANNEREXHAUSTIVETHRESHOLD, null).objects()) {
+            plannerExhaustiveThreshold = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.PLANNEREXHAUSTIVETIMEOUT, null).objects()) {
+            plannerExhaustiveTimeout = Long.parseLong(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.PLANCACHESIZE, null).objects()) {
+            planCacheSize = Integer.parseInt(o.stringValue());
+        }
+
+        for (Value o : graph.filter(node, SemagrowSchema.SITE, null).objects()) {
+            if (!(o instanceof Resource))
+                continue;
+
+            Resource siteNode = (Resource) o;
+
+            String siteType = Models.objectLiteral(graph.filter(siteNode, SemagrowSchema.SITETYPE, null))
+                    .map(Literal::stringValue)
+                    .orElse("SPARQL");
+
+            Optional<SiteFactory> siteFactory = SiteRegistry.getInstance().get(siteType);
+
+            if (!siteFactory.isPresent())
+                throw new SailConfigException("Unsupported site type: " + siteType);
+
+            SiteConfig siteConfig = siteFactory.get().getConfig();
+            siteConfig.parse(graph, siteNode);
+            siteConfigs.add(siteConfig);
+        }
+
         /*
         try {
             Literal dbLit = GraphUtil.getOptionalObjectLiteral(graph, node, SemagrowSchema.QUERYTRANSFORMDB);
@@ -2,9 +2,16 @@ package org.semagrow.sail.config;
 
 
 import org.semagrow.config.*;
+import org.semagrow.connector.sparql.config.SPARQLQueryExecutorConfig;
+import org.semagrow.connector.sparql.selector.AskCache;
 import org.semagrow.connector.sparql.selector.AskSourceSelector;
 import org.semagrow.estimator.*;
+import org.semagrow.evaluation.AdaptiveBatchSizeController;
+import org.semagrow.evaluation.QueryExecutorConfigException;
+import org.semagrow.evaluation.QueryExecutorFactory;
+import org.semagrow.evaluation.QueryExecutorRegistry;
 import org.semagrow.alignment.QueryTransformationImpl;
+import org.semagrow.plan.PlanCache;
 import org.semagrow.sail.SemagrowSail;
 import org.semagrow.selector.*;
 import org.semagrow.alignment.SourceSelectorWithQueryTransform;
@@ -20,11 +27,13 @@ import org.eclipse.rdf4j.repository.config.RepositoryConfigException;
 import org.eclipse.rdf4j.repository.config.RepositoryFactory;
 import org.eclipse.rdf4j.repository.config.RepositoryImplConfig;
 import org.eclipse.rdf4j.repository.config.RepositoryRegistry;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.repository.sail.config.RepositoryResolver;
 import org.eclipse.rdf4j.repository.sail.config.RepositoryResolverClient;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.RDFParserRegistry;
+import org.eclipse.rdf4j.sail.NotifyingSail;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.config.*;
 
@@ -32,6 +41,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by angel on 5/29/14.
@@ -66,12 +76,27 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
 
             initializeMetadata( metadata, config.getInitialFiles() );
 
+            configureSites( config.getSiteConfigs() );
+
+            configureExecutor( sail, config );
+
+            indexMetadata( metadata, TimeUnit.SECONDS.toMillis(config.getSourceSelectorCacheTTL()) );
+
             sail.setMetadataRepository(metadata);
 
+            AskCache askCache = new AskCache();
+
+            if (config.getAskCacheFile() != null) {
+                askCache.setFile(new File(config.getAskCacheFile()));
+                askCache.load();
+            }
+
+            sail.setAskCache(askCache);
+
             SourceSelector selector =
                     (config.hasSelectorConfig()) ?
                             getSourceSelector(config.getSourceSelectorConfig()) :
-                            getSourceSelector(metadata, config, config.getSourceSelectorConfig());
+                            getSourceSelector(metadata, config, config.getSourceSelectorConfig(), askCache);
 
             sail.setSourceSelector(selector);
 
@@ -83,6 +108,32 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
             sail.setCardinalityEstimatorResolver(cardEstimator);
 
             sail.setBatchSize(config.getExecutorBatchSize());
+            sail.setMaxInflightBatches(config.getExecutorMaxInflightBatches());
+            sail.setOrderedBindJoin(config.isExecutorOrderedBindJoin());
+            sail.setMaxJoinTableSize(config.getExecutorMaxJoinTableSize());
+            sail.setMaxSiteRequests(config.getExecutorMaxSiteRequests());
+            sail.setResultPrefetch(config.getExecutorResultPrefetch());
+            sail.setResultLowWatermark(config.getExecutorResultLowWatermark());
+            sail.setPlannerExhaustiveThreshold(config.getPlannerExhaustiveThreshold());
+            sail.setPlannerExhaustiveTimeout(config.getPlannerExhaustiveTimeout());
+
+            if (config.getPlanCacheSize() > 0) {
+                PlanCache planCache = new PlanCache(config.getPlanCacheSize(),
+                        TimeUnit.SECONDS.toMillis(config.getSourceSelectorCacheTTL()));
+                invalidateOnChange(metadata, planCache::invalidateAll);
+                sail.setPlanCache(planCache);
+            }
+
+            AdaptiveBatchSizeController batchSizeController =
+                    new AdaptiveBatchSizeController(config.getExecutorBatchSize(), config.getExecutorMaxBatchSize());
+
+            if (config.getBatchSizeFile() != null) {
+                batchSizeController.setStateFile(new File(config.getBatchSizeFile()));
+                batchSizeController.load();
+            }
+
+            batchSizeController.register();
+            sail.setBatchSizeController(batchSizeController);
 
             return sail;
 
@@ -108,7 +159,8 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
         }
     }
 
-    public SourceSelector getSourceSelector(Repository metadata, SemagrowSailConfig sailConfig, SourceSelectorImplConfig sourceSelectorImplConfig)
+    public SourceSelector getSourceSelector(Repository metadata, SemagrowSailConfig sailConfig,
+                                            SourceSelectorImplConfig sourceSelectorImplConfig, AskCache askCache)
             throws SourceSelectorConfigException
     {
 
@@ -127,8 +179,19 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
             if (transformation != null)
                 selector = new SourceSelectorWithQueryTransform(selector, transformation);
 
-            selector = new AskSourceSelector(selector);
-            selector = new CachedSourceSelector(selector);
+            SourceSummaries summaries = getSourceSummaries(sailConfig);
+
+            if (summaries != null)
+                selector = new SummarySourceSelector(selector, summaries);
+
+            selector = new AskSourceSelector(selector, askCache);
+            CachedSourceSelector cachedSelector = new CachedSourceSelector(selector,
+                    sailConfig.getSourceSelectorCacheSize(),
+                    TimeUnit.SECONDS.toMillis(sailConfig.getSourceSelectorCacheTTL()));
+            invalidateOnChange(metadata, cachedSelector::invalidateAll);
+            cachedSelector.register();
+
+            selector = new JoinAwareSourceSelector(cachedSelector, metadata);
 
             return selector;
         }
@@ -147,6 +210,23 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
         }
     }
 
+    private SourceSummaries getSourceSummaries(SemagrowSailConfig sailConfig) {
+
+        if (sailConfig.getSourceSummaryFile() == null)
+            return null;
+
+        File file = new File(sailConfig.getSourceSummaryFile());
+
+        try {
+            SourceSummaries summaries = SourceSummaries.load(file);
+            logger.info("Loaded the summaries of {} sources from {}", summaries.getEndpoints().size(), file);
+            return summaries;
+        } catch (IOException e) {
+            logger.warn("Cannot load source summaries from {}", file, e);
+            return null;
+        }
+    }
+
     private QueryTransformation getQueryTransformation(SemagrowSailConfig sailConfig) {
 
         String queryTransformationDB = sailConfig.getQueryTransformationDB();
@@ -198,6 +278,82 @@ public class SemagrowSailFactory implements SailFactory, RepositoryResolverClien
         }
     }
 
+    /**
+     * Applies the configured settings of the sites. The capabilities of a site are shared
+     * by all the instances of the site, so creating the site once is enough.
+     */
+    public void configureSites( List<SiteConfig> configs )
+    {
+        for (SiteConfig config : configs) {
+            Optional<SiteFactory> factory = SiteRegistry.getInstance().get(config.getType());
+            if (factory.isPresent())
+                factory.get().getSite(config);
+            else
+                logger.warn("Cannot find a factory for site {} of type {}", config.getSiteId(), config.getType());
+        }
+    }
+
+    /**
+     * Creates the SPARQL query executor of the sail with the connection and thread settings of the configuration.
+     */
+    public void configureExecutor( SemagrowSail sail, SemagrowSailConfig config ) throws SailConfigException
+    {
+        SPARQLQueryExecutorConfig executorConfig = new SPARQLQueryExecutorConfig();
+        executorConfig.setMaxConnections(config.getExecutorMaxConnections());
+        executorConfig.setMaxConnectionsPerEndpoint(config.getExecutorMaxSiteConnections());
+        executorConfig.setIdleTimeout(config.getExecutorConnectionIdleTimeout());
+        executorConfig.setSourcePoolSize(config.getExecutorSourcePoolSize());
+
+        Optional<QueryExecutorFactory> factory = QueryExecutorRegistry.getInstance().get(executorConfig.getType());
+
+        if (factory.isPresent()) {
+            try {
+                sail.setQueryExecutor(executorConfig.getType(), factory.get().getQueryExecutor(executorConfig));
+            } catch (QueryExecutorConfigException e) {
+                throw new SailConfigException(e);
+            }
+        }
+    }
+
+    /**
+     * Builds the index of the metadata and keeps it up to date with the changes of the
+     * metadata repository, if the repository reports them. Otherwise, the index is
+     * rebuilt when it becomes older than {@code ttl} milliseconds.
+     */
+    public void indexMetadata( Repository metadata, long ttl )
+    {
+        VOIDIndex index = VOIDIndex.of(metadata);
+
+        if (metadata instanceof SailRepository && ((SailRepository) metadata).getSail() instanceof NotifyingSail) {
+            NotifyingSail sail = (NotifyingSail) ((SailRepository) metadata).getSail();
+            sail.addSailChangedListener(event -> {
+                if (event.statementsAdded() || event.statementsRemoved())
+                    index.invalidate();
+            });
+        }
+        else
+            index.setRefreshInterval(ttl);
+
+        if (metadata.isInitialized())
+            index.refresh();
+    }
+
+    /**
+     * Drops a cache, such as the cached plans or the cached sources, whenever
+     * the metadata repository reports a change, since the cached entries depend
+     * on the metadata.
+     */
+    public void invalidateOnChange( Repository metadata, Runnable invalidate )
+    {
+        if (metadata instanceof SailRepository && ((SailRepository) metadata).getSail() instanceof NotifyingSail) {
+            NotifyingSail sail = (NotifyingSail) ((SailRepository) metadata).getSail();
+            sail.addSailChangedListener(event -> {
+                if (event.statementsAdded() || event.statementsRemoved())
+                    invalidate.run();
+            });
+        }
+    }
+
     @Override
     public void setRepositoryResolver(RepositoryResolver repositoryResolver) {
         this.repositoryResolver = repositoryResolver;
@@ -0,0 +1,27 @@
+package org.semagrow.connector.sparql;
+
+/**
+ * The ways a batch of bindings can be sent to a SPARQL endpoint
+ * in a single bind join request.
+ * @author acharal
+ */
+public enum BindJoinMode {
+
+    /**
+     * Repeat the subquery once for each binding, with renamed variables,
+     * and combine the copies with UNION. Works with SPARQL 1.0 endpoints.
+     */
+    UNION,
+
+    /**
+     * Attach the bindings to the subquery with a VALUES block (SPARQL 1.1)
+     * that also carries the index of each binding.
+     */
+    VALUES,
+
+    /**
+     * Restrict the subquery with a FILTER on the values of the bindings.
+     * Works with SPARQL 1.0 endpoints.
+     */
+    FILTER
+}
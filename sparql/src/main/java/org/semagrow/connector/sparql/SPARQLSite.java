@@ -2,7 +2,6 @@ package org.semagrow.connector.sparql;
 
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.semagrow.selector.Site;
-import org.semagrow.selector.SiteCapabilities;
 import org.eclipse.rdf4j.model.Resource;
 
 import java.net.URL;
@@ -40,7 +39,7 @@ public class SPARQLSite implements Site {
     public String getType() { return "SPARQL"; }
 
     @Override
-    public SiteCapabilities getCapabilities() {
+    public SPARQLSiteCapabilities getCapabilities() {
 
         /*
         // FIXME
@@ -48,7 +47,7 @@ public class SPARQLSite implements Site {
             return new CassandraCapabilities();
         */
 
-        return new SPARQLSiteCapabilities();
+        return SPARQLSiteCapabilities.of(endpointURI);
     }
 
     //public String getType() { return "SPARQL"; }
@@ -1,9 +1,93 @@
 package org.semagrow.connector.sparql;
 
+import org.semagrow.evaluation.RequestLimiter;
 import org.semagrow.selector.AbstractSiteCapabilities;
 
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Created by angel on 13/6/2016.
  */
 public class SPARQLSiteCapabilities extends AbstractSiteCapabilities {
+
+    private static final ConcurrentMap<String, SPARQLSiteCapabilities> capabilities = new ConcurrentHashMap<>();
+
+    private static volatile BindJoinMode defaultBindJoinMode = BindJoinMode.VALUES;
+
+    private volatile BindJoinMode bindJoinMode;
+
+    private volatile BindJoinMode fallbackMode;
+
+    private volatile long fallbackUntil = 0;
+
+    private volatile int maxInflightRequests = 0;
+
+    private final RequestLimiter limiter = new RequestLimiter(0);
+
+    private volatile int maxConnections = 0;
+
+    public SPARQLSiteCapabilities() { }
+
+    /**
+     * Returns the capabilities of the endpoint at {@code url}. The capabilities are shared,
+     * so that what is learned about an endpoint is remembered across queries.
+     */
+    public static SPARQLSiteCapabilities of(URL url) {
+        // key on the string form; URL.equals resolves host names
+        return capabilities.computeIfAbsent(url.toString(), u -> new SPARQLSiteCapabilities());
+    }
+
+    public static BindJoinMode getDefaultBindJoinMode() { return defaultBindJoinMode; }
+
+    public static void setDefaultBindJoinMode(BindJoinMode mode) { defaultBindJoinMode = mode; }
+
+    /**
+     * The way a batch of bindings is sent to the endpoint in a bind join.
+     */
+    public BindJoinMode getBindJoinMode() {
+        BindJoinMode fallback = fallbackMode;
+
+        if (fallback != null && System.currentTimeMillis() < fallbackUntil)
+            return fallback;
+
+        return (bindJoinMode == null) ? defaultBindJoinMode : bindJoinMode;
+    }
+
+    public void setBindJoinMode(BindJoinMode mode) { bindJoinMode = mode; }
+
+    /**
+     * Uses {@code mode} instead of the configured bind join mode for the next {@code millis}
+     * milliseconds, e.g. after the endpoint rejected the syntax of the configured mode.
+     * The configured mode is tried again afterwards, since the failure may have been transient.
+     */
+    public void fallBack(BindJoinMode mode, long millis) {
+        fallbackMode = mode;
+        fallbackUntil = System.currentTimeMillis() + millis;
+    }
+
+    @Override
+    public int getMaxInflightRequests() { return maxInflightRequests; }
+
+    /**
+     * Sets the maximum number of concurrent requests to the endpoint; the new limit
+     * applies immediately, also to the requests that are already waiting.
+     */
+    public void setMaxInflightRequests(int n) {
+        maxInflightRequests = n;
+        limiter.setLimit(Math.max(0, n));
+    }
+
+    @Override
+    public RequestLimiter getRequestLimiter() {
+        return (maxInflightRequests > 0) ? limiter : null;
+    }
+
+    /**
+     * The maximum number of pooled HTTP connections to the endpoint; 0 for the default of the pool.
+     */
+    public int getMaxConnections() { return maxConnections; }
+
+    public void setMaxConnections(int n) { maxConnections = n; }
 }
@@ -12,12 +12,52 @@ public class SPARQLQueryExecutorConfig implements QueryExecutorImplConfig {
 
     public static String TYPE = "SPARQL";
 
+    private int maxConnections = 200;
+
+    private int maxConnectionsPerEndpoint = 16;
+
+    private long idleTimeout = 30;
+
+    private int sourcePoolSize = 32;
+
+    /**
+     * The maximum number of open HTTP connections to all endpoints.
+     */
+    public int getMaxConnections() { return maxConnections; }
+
+    public void setMaxConnections(int n) { maxConnections = n; }
+
+    /**
+     * The maximum number of open HTTP connections to an endpoint that does not define its own limit.
+     */
+    public int getMaxConnectionsPerEndpoint() { return maxConnectionsPerEndpoint; }
+
+    public void setMaxConnectionsPerEndpoint(int n) { maxConnectionsPerEndpoint = n; }
+
+    /**
+     * The number of seconds after which an idle HTTP connection is closed.
+     */
+    public long getIdleTimeout() { return idleTimeout; }
+
+    public void setIdleTimeout(long seconds) { idleTimeout = seconds; }
+
+    /**
+     * The number of threads that fetch the results of the subqueries.
+     */
+    public int getSourcePoolSize() { return sourcePoolSize; }
+
+    public void setSourcePoolSize(int n) { sourcePoolSize = n; }
 
     @Override
     public String getType() { return TYPE; }
 
     @Override
     public void validate() throws QueryExecutorConfigException {
+        if (maxConnections <= 0 || maxConnectionsPerEndpoint <= 0)
+            throw new QueryExecutorConfigException("The maximum number of connections must be positive");
+
+        if (sourcePoolSize <= 0)
+            throw new QueryExecutorConfigException("The number of threads of the executor must be positive");
 
     }
 
@@ -17,10 +17,44 @@ public class SPARQLQueryExecutorFactory implements QueryExecutorFactory {
     @Override
     public QueryExecutorImplConfig getConfig() { return new SPARQLQueryExecutorConfig(); }
 
+    // shared by the queries that are not given an executor of their own
+    private SPARQLQueryExecutor executor;
+
+    /**
+     * Returns a new executor for the given configuration, which must be
+     * shut down by the caller, or, if no configuration is given, the
+     * executor with the default configuration that is shared by all queries.
+     */
     @Override
-    public QueryExecutor getQueryExecutor(QueryExecutorImplConfig config)
+    public synchronized QueryExecutor getQueryExecutor(QueryExecutorImplConfig config)
             throws QueryExecutorConfigException
     {
-        return new SPARQLQueryExecutor(null, null);
+        if (config instanceof SPARQLQueryExecutorConfig) {
+            config.validate();
+            return createExecutor((SPARQLQueryExecutorConfig) config);
+        }
+
+        if (executor == null)
+            executor = createExecutor(new SPARQLQueryExecutorConfig());
+
+        return executor;
+    }
+
+    private SPARQLQueryExecutor createExecutor(SPARQLQueryExecutorConfig config) {
+        SPARQLQueryExecutor executor = new SPARQLQueryExecutor(null, null);
+        executor.setMaxConnections(config.getMaxConnections());
+        executor.setMaxConnectionsPerEndpoint(config.getMaxConnectionsPerEndpoint());
+        executor.setIdleTimeout(config.getIdleTimeout());
+        executor.setSourcePoolSize(config.getSourcePoolSize());
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public synchronized void shutDown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
     }
 }
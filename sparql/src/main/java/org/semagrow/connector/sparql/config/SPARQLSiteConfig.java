@@ -1,8 +1,13 @@
 package org.semagrow.connector.sparql.config;
 
+import org.semagrow.config.SemagrowSchema;
+import org.semagrow.connector.sparql.BindJoinMode;
 import org.semagrow.selector.SiteConfig;
 import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.util.Models;
 
 /**
  * Created by angel on 6/4/2016.
@@ -11,9 +16,12 @@ public class SPARQLSiteConfig implements SiteConfig {
 
     public static String TYPE = "SPARQL";
     private String siteId;
+    private BindJoinMode bindJoinMode;
+    private int maxInflightRequests = 0;
+    private int maxConnections = 0;
 
     public String getType() {
-        return null;
+        return TYPE;
     }
 
     public void validate() {
@@ -28,11 +36,60 @@ public class SPARQLSiteConfig implements SiteConfig {
         siteId = id;
     }
 
+    /**
+     * The bind join mode of the site; null if it should not be changed.
+     */
+    public BindJoinMode getBindJoinMode() { return bindJoinMode; }
+
+    public void setBindJoinMode(BindJoinMode mode) { bindJoinMode = mode; }
+
+    /**
+     * The maximum number of concurrent bind join requests to the site; 0 if it should not be changed.
+     */
+    public int getMaxInflightRequests() { return maxInflightRequests; }
+
+    public void setMaxInflightRequests(int n) { maxInflightRequests = n; }
+
+    /**
+     * The maximum number of open HTTP connections to the site; 0 if it should not be changed.
+     */
+    public int getMaxConnections() { return maxConnections; }
+
+    public void setMaxConnections(int n) { maxConnections = n; }
+
     public Resource export(Model graph) {
-        return null;
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Resource implNode = vf.createBNode();
+
+        graph.add(implNode, SemagrowSchema.SITETYPE, vf.createLiteral(getType()));
+
+        if (siteId != null)
+            graph.add(implNode, SemagrowSchema.SITEID, vf.createLiteral(siteId));
+
+        if (bindJoinMode != null)
+            graph.add(implNode, SemagrowSchema.BINDJOINMODE, vf.createLiteral(bindJoinMode.name()));
+
+        if (maxInflightRequests > 0)
+            graph.add(implNode, SemagrowSchema.MAXINFLIGHTREQUESTS, vf.createLiteral(maxInflightRequests));
+
+        if (maxConnections > 0)
+            graph.add(implNode, SemagrowSchema.MAXCONNECTIONS, vf.createLiteral(maxConnections));
+
+        return implNode;
     }
 
     public void parse(Model graph, Resource resource) {
 
+        Models.object(graph.filter(resource, SemagrowSchema.SITEID, null))
+                .ifPresent(o -> siteId = o.stringValue());
+
+        Models.objectLiteral(graph.filter(resource, SemagrowSchema.BINDJOINMODE, null))
+                .ifPresent(l -> bindJoinMode = BindJoinMode.valueOf(l.stringValue().toUpperCase()));
+
+        Models.objectLiteral(graph.filter(resource, SemagrowSchema.MAXINFLIGHTREQUESTS, null))
+                .ifPresent(l -> maxInflightRequests = Integer.parseInt(l.stringValue()));
+
+        Models.objectLiteral(graph.filter(resource, SemagrowSchema.MAXCONNECTIONS, null))
+                .ifPresent(l -> maxConnections = Integer.parseInt(l.stringValue()));
     }
 }
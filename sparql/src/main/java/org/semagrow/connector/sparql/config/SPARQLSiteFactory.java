@@ -23,7 +23,22 @@ public class SPARQLSiteFactory implements SiteFactory {
     public Site getSite(SiteConfig config) {
         try {
             URL u = new URL(config.getSiteId());
-            return new SPARQLSite(u);
+            SPARQLSite site = new SPARQLSite(u);
+
+            if (config instanceof SPARQLSiteConfig) {
+                SPARQLSiteConfig sparqlConfig = (SPARQLSiteConfig) config;
+
+                if (sparqlConfig.getBindJoinMode() != null)
+                    site.getCapabilities().setBindJoinMode(sparqlConfig.getBindJoinMode());
+
+                if (sparqlConfig.getMaxInflightRequests() > 0)
+                    site.getCapabilities().setMaxInflightRequests(sparqlConfig.getMaxInflightRequests());
+
+                if (sparqlConfig.getMaxConnections() > 0)
+                    site.getCapabilities().setMaxConnections(sparqlConfig.getMaxConnections());
+            }
+
+            return site;
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("Configuration is not a valid URL");
         }
@@ -1,28 +1,78 @@
 package org.semagrow.connector.sparql.execution;
 
-import org.eclipse.rdf4j.model.IRI;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.rdf4j.http.client.SesameClientImpl;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.semagrow.connector.sparql.SPARQLSiteCapabilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Keeps a {@link SPARQLRepository} per endpoint. All repositories share a single
+ * pool of keep-alive HTTP connections, so that consecutive requests to the same
+ * endpoint reuse the already established TCP (and TLS) connections.
+ * Connections that stay idle for longer than {@link #getIdleTimeout()} seconds
+ * are evicted from the pool.
+ * <p>
+ * The manager is thread-safe and it is meant to be shared across queries.
+ *
  * Created by angel on 9/7/2015.
  */
 public class ConnectionManager {
 
     protected final Logger logger = LoggerFactory.getLogger(SPARQLQueryExecutor.class);
-    private Map<URL,Repository> repoMap = new HashMap<URL,Repository>();
-    private Integer countconn = 0;
 
-    public void initialize() { }
+    private final ConcurrentMap<String,Repository> repoMap = new ConcurrentHashMap<>();
+    private final AtomicInteger countconn = new AtomicInteger();
 
-    public void shutdown() {
+    private int maxConnections = 200;
+    private int maxConnectionsPerEndpoint = 16;
+    private long idleTimeout = 30;
+
+    private PoolingHttpClientConnectionManager pool;
+    private CloseableHttpClient httpClient;
+    private ExecutorService executor;
+    private volatile SesameClientImpl client;
+
+    public synchronized void initialize() {
+        if (client != null)
+            return;
+
+        pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnectionsPerEndpoint);
+
+        httpClient = HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(pool)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.SECONDS)
+                .build();
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool((r) -> {
+            Thread t = new Thread(r, "semagrow-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        client = new SesameClientImpl(httpClient, executor);
+    }
+
+    public synchronized void shutdown() {
         for (Repository repo : repoMap.values()) {
             if (repo.isInitialized())
                 try {
@@ -31,24 +81,29 @@ public class ConnectionManager {
                     logger.warn("Failed to shutdown repo {}", repo);
                 }
         }
+        repoMap.clear();
+
+        if (client != null) {
+            client.shutDown();
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the HTTP client", e);
+            }
+            executor.shutdownNow();
+            client = null;
+        }
     }
 
     public RepositoryConnection getConnection(URL endpoint) throws RepositoryException {
-        Repository repo = null;
-
-        if (!repoMap.containsKey(endpoint)) {
-            repo = new SPARQLRepository(endpoint.toString());
-            repoMap.put(endpoint,repo);
-        } else {
-            repo = repoMap.get(endpoint);
-        }
+        if (client == null)
+            initialize();
 
-        if (!repo.isInitialized())
-            repo.initialize();
+        // key on the string form; URL.equals resolves host names
+        Repository repo = repoMap.computeIfAbsent(endpoint.toString(), u -> createRepository(endpoint));
 
         RepositoryConnection conn = repo.getConnection();
-        logger.info("Open [{}] (currently open={})", conn, countconn);
-        synchronized(this) { countconn++; }
+        logger.info("Open [{}] (currently open={})", conn, countconn.incrementAndGet());
         return conn;
     }
 
@@ -56,11 +111,51 @@ public class ConnectionManager {
         try {
             if (conn.isOpen()) {
                 conn.close();
-                synchronized (this) { countconn--; }
+                countconn.decrementAndGet();
                 logger.info("Close [{}]", conn);
             }
         } catch (RepositoryException e) {
             logger.warn("Connection [{}] cannot be closed", conn, e);
         }
     }
+
+    /**
+     * The maximum number of open HTTP connections to all endpoints.
+     * Takes effect on the next {@link #initialize()}.
+     */
+    public void setMaxConnections(int n) { maxConnections = n; }
+
+    public int getMaxConnections() { return maxConnections; }
+
+    /**
+     * The maximum number of open HTTP connections to an endpoint that does not
+     * define its own limit with {@link SPARQLSiteCapabilities#getMaxConnections()}.
+     * Takes effect on the next {@link #initialize()}.
+     */
+    public void setMaxConnectionsPerEndpoint(int n) { maxConnectionsPerEndpoint = n; }
+
+    public int getMaxConnectionsPerEndpoint() { return maxConnectionsPerEndpoint; }
+
+    /**
+     * The number of seconds after which an idle HTTP connection is closed.
+     * Takes effect on the next {@link #initialize()}.
+     */
+    public void setIdleTimeout(long seconds) { idleTimeout = seconds; }
+
+    public long getIdleTimeout() { return idleTimeout; }
+
+    private Repository createRepository(URL endpoint) {
+        SPARQLRepository repo = new SPARQLRepository(endpoint.toString());
+        repo.setSesameClient(client);
+
+        int max = SPARQLSiteCapabilities.of(endpoint).getMaxConnections();
+        if (max > 0) {
+            int port = (endpoint.getPort() == -1) ? endpoint.getDefaultPort() : endpoint.getPort();
+            HttpHost host = new HttpHost(endpoint.getHost(), port, endpoint.getProtocol());
+            pool.setMaxPerRoute(new HttpRoute(host, null, "https".equalsIgnoreCase(endpoint.getProtocol())), max);
+        }
+
+        repo.initialize();
+        return repo;
+    }
 }
@@ -1,15 +1,20 @@
 package org.semagrow.connector.sparql.execution;
 
+import org.semagrow.connector.sparql.BindJoinMode;
 import org.semagrow.connector.sparql.SPARQLSite;
+import org.semagrow.connector.sparql.SPARQLSiteCapabilities;
 import org.semagrow.evaluation.file.MaterializationManager;
 import org.semagrow.evaluation.BindingSetOps;
 import org.semagrow.evaluation.util.BindingSetUtil;
+import org.semagrow.evaluation.util.JoinHashTable;
 import org.semagrow.evaluation.util.LoggingUtil;
 import org.semagrow.evaluation.util.SimpleBindingSetOps;
 import org.semagrow.evaluation.QueryExecutor;
 import org.semagrow.connector.sparql.query.render.SPARQLQueryStringUtil;
 import org.semagrow.selector.Site;
 import org.semagrow.querylog.api.QueryLogHandler;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.*;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.Var;
@@ -23,6 +28,9 @@ import reactor.core.publisher.Flux;
 
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Reactor Streams Query Executor
@@ -34,10 +42,18 @@ import java.util.*;
 
 public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecutor
 {
+    // the time that an endpoint uses UNION after rejecting its bind join mode
+    private static final long FALLBACK_PERIOD = TimeUnit.MINUTES.toMillis(10);
+
     private boolean rowIdOpt = false;
     private QueryLogHandler qfrHandler;
     private MaterializationManager mat;
 
+    private int sourcePoolSize = 32;
+
+    // the threads that fetch the results of the subqueries of this executor
+    private volatile ThreadPoolExecutor sourcePool;
+
     protected BindingSetOps bindingSetOps = SimpleBindingSetOps.getInstance();
 
     public SPARQLQueryExecutor(QueryLogHandler qfrHandler, MaterializationManager mat) {
@@ -45,6 +61,35 @@ public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecu
         this.mat = mat;
     }
 
+    @Override
+    public synchronized void initialize() {
+        super.initialize();
+
+        if (sourcePool == null)
+            sourcePool = TupleQueryResultPublisher.newExecutor(sourcePoolSize);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+
+        if (sourcePool != null) {
+            sourcePool.shutdownNow();
+            sourcePool = null;
+        }
+    }
+
+    @Override
+    public void shutDown() { shutdown(); }
+
+    /**
+     * The number of threads that fetch the results of the subqueries.
+     * Takes effect on the next {@link #initialize()}.
+     */
+    public void setSourcePoolSize(int n) { sourcePoolSize = n; }
+
+    public int getSourcePoolSize() { return sourcePoolSize; }
+
     /**
      * Evaluation of a remote query to a specified endpoint, given a binding.
      *
@@ -159,8 +204,6 @@ public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecu
         if (bindings.size() == 1)
             return evaluateReactorImpl(endpoint, expr, bindings.get(0));
 
-        Flux<BindingSet> result = null;
-
         Set<String> exprVars = computeVars(expr);
 
         Collection<String> relevant = Collections.emptySet();
@@ -168,11 +211,24 @@ public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecu
         if (!bindings.isEmpty())
             relevant = BindingSetUtil.projectNames(exprVars, bindings.get(0));
 
+        SPARQLSiteCapabilities capabilities = endpoint.getCapabilities();
+
+        BindJoinMode mode = capabilities.getBindJoinMode();
+
+        if (relevant.isEmpty() || SPARQLQueryStringUtil.hasFunctionCalls(expr))
+            mode = BindJoinMode.UNION;
+
         try {
-            String sparqlQuery = SPARQLQueryStringUtil.buildSPARQLQueryUNION(expr, bindings, relevant);
-            result = sendTupleQuery(endpoint.getURL(), sparqlQuery, EmptyBindingSet.getInstance(), expr);
-            result = result.flatMap(b -> convertUnionBindings(b, bindings));
-            return result;
+            switch (mode) {
+                case VALUES:
+                    return fallbackToUnion(evaluateVALUES(endpoint, expr, bindings, relevant),
+                            endpoint, expr, bindings, relevant);
+                case FILTER:
+                    return fallbackToUnion(evaluateFILTER(endpoint, expr, bindings, relevant),
+                            endpoint, expr, bindings, relevant);
+                default:
+                    return evaluateUNION(endpoint, expr, bindings, relevant);
+            }
         } catch(QueryEvaluationException e)  {
             throw e;
         } catch(Exception e) {
@@ -180,53 +236,151 @@ public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecu
         }
     }
 
-    private Flux<BindingSet> convertUnionBindings(BindingSet rightBindings, List<BindingSet> leftBindings) {
+    /**
+     * Evaluates a bind join request using a VALUES block that carries the index of
+     * each input binding. The index of each result is used to find the input binding
+     * that it should be merged with.
+     */
+    protected Flux<BindingSet>
+        evaluateVALUES(SPARQLSite endpoint, TupleExpr expr, List<BindingSet> bindings, Collection<String> relevant)
+            throws Exception
+    {
+        String sparqlQuery = SPARQLQueryStringUtil.buildSPARQLQueryVALUES(expr, bindings, relevant);
 
-        /*
-        QueryBindingSet joinBindings = new QueryBindingSet();
+        return sendTupleQuery(endpoint.getURL(), sparqlQuery, EmptyBindingSet.getInstance(), expr)
+                .map(b -> convertIndexedBindings(b, bindings));
+    }
 
-        int i = -1;
+    /**
+     * Evaluates a bind join request using a FILTER on the values of the input bindings.
+     * The results are joined back to the input bindings on the relevant variables.
+     */
+    protected Flux<BindingSet>
+        evaluateFILTER(SPARQLSite endpoint, TupleExpr expr, List<BindingSet> bindings, Collection<String> relevant)
+            throws Exception
+    {
+        String sparqlQuery = SPARQLQueryStringUtil.buildSPARQLQueryFILTER(expr, bindings, relevant);
+
+        JoinHashTable table = new JoinHashTable(relevant);
+        for (BindingSet b : bindings)
+            table.add(b);
+
+        return sendTupleQuery(endpoint.getURL(), sparqlQuery, EmptyBindingSet.getInstance(), expr)
+                .flatMapIterable(b -> {
+                    List<BindingSet> matches = table.probe(b);
+                    List<BindingSet> joined = new ArrayList<>(matches.size());
+                    for (BindingSet m : matches)
+                        joined.add(bindingSetOps.merge(b, m));
+                    return joined;
+                });
+    }
 
-        for (Binding b : rightBindings) {
-            // get the relevant left binding
-            String bName = b.getName();
-            int splitPoint = bName.lastIndexOf("_");
-            i = Integer.parseInt(bName.substring(splitPoint+1)) - 1;
-            int y = i;
-            // create new Binding
-            joinBindings.addBinding(bName.substring(0,splitPoint),b.getValue());
+    protected Flux<BindingSet>
+        evaluateUNION(SPARQLSite endpoint, TupleExpr expr, List<BindingSet> bindings, Collection<String> relevant)
+            throws Exception
+    {
+        String sparqlQuery = SPARQLQueryStringUtil.buildSPARQLQueryUNION(expr, bindings, relevant);
+        Map<String, RenamedBinding> names = new HashMap<>();
+        return sendTupleQuery(endpoint.getURL(), sparqlQuery, EmptyBindingSet.getInstance(), expr)
+                .flatMap(b -> convertUnionBindings(b, bindings, names));
+    }
+
+    /**
+     * If the endpoint rejects a query as malformed before producing any result,
+     * it probably does not support the syntax of the selected bind join mode.
+     * In that case the request is retried with {@link BindJoinMode#UNION}, and the
+     * endpoint uses {@link BindJoinMode#UNION} for a while before its mode is tried again.
+     */
+    private Flux<BindingSet> fallbackToUnion(Flux<BindingSet> result, SPARQLSite endpoint, TupleExpr expr,
+                                             List<BindingSet> bindings, Collection<String> relevant)
+    {
+        AtomicBoolean emitted = new AtomicBoolean(false);
+
+        return result
+                .doOnNext(b -> emitted.set(true))
+                .onErrorResumeWith(e -> {
+                    if (emitted.get() || !isMalformedQuery(e))
+                        return Flux.error(e);
+
+                    logger.warn("Endpoint {} rejected a {} bind join, switching to UNION for {} ms",
+                            endpoint, endpoint.getCapabilities().getBindJoinMode(), FALLBACK_PERIOD);
+
+                    endpoint.getCapabilities().fallBack(BindJoinMode.UNION, FALLBACK_PERIOD);
+                    try {
+                        return evaluateUNION(endpoint, expr, bindings, relevant);
+                    } catch (Exception x) {
+                        return Flux.error(x);
+                    }
+                });
+    }
+
+    private static boolean isMalformedQuery(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof MalformedQueryException)
+                return true;
         }
+        return false;
+    }
+
+    private BindingSet convertIndexedBindings(BindingSet rightBindings, List<BindingSet> leftBindings) {
+
+        Value index = rightBindings.getValue(SPARQLQueryStringUtil.INDEX_BINDING_NAME);
+
+        if (!(index instanceof Literal))
+            throw new QueryEvaluationException("Missing binding index in bind join result " + rightBindings);
+
+        QueryBindingSet joinBindings = new QueryBindingSet(rightBindings.size());
 
-        for (Binding b : leftBindings.get(i)) {
-            if (!joinBindings.hasBinding(b.getName()))
+        for (Binding b : rightBindings) {
+            if (!b.getName().equals(SPARQLQueryStringUtil.INDEX_BINDING_NAME))
                 joinBindings.addBinding(b);
         }
 
-        return joinBindings;
-        */
+        return bindingSetOps.merge(joinBindings, leftBindings.get(((Literal) index).intValue()));
+    }
 
-        SortedMap<Integer, QueryBindingSet> bmap = new TreeMap<Integer, QueryBindingSet>();
+    private Flux<BindingSet> convertUnionBindings(BindingSet rightBindings,
+                                                  List<BindingSet> leftBindings,
+                                                  Map<String, RenamedBinding> names) {
 
-        int i = -1;
+        SortedMap<Integer, QueryBindingSet> bmap = new TreeMap<Integer, QueryBindingSet>();
 
         for (Binding b : rightBindings) {
-            // get the relevant left binding
-            String bName = b.getName();
-            int splitPoint = bName.lastIndexOf("_");
-            i = Integer.parseInt(bName.substring(splitPoint+1)) - 1;
-            Integer y = i;
+            // get the relevant left binding; the renamed binding names
+            // of a query are few, so split each one only once
+            RenamedBinding name = names.computeIfAbsent(b.getName(), RenamedBinding::new);
 
-            QueryBindingSet joinBindings = (bmap.containsKey(y)) ? bmap.get(y) : new QueryBindingSet();
+            QueryBindingSet joinBindings = bmap.get(name.index);
+
+            if (joinBindings == null) {
+                joinBindings = new QueryBindingSet();
+                bmap.put(name.index, joinBindings);
+            }
 
             // create new Binding
-            joinBindings.addBinding(bName.substring(0,splitPoint),b.getValue());
-            bmap.put(y, joinBindings);
+            joinBindings.addBinding(name.name, b.getValue());
         }
 
         return Flux.fromIterable(bmap.entrySet())
                 .map((join) -> bindingSetOps.merge(join.getValue(), leftBindings.get(join.getKey())));
     }
 
+    /**
+     * A variable name of the UNION bind join query, i.e. of the form name_i
+     */
+    private static class RenamedBinding {
+
+        final String name;
+
+        final int index;
+
+        RenamedBinding(String renamed) {
+            int splitPoint = renamed.lastIndexOf("_");
+            name = renamed.substring(0, splitPoint);
+            index = Integer.parseInt(renamed.substring(splitPoint+1)) - 1;
+        }
+    }
+
     /**
      * Sends a tuple query to a given endpoint.
      *
@@ -243,16 +397,18 @@ public class SPARQLQueryExecutor extends ConnectionManager implements QueryExecu
         sendTupleQuery(URL endpoint, String sparqlQuery, BindingSet bindings, TupleExpr expr)
             throws QueryEvaluationException, MalformedQueryException, RepositoryException {
 
-        RepositoryConnection conn = getConnection(endpoint);
-        TupleQuery query = conn.prepareTupleQuery(QueryLanguage.SPARQL, sparqlQuery);
+        // the connection is opened on subscription, so that a query that is never
+        // subscribed to (e.g. the probe side of a hash join with an empty build side) holds none
+        return Flux.using(() -> getConnection(endpoint), conn -> {
+            TupleQuery query = conn.prepareTupleQuery(QueryLanguage.SPARQL, sparqlQuery);
 
-        for (Binding b : bindings)
-            query.setBinding(b.getName(), b.getValue());
+            for (Binding b : bindings)
+                query.setBinding(b.getName(), b.getValue());
 
-        LoggingUtil.logRemote(logger, conn, sparqlQuery, endpoint, expr, query);
+            LoggingUtil.logRemote(logger, conn, sparqlQuery, endpoint, expr, query);
 
-        return Flux.from(new TupleQueryResultPublisher(query, sparqlQuery, qfrHandler, mat, endpoint))
-                .doAfterTerminate(() -> closeQuietly(conn));
+            return new TupleQueryResultPublisher(query, sparqlQuery, qfrHandler, mat, endpoint, sourcePool);
+        }, this::closeQuietly);
     }
 
     /**
@@ -1,181 +1,230 @@
 package org.semagrow.connector.sparql.execution;
 
-import org.semagrow.evaluation.LoggingTupleQueryResultHandler;
 import org.semagrow.evaluation.file.MaterializationManager;
 import org.semagrow.querylog.api.QueryLogHandler;
-import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.query.*;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 import java.net.URL;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A {@link Publisher} of the results of a remote {@link TupleQuery}.
+ * <p>
+ * The query is sent when the first request arrives. Results are emitted
+ * by a drain loop that runs on the bounded pool of threads of the executor
+ * (see {@link #newExecutor(int)}) and only while there is outstanding demand;
+ * when the demand is exhausted the loop
+ * returns its thread to the pool and is rescheduled by the next request.
+ * Hence, a subquery holds a thread only while it is actually producing results
+ * and the number of threads does not grow with the number of subqueries.
+ * <p>
+ * Cancelling the subscription closes the underlying result, which in turn
+ * aborts the HTTP response stream of the remote query.
+ *
  * Created by antonis on 9/4/2015.
  */
 public class TupleQueryResultPublisher implements Publisher<BindingSet> {
 
     private static final Logger logger = LoggerFactory.getLogger(TupleQueryResultPublisher.class);
 
+    // the maximum number of subqueries that wait for a thread; further subqueries fail
+    private static final int MAX_QUEUED = 10000;
+
     private TupleQuery query;
     private String queryStr;
     private QueryLogHandler qfrHandler;
     private MaterializationManager mat;
     private URL endpoint;
+    private Executor executor;
 
-    private static ExecutorService executorService = Executors.newCachedThreadPool();
-
-    public TupleQueryResultPublisher(TupleQuery query, String queryStr, QueryLogHandler qfrHandler, MaterializationManager mat, URL endpoint) {
+    public TupleQueryResultPublisher(TupleQuery query, String queryStr, QueryLogHandler qfrHandler, MaterializationManager mat,
+                                     URL endpoint, Executor executor) {
         this.query = query;
         this.qfrHandler = qfrHandler;
         this.queryStr = queryStr;
         this.mat = mat;
         this.endpoint = endpoint;
+        this.executor = executor;
     }
 
     public void subscribe(Subscriber<? super BindingSet> subscriber) {
-        subscriber.onSubscribe(new TupleQuerySubscription(subscriber, query, queryStr, qfrHandler, mat, endpoint));
+        subscriber.onSubscribe(new TupleQuerySubscription(subscriber, query, endpoint, executor));
+    }
+
+    /**
+     * Creates a pool of {@code size} threads that fetch the results of the remote subqueries.
+     * Subqueries that have pending demand while all threads are busy wait in the bounded
+     * queue of the pool. The pool must be shut down by its owner.
+     * @param size the number of threads
+     */
+    public static ThreadPoolExecutor newExecutor(int size) {
+        size = Math.max(1, size);
+        AtomicInteger count = new AtomicInteger();
+
+        ThreadFactory threadFactory = (r) -> {
+            Thread t = new Thread(r, "semagrow-sparql-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED), threadFactory);
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
-    static class TupleQueryProducer implements Runnable {
+    public static final class TupleQuerySubscription implements Subscription, Runnable {
 
-        private TupleQuery query;
-        private Subscriber<? super BindingSet> subscriber;
+        private final Subscriber<? super BindingSet> subscriber;
+        private final TupleQuery query;
+        private final URL endpoint;
+        private final Executor executor;
 
-        private long requested = 0;
-        private Boolean shutdownFlag = false;
-        private CountDownLatch latch = new CountDownLatch(0);
+        private final AtomicLong requested = new AtomicLong();
 
-        final private Object syncRequest = new Object();
+        // number of pending drain requests; the drain loop runs only when it moves away from zero
+        private final AtomicInteger wip = new AtomicInteger();
 
-        public TupleQueryProducer(Subscriber<? super BindingSet> o, TupleQuery query, String queryStr, QueryLogHandler qfrHandler, MaterializationManager mat, URL endpoint) {
-            this.query = query;
+        private volatile boolean cancelled = false;
+
+        private volatile TupleQueryResult result;
+
+        public TupleQuerySubscription(Subscriber<? super BindingSet> o, TupleQuery query, URL endpoint, Executor executor) {
             this.subscriber = o;
+            this.query = query;
+            this.endpoint = endpoint;
+            this.executor = executor;
+            logger.debug("new TupleQueryResultProducer - {}", endpoint);
         }
 
-        public void requestMore(long n) {
-            latch.countDown();
-            synchronized (syncRequest) {
-                requested += n;
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Request must be positive, but was " + n));
+                return;
             }
-        }
 
-        public void fullfillOne() {
-            synchronized (syncRequest) {
-                assert requested > 0;
-                requested--;
-            }
+            addRequested(n);
+            drain();
         }
 
-        public void awaitForRequests() throws InterruptedException {
-            synchronized (syncRequest) {
-                if (requested == 0)
-                    latch.await();
-            }
+        @Override
+        public void cancel() {
+            if (cancelled)
+                return;
+
+            cancelled = true;
+
+            // closing the result aborts a drain loop that is blocked on the response stream
+            closeResult();
+            drain();
         }
 
+        @Override
         public void run() {
+            int missed = 1;
 
-            TupleQueryResult result = null;
+            for (;;) {
+                if (cancelled) {
+                    closeResult();
+                    return;
+                }
 
-            try {
-                awaitForRequests();
-                result = query.evaluate();
-
-                while(result.hasNext()) {
-                    awaitForRequests();
-                    BindingSet b = result.next();
-                    logger.debug("found " + b);
-                    fullfillOne();
+                long r = requested.get();
+                long e = 0;
+
+                while (e != r) {
+                    if (cancelled) {
+                        closeResult();
+                        return;
+                    }
+
+                    // only the failures of the remote query are signalled to the subscriber;
+                    // a failure of the subscriber itself is not signalled back to it (rule 2.13)
+                    BindingSet b;
+                    try {
+                        if (result == null) {
+                            if (logger.isDebugEnabled())
+                                logger.debug("Sending query {} with {}", query.toString().replace("\n", " "), query.getBindings());
+
+                            result = query.evaluate();
+                        }
+
+                        b = result.hasNext() ? result.next() : null;
+                    } catch (RuntimeException ex) {
+                        closeResult();
+                        if (cancelled) {
+                            logger.debug("Subscription to {} cancelled by subscriber", endpoint);
+                        } else {
+                            logger.warn("Error while evaluating subquery", ex);
+                            subscriber.onError(ex);
+                        }
+                        // wip is never decremented, so that the loop is not rescheduled
+                        return;
+                    }
+
+                    if (b == null) {
+                        closeResult();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    logger.trace("found {}", b);
                     subscriber.onNext(b);
+                    e++;
                 }
 
-                if (!result.hasNext()) {
-                    subscriber.onComplete();
-                }
+                if (r != Long.MAX_VALUE)
+                    requested.addAndGet(-e);
 
-            } catch (QueryEvaluationException e) {
-                logger.warn("Error while evaluating subquery", e);
-                subscriber.onError(e);
-
-            } catch (InterruptedException i) {
-                if (shutdownFlag)
-                    logger.info("Subscription shutdown by subscriber. Interrupted.");
-                else
-                    logger.warn("SubQuery thread interrupted.");
-            } finally {
-                if (result != null)
-                    result.close();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    return;
             }
         }
 
-        public void shutdown() {
-            shutdownFlag = true;
-        }
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
 
-    }
-
-    public static final class TupleQuerySubscription implements Subscription {
-
-
-        private Subscriber<? super BindingSet> subscriber;
-        private TupleQuery query;
-        private String queryStr;
-        private QueryLogHandler qfrHandler;
-        private MaterializationManager mat;
-        private URL endpoint;
-        private Future<?> f;
-
-        private TupleQueryProducer producer;
-
-        public TupleQuerySubscription(Subscriber<? super BindingSet> o, TupleQuery query, String queryStr, QueryLogHandler qfrHandler, MaterializationManager mat, URL endpoint) {
-            this.subscriber = o;
-            this.query = query;
-            this.qfrHandler = qfrHandler;
-            this.mat = mat;
-            this.queryStr = queryStr;
-            this.endpoint = endpoint;
-            logger.debug("new TupleQueryResultProducer - {}", endpoint);
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                if (!cancelled)
+                    subscriber.onError(new QueryEvaluationException("Cannot schedule subquery to " + endpoint, e));
+            }
         }
 
-        //////////////////////////
-
-        @Override
-        public void request(long l) {
-
-            if (producer == null) {
-
-                if (logger.isDebugEnabled())
-                    logger.debug("Sending query {} with {}", query.toString().replace("\n", " "), query.getBindings());
-
-                producer = new TupleQueryProducer(subscriber, query, queryStr, qfrHandler, mat, endpoint);
-                //executorService.execute(producer);
-                Future<?> f = executorService.submit(producer);
-                producer.requestMore(l);
-
-            } else {
-                producer.requestMore(l);
+        private void addRequested(long n) {
+            for (;;) {
+                long r = requested.get();
+                if (r == Long.MAX_VALUE)
+                    return;
+                long u = r + n;
+                if (u < 0)
+                    u = Long.MAX_VALUE;
+                if (requested.compareAndSet(r, u))
+                    return;
             }
         }
 
-        @Override
-        public void cancel() {
-
-            if (producer != null) {
-                producer.shutdown();
-                assert f != null;
-                if (!f.isDone() && !f.isCancelled())
-                    f.cancel(true);
+        private void closeResult() {
+            TupleQueryResult r = result;
+            if (r != null) {
+                try {
+                    r.close();
+                } catch (QueryEvaluationException e) {
+                    logger.debug("Error while closing the result of {}", endpoint, e);
+                }
             }
         }
     }
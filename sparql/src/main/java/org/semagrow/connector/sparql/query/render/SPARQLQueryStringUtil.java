@@ -4,23 +4,26 @@ import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.queryrender.RenderUtils;
 import org.semagrow.model.PlainLiteral;
 import org.semagrow.plan.Plan;
+import org.semagrow.plan.operators.SourceQuery;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.util.Literals;
 import org.eclipse.rdf4j.query.BindingSet;
-import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.*;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
 import org.eclipse.rdf4j.query.parser.ParsedBooleanQuery;
 import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
 import org.eclipse.rdf4j.query.parser.sparql.SPARQLUtil;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Various static functions for query handling.
@@ -32,11 +35,11 @@ import java.util.regex.Matcher;
 public class SPARQLQueryStringUtil {
 
 
-    private static boolean rowIdOpt = false;
-
-    private static String INDEX_BINDING_NAME = "__id";
-
-
+    /**
+     * The name of the variable that carries the index of each binding in
+     * queries built by {@link #buildSPARQLQueryVALUES(TupleExpr, List, Collection)}.
+     */
+    public static final String INDEX_BINDING_NAME = "__id";
 
     public static String toSPARQL(Value theValue) {
         StringBuilder aBuffer = toSPARQL(theValue, new StringBuilder());
@@ -65,54 +68,149 @@ public class SPARQLQueryStringUtil {
     }
 
     /**
-     * Computes the VALUES clause for the set of relevant input bindings. The
-     * VALUES clause is attached to a subquery for block-nested-loop evaluation.
+     * Computes the VALUES block for the set of relevant input bindings. The
+     * VALUES block is joined to a subquery for block-nested-loop evaluation.
      * Implementation note: we use a special binding to mark the rowIndex of the
      * input binding.
      *
      * @param bindings
      * @param relevantBindingNames
-     * @return a string with the VALUES clause for the given set of relevant
-     *         input bindings
-     * @throws QueryEvaluationException
+     * @return the VALUES block for the given set of relevant input bindings
      */
-    private static String buildVALUESClause(List<BindingSet> bindings, Set<String> relevantBindingNames)
-            throws QueryEvaluationException
+    private static BindingSetAssignment buildVALUESClause(List<BindingSet> bindings, Collection<String> relevantBindingNames)
     {
+        ValueFactory vf = SimpleValueFactory.getInstance();
 
-        if (relevantBindingNames.isEmpty())
-            return "";
+        Set<String> names = new LinkedHashSet<>();
+        names.add(INDEX_BINDING_NAME);
+        names.addAll(relevantBindingNames);
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(" VALUES (");
+        List<BindingSet> rows = new ArrayList<>(bindings.size());
 
-        if (rowIdOpt)
-            sb.append(" ?"+ INDEX_BINDING_NAME);
+        int rowIdx = 0;
+        for (BindingSet b : bindings) {
+            MapBindingSet row = new MapBindingSet(names.size());
+            row.addBinding(INDEX_BINDING_NAME, vf.createLiteral(rowIdx++)); // identification of the row for post processing
 
-        for (String bName : relevantBindingNames) {
-            sb.append(" ?").append(bName);
+            for (String bName : relevantBindingNames) {
+                Value v = b.getValue(bName);
+                if (v != null)
+                    row.addBinding(bName, v);
+            }
+            rows.add(row);
         }
 
-        sb.append(") { ");
+        BindingSetAssignment values = new BindingSetAssignment();
+        values.setBindingNames(names);
+        values.setBindingSets(rows);
+        return values;
+    }
 
-        int rowIdx = 0;
+    /**
+     * Computes a condition that holds if the relevant variables are bound to the same terms as in
+     * one of the input bindings. The terms are compared with sameTerm rather than by value, since the
+     * results are joined back to the input bindings by term equality.
+     *
+     * @return the condition or null if an input binding does not restrict the relevant variables
+     */
+    private static ValueExpr buildFILTERCondition(List<BindingSet> bindings, Collection<String> relevantBindingNames)
+    {
+        List<String> names = new ArrayList<>(relevantBindingNames);
+
+        // the input bindings that agree on the relevant variables give the same disjunct
+        Set<List<Value>> rows = new LinkedHashSet<>();
         for (BindingSet b : bindings) {
-            sb.append(" (");
+            List<Value> row = new ArrayList<>(names.size());
+            for (String name : names)
+                row.add(b.getValue(name));
+            rows.add(row);
+        }
+
+        ValueExpr condition = null;
+
+        for (List<Value> row : rows) {
+            ValueExpr conjunction = null;
+
+            for (int i = 0; i < names.size(); i++) {
+                if (row.get(i) == null)
+                    continue;
 
-            if (rowIdOpt) {
-                sb.append("\"").append(rowIdx++).append("\" "); // identification of the row for post processing
+                ValueExpr term = new SameTerm(new Var(names.get(i)), new ValueConstant(row.get(i)));
+                conjunction = (conjunction == null) ? term : new And(conjunction, term);
             }
 
-            for (String bName : relevantBindingNames) {
-                appendValueAsString(sb, b.getValue(bName)).append(" ");
+            if (conjunction == null)
+                return null;
+
+            condition = (condition == null) ? conjunction : new Or(condition, conjunction);
+        }
+
+        return condition;
+    }
+
+    /**
+     * The prefix of the variables that flag the patterns that have matches in queries built by
+     * {@link #buildSPARQLQueryPROBE(List)}.
+     */
+    public static final String PROBE_BINDING_PREFIX = "__ask";
+
+    /**
+     * Builds a single query that checks whether each of the given patterns has matches.
+     * The query returns a single row where the variable {@code PROBE_BINDING_PREFIX + i}
+     * is bound if and only if the i-th pattern has at least one match.
+     * @param patterns the patterns to check
+     * @return the query string
+     */
+    public static String buildSPARQLQueryPROBE(List<StatementPattern> patterns) {
+        StringBuilder sb = new StringBuilder("SELECT");
+
+        for (int i = 0; i < patterns.size(); i++)
+            sb.append(" ?").append(PROBE_BINDING_PREFIX).append(i);
+
+        sb.append(" WHERE {\n");
+
+        for (int i = 0; i < patterns.size(); i++) {
+            StatementPattern pattern = patterns.get(i);
+
+            // the variables are renamed by position, since their names need not be valid SPARQL names;
+            // each pattern is a subquery of its own, so the names are not shared between patterns
+            Map<String, String> names = new HashMap<>();
+
+            sb.append("  OPTIONAL { SELECT (1 AS ?").append(PROBE_BINDING_PREFIX).append(i).append(") WHERE { ");
+
+            Var c = pattern.getContextVar();
+            boolean graph = c != null && (c.hasValue() || pattern.getScope() == StatementPattern.Scope.NAMED_CONTEXTS);
+
+            if (graph) {
+                sb.append("GRAPH ");
+                appendTerm(sb, c, names);
+                sb.append(" { ");
             }
-            sb.append(")");
+
+            appendTerm(sb, pattern.getSubjectVar(), names);
+            sb.append(" ");
+            appendTerm(sb, pattern.getPredicateVar(), names);
+            sb.append(" ");
+            appendTerm(sb, pattern.getObjectVar(), names);
+            sb.append(" .");
+
+            if (graph)
+                sb.append(" }");
+
+            sb.append(" } LIMIT 1 }\n");
         }
 
-        sb.append(" }");
+        sb.append("}");
         return sb.toString();
     }
 
+    private static void appendTerm(StringBuilder sb, Var var, Map<String, String> names) {
+        if (var.hasValue())
+            toSPARQL(var.getValue(), sb);
+        else
+            sb.append("?").append(names.computeIfAbsent(var.getName(), n -> "v" + names.size()));
+    }
+
     /**
      * Construct a SPARQL query string for the provided tuple exprossion.
      * If the projection is empty or null, build an ASK query, otherwise build a SELECT query.
@@ -122,53 +220,41 @@ public class SPARQLQueryStringUtil {
      * @return The corresponding SPARQL query string
      * @throws Exception
      */
-
-
     public static String buildSPARQLQuery(TupleExpr expr, Collection<String> projection)
             throws Exception
     {
+        QueryTemplate template = QueryTemplate.of(expr);
+
         if (projection != null && projection.isEmpty())
-            return buildAskSPARQLQuery(expr);
+            return template.getAskQuery();
         else
-            return buildSelectSPARQLQuery(expr, projection);
+            return template.getSelectQuery();
     }
 
+    /**
+     * Construct a bind join subquery for the provided tuple exprossion and a set of relevant input bindings,
+     * using the SPARQL 1.1 VALUES operator. Every result of the query binds {@link #INDEX_BINDING_NAME}
+     * to the (integer) position in {@code bindings} of the input binding that produced it.
+     *
+     * @param expr
+     * @param bindings
+     * @param relevantBindingNames
+     * @return The corresponding SPARQL query string
+     * @throws Exception
+     */
 
-    private static String buildSelectSPARQLQuery(TupleExpr expr, Collection<String> projection)
+    public static String buildSPARQLQueryVALUES(TupleExpr expr,
+                                         List<BindingSet> bindings,
+                                         Collection<String> relevantBindingNames)
             throws Exception
     {
-        TupleExpr body = expr.clone();
-
-        if (projection != null) {
-            Projection proj = new Projection();
-            ProjectionElemList elemList = new ProjectionElemList();
-
-            for (String var : projection)
-                elemList.addElement(new ProjectionElem(var));
-
-            proj.setProjectionElemList(elemList);
-
-            proj.setArg(body);
-            body = proj;
-        }
-
-        ParsedTupleQuery query = new ParsedTupleQuery(body);
-
-        String queryString = new SPARQLQueryRenderer().render(new ParsedTupleQuery(expr));
-        queryString = updateFunctionCallsSELECT(expr, queryString, computeVars(expr));
-
-        return queryString;
-    }
-
-    private static String buildAskSPARQLQuery(TupleExpr expr) throws Exception
-    {
-        ParsedBooleanQuery query = new ParsedBooleanQuery(expr);
-        return new SPARQLQueryRenderer().render(query);
+        return QueryTemplate.of(expr).getValuesQuery(bindings, relevantBindingNames);
     }
 
     /**
      * Construct a bind join subquery for the provided tuple exprossion and a set of relevant input bindings,
-     * using the SPARQL 1.1 VALUES operator.
+     * using a FILTER on the terms of the relevant bindings. The relevant bindings are projected,
+     * so that the results can be joined back to the input bindings.
      *
      * @param expr
      * @param bindings
@@ -177,19 +263,35 @@ public class SPARQLQueryStringUtil {
      * @throws Exception
      */
 
-    public static String buildSPARQLQueryVALUES(TupleExpr expr,
-                                         List<BindingSet> bindings,
-                                         Set<String> relevantBindingNames)
+    public static String buildSPARQLQueryFILTER(TupleExpr expr,
+                                                List<BindingSet> bindings,
+                                                Collection<String> relevantBindingNames)
             throws Exception
     {
-        Set<String> freeVars = computeVars(expr);
+        return QueryTemplate.of(expr).getFilterQuery(bindings, relevantBindingNames);
+    }
 
-        if (rowIdOpt)
-            freeVars.add(INDEX_BINDING_NAME);
+    /**
+     * Renders a SELECT query that projects {@code projection} out of {@code expr}.
+     */
+    private static String render(TupleExpr expr, Collection<String> projection)
+            throws Exception
+    {
+        ProjectionElemList elems = new ProjectionElemList();
 
-        //freeVars.removeAll(relevantBindingNames);
+        for (String name : projection)
+            elems.addElement(new ProjectionElem(name));
+
+        return new SPARQLQueryRenderer().render(new ParsedTupleQuery(new Projection(expr, elems)));
+    }
 
-        return buildSPARQLQuery(expr,freeVars) + buildVALUESClause(bindings,relevantBindingNames);
+    /**
+     * Checks whether the subquery projects the results of function calls.
+     * Such subqueries can only be bound using
+     * {@link #buildSPARQLQueryUNION(TupleExpr, List, Collection)}.
+     */
+    public static boolean hasFunctionCalls(TupleExpr expr) {
+        return !additionalBindingNames(expr).isEmpty();
     }
 
     /**
@@ -209,63 +311,56 @@ public class SPARQLQueryStringUtil {
             throws Exception
     {
 
-        Set<String> freeVars = computeVars(expr);
+        QueryTemplate template = QueryTemplate.of(expr);
+
+        Set<String> freeVars = new HashSet<>(template.getVars());
         freeVars.removeAll(relevantBindingNames);
 
         if (freeVars.isEmpty()) {
-            return buildSPARQLQueryUNIONFILTER(expr, bindings, relevantBindingNames);
+            return buildSPARQLQueryUNIONFILTER(template, bindings, relevantBindingNames);
         }
 
-        String query = new SPARQLQueryRenderer().render(new ParsedTupleQuery(expr));
-        query = updateFunctionCallsSELECT(expr, query, freeVars);
-        freeVars.addAll(additionalBindingNames(expr));
-        String where = query.substring(query.indexOf('{'));
+        QueryFragment where = template.getUnionWhere(freeVars);
+        freeVars.addAll(template.getFunctionCallNames());
         StringBuilder sb = new StringBuilder();
 
         int i = 1;
         boolean flag = false;
-        
+
         for (BindingSet b : bindings) {
             if (flag) {
                 sb.append(" UNION ");
             }
             flag = true;
-            String tmpStr = where;
-            for (String name : relevantBindingNames) {
-                String pattern = "[\\?\\$]" + name + "(?=\\W)";
-                StringBuilder val = new StringBuilder();
-                appendValueAsString(val, b.getValue(name));
-                String replacement = val.toString();
-                tmpStr = tmpStr.replaceAll(pattern, Matcher.quoteReplacement(replacement));
-            }
-            for (String name : freeVars) {
-                String pattern = "[\\?\\$]" + name + "(?=\\W)";
-                String replacement = "?" + name + "_" + i;
-                tmpStr = tmpStr.replaceAll(pattern, Matcher.quoteReplacement(replacement));
-            }
-            sb.append(tmpStr);
+            String suffix = "_" + i;
+            where.appendTo(sb, name -> {
+                if (relevantBindingNames.contains(name))
+                    return appendValueAsString(new StringBuilder(), b.getValue(name)).toString();
+                else if (freeVars.contains(name))
+                    return "?" + name + suffix;
+                else
+                    return null;
+            });
             i++;
         }
         sb.append(" }");
-        String pr = "SELECT ";
+        StringBuilder pr = new StringBuilder("SELECT ");
         for (int j=1; j<i; j++) {
             for (String name : freeVars) {
-                pr = pr + "?" + name + "_" + j + " ";
+                pr.append("?").append(name).append("_").append(j).append(" ");
             }
         }
-        pr = pr + "\nWHERE { ";
-        return (pr + sb.toString());
+        pr.append("\nWHERE { ");
+        return pr.append(sb).toString();
     }
 
-    private static String buildSPARQLQueryUNIONFILTER(TupleExpr expr,
+    private static String buildSPARQLQueryUNIONFILTER(QueryTemplate template,
                                                       List<BindingSet> bindings,
                                                       Collection<String> relevantBindingNames)
             throws Exception
     {
-        String query = new SPARQLQueryRenderer().render(new ParsedTupleQuery(expr));
-        query = updateFunctionCallsBIND(expr, query); // not tested
-        relevantBindingNames.addAll(additionalBindingNames(expr)); // not tested
-        String where = query.substring(query.indexOf('{'));
+        QueryFragment where = template.getBindWhere();
+        relevantBindingNames.addAll(template.getFunctionCallNames()); // not tested
         StringBuilder sb = new StringBuilder();
 
         int i = 1;
@@ -275,14 +370,8 @@ public class SPARQLQueryStringUtil {
                 sb.append(" UNION ");
             }
             flag1 = true;
-            String tmpStr = where;
-            for (String name : relevantBindingNames) {
-                String pattern = "[\\?\\$]" + name + "(?=\\W)";
-                String replacement = "?" + name + "_" + i;
-                tmpStr = tmpStr.replaceAll(pattern, Matcher.quoteReplacement(replacement));
-            }
-            tmpStr = tmpStr.substring(0,tmpStr.lastIndexOf('}'));
-            sb.append(tmpStr);
+            String suffix = "_" + i;
+            where.appendTo(sb, name -> relevantBindingNames.contains(name) ? "?" + name + suffix : null);
             sb.append(" FILTER (");
             boolean flag = false;
             for (String name : relevantBindingNames) {
@@ -297,14 +386,14 @@ public class SPARQLQueryStringUtil {
             i++;
         }
         sb.append(" }");
-        String pr = "SELECT ";
+        StringBuilder pr = new StringBuilder("SELECT ");
         for (int j=1; j<i; j++) {
             for (String name : relevantBindingNames) {
-                pr = pr + "?" + name + "_" + j + " ";
+                pr.append("?").append(name).append("_").append(j).append(" ");
             }
         }
-        pr = pr + "\nWHERE { ";
-        return (pr + sb.toString());
+        pr.append("\nWHERE { ");
+        return pr.append(sb).toString();
     }
 
     private static String updateFunctionCallsBIND(TupleExpr expr, String query) {
@@ -419,6 +508,249 @@ public class SPARQLQueryStringUtil {
         }
     }
 
+    /**
+     * The parts of the query of a subquery that do not depend on the bindings of a request.
+     * The template of the argument of a {@link SourceQuery} is kept on the operator, so that
+     * the subquery is rendered once per plan and each bind join request only splices in
+     * the values of its bindings: the VALUES and FILTER queries are rendered once around a
+     * placeholder row or condition, which each request replaces with its own rows or condition.
+     */
+    private static final class QueryTemplate {
+
+        private static final IRI PLACEHOLDER = SimpleValueFactory.getInstance().createIRI("urn:semagrow:placeholder");
+
+        private final TupleExpr expr;
+
+        private final Set<String> vars;
+
+        private final Set<String> functionCallNames;
+
+        // the rendering of a Plan over an Extension is rewritten by updateFunctionCallsSELECT
+        private final boolean extension;
+
+        // rendered on the first request; concurrent requests may render the same string twice
+        private volatile String query;
+        private volatile String askQuery;
+        private volatile String selectQuery;
+        private volatile QueryFragment unionWhere;
+        private volatile QueryFragment bindWhere;
+        private volatile String[] filterQuery;
+        private volatile String unfilteredQuery;
+
+        // the VALUES queries of each list of relevant variables
+        private final Map<List<String>, String[]> valuesQueries = new ConcurrentHashMap<>();
+
+        static QueryTemplate of(TupleExpr expr) {
+            QueryModelNode parent = expr.getParentNode();
+
+            if (parent instanceof SourceQuery && ((SourceQuery) parent).getArg() == expr)
+                return ((SourceQuery) parent).getRendering(QueryTemplate.class, QueryTemplate::new);
+            else
+                return new QueryTemplate(expr);
+        }
+
+        QueryTemplate(TupleExpr expr) {
+            this.expr = expr;
+            this.vars = Collections.unmodifiableSet(computeVars(expr));
+            this.functionCallNames = Collections.unmodifiableSet(additionalBindingNames(expr));
+            this.extension = expr instanceof Plan && ((Plan) expr).getArg() instanceof Extension;
+        }
+
+        Set<String> getVars() { return vars; }
+
+        Set<String> getFunctionCallNames() { return functionCallNames; }
+
+        String getQuery() throws Exception {
+            if (query == null)
+                query = new SPARQLQueryRenderer().render(new ParsedTupleQuery(expr));
+            return query;
+        }
+
+        String getAskQuery() throws Exception {
+            if (askQuery == null)
+                askQuery = new SPARQLQueryRenderer().render(new ParsedBooleanQuery(expr));
+            return askQuery;
+        }
+
+        String getSelectQuery() throws Exception {
+            if (selectQuery == null)
+                selectQuery = updateFunctionCallsSELECT(expr, getQuery(), vars);
+            return selectQuery;
+        }
+
+        QueryFragment getUnionWhere(Set<String> freeVars) throws Exception {
+            if (extension) {
+                // the projection of the function calls depends on the free variables
+                String q = updateFunctionCallsSELECT(expr, getQuery(), freeVars);
+                return new QueryFragment(q.substring(q.indexOf('{')), names());
+            }
+
+            if (unionWhere == null) {
+                String q = getQuery();
+                unionWhere = new QueryFragment(q.substring(q.indexOf('{')), names());
+            }
+            return unionWhere;
+        }
+
+        /**
+         * The group graph pattern of the query with the function calls bound, without its closing brace.
+         */
+        QueryFragment getBindWhere() throws Exception {
+            if (bindWhere == null) {
+                String q = updateFunctionCallsBIND(expr, getQuery());
+                q = q.substring(q.indexOf('{'));
+                bindWhere = new QueryFragment(q.substring(0, q.lastIndexOf('}')), names());
+            }
+            return bindWhere;
+        }
+
+        /**
+         * The query that joins the subquery with a VALUES block of the input bindings, as rendered
+         * from {@code Join(expr, buildVALUESClause(bindings, relevantBindingNames))}.
+         */
+        String getValuesQuery(List<BindingSet> bindings, Collection<String> relevantBindingNames) throws Exception {
+            List<String> relevant = new ArrayList<>(relevantBindingNames);
+
+            String[] parts = valuesQueries.get(relevant);
+
+            if (parts == null) {
+                Set<String> freeVars = new LinkedHashSet<>(vars);
+                freeVars.removeAll(relevant);
+                freeVars.add(INDEX_BINDING_NAME);
+
+                MapBindingSet placeholder = new MapBindingSet();
+                placeholder.addBinding(INDEX_BINDING_NAME, PLACEHOLDER);
+
+                BindingSetAssignment values = buildVALUESClause(Collections.emptyList(), relevant);
+                values.setBindingSets(Collections.singletonList(placeholder));
+
+                String q = render(new Join(expr.clone(), values), freeVars);
+
+                // the placeholder row is "indent  ( <placeholder> UNDEF ... )\n"
+                int at = q.indexOf(toSPARQL(PLACEHOLDER));
+                int start = q.lastIndexOf('\n', at) + 1;
+                int end = q.indexOf('\n', at) + 1;
+
+                parts = new String[] { q.substring(0, start), q.substring(start, at - 1), q.substring(end) };
+                valuesQueries.put(relevant, parts);
+            }
+
+            ValueFactory vf = SimpleValueFactory.getInstance();
+            StringBuilder sb = new StringBuilder(parts[0]);
+
+            int rowIdx = 0;
+            for (BindingSet b : bindings) {
+                sb.append(parts[1]).append(' ');
+                toSPARQL(vf.createLiteral(rowIdx++), sb);
+
+                for (String name : relevant) {
+                    Value v = b.getValue(name);
+                    sb.append(' ');
+                    if (v == null)
+                        sb.append("UNDEF");
+                    else
+                        toSPARQL(v, sb);
+                }
+                sb.append(" )\n");
+            }
+
+            return sb.append(parts[2]).toString();
+        }
+
+        /**
+         * The query that filters the subquery by the terms of the input bindings, as rendered
+         * from {@code Filter(expr, buildFILTERCondition(bindings, relevantBindingNames))}.
+         */
+        String getFilterQuery(List<BindingSet> bindings, Collection<String> relevantBindingNames) throws Exception {
+            ValueExpr condition = buildFILTERCondition(bindings, relevantBindingNames);
+
+            if (condition == null) {
+                if (unfilteredQuery == null)
+                    unfilteredQuery = render(expr.clone(), vars);
+                return unfilteredQuery;
+            }
+
+            String[] parts = filterQuery;
+
+            if (parts == null) {
+                ValueConstant placeholder = new ValueConstant(PLACEHOLDER);
+                String q = render(new Filter(expr.clone(), placeholder), vars);
+
+                // a constant condition is rendered in parentheses
+                String token = "(" + new SPARQLValueExprRenderer().render(placeholder) + ")";
+                int at = q.indexOf(token);
+
+                parts = new String[] { q.substring(0, at), q.substring(at + token.length()) };
+                filterQuery = parts;
+            }
+
+            return parts[0] + new SPARQLValueExprRenderer().render(condition) + parts[1];
+        }
+
+        private Set<String> names() {
+            Set<String> names = new HashSet<>(vars);
+            names.addAll(functionCallNames);
+            return names;
+        }
+    }
+
+    /**
+     * A query string split at the occurrences of a set of variables, so that the
+     * variables can be substituted without searching the string again.
+     */
+    private static final class QueryFragment {
+
+        private final List<String> texts = new ArrayList<>();
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<String> tokens = new ArrayList<>();
+
+        QueryFragment(String query, Set<String> vars) {
+            int last = 0;
+
+            if (!vars.isEmpty()) {
+                // the longest names first, so that a name is not matched by its prefix
+                List<String> sorted = new ArrayList<>(vars);
+                sorted.sort(Comparator.comparingInt(String::length).reversed());
+
+                StringBuilder regex = new StringBuilder("[\\?\\$](");
+                boolean flag = false;
+                for (String name : sorted) {
+                    if (flag)
+                        regex.append("|");
+                    flag = true;
+                    regex.append(Pattern.quote(name));
+                }
+                regex.append(")(?=\\W)");
+
+                Matcher m = Pattern.compile(regex.toString()).matcher(query);
+
+                while (m.find()) {
+                    texts.add(query.substring(last, m.start()));
+                    names.add(m.group(1));
+                    tokens.add(m.group());
+                    last = m.end();
+                }
+            }
+
+            texts.add(query.substring(last));
+        }
+
+        /**
+         * Appends the query, replacing each variable with its substitution; the variables
+         * without a substitution (i.e. null) are kept.
+         */
+        void appendTo(StringBuilder sb, Function<String, String> substitution) {
+            for (int i = 0; i < names.size(); i++) {
+                sb.append(texts.get(i));
+                String replacement = substitution.apply(names.get(i));
+                sb.append(replacement != null ? replacement : tokens.get(i));
+            }
+            sb.append(texts.get(names.size()));
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////
 
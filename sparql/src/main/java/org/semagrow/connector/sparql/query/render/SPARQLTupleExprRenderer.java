@@ -3,6 +3,9 @@ package org.semagrow.connector.sparql.query.render;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
 import org.eclipse.rdf4j.query.algebra.Difference;
 import org.eclipse.rdf4j.query.algebra.Filter;
 import org.eclipse.rdf4j.query.algebra.Intersection;
@@ -282,6 +285,35 @@ public class SPARQLTupleExprRenderer extends BaseTupleExprRenderer {
         ctxClose(theFilter);
     }
 
+    /**
+     * Renders the binding sets as an inline VALUES block.
+     */
+    @Override
+    public void meet(BindingSetAssignment theAssignment)
+            throws Exception
+    {
+        mJoinBuffer.append(indent()).append("values (");
+
+        for (String aName : theAssignment.getBindingNames()) {
+            mJoinBuffer.append(" ?").append(aName);
+        }
+
+        mJoinBuffer.append(" ) {\n");
+
+        for (BindingSet aBindings : theAssignment.getBindingSets()) {
+            mJoinBuffer.append(indent()).append("  (");
+
+            for (String aName : theAssignment.getBindingNames()) {
+                Value aValue = aBindings.getValue(aName);
+                mJoinBuffer.append(" ").append(aValue == null ? "UNDEF" : SPARQLQueryStringUtil.toSPARQL(aValue));
+            }
+
+            mJoinBuffer.append(" )\n");
+        }
+
+        mJoinBuffer.append(indent()).append("}\n");
+    }
+
     /**
      * @inheritDoc
      */
@@ -0,0 +1,257 @@
+package org.semagrow.connector.sparql.selector;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the answers of the ASK queries that are sent to the endpoints during
+ * source selection. Positive and negative answers expire after different periods,
+ * since a wrongly cached negative answer removes a relevant source while a wrongly
+ * cached positive answer only costs a useless request.
+ * <p>
+ * Positive answers that are about to expire are refreshed in the background and
+ * expired positive answers are still used while they are being refreshed.
+ * The answers can be persisted in a properties file, so that the cache is warm
+ * after a restart.
+ *
+ * @author acharal
+ */
+public class AskCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AskCache.class);
+
+    public static final long DEFAULT_POSITIVE_TTL = TimeUnit.DAYS.toMillis(1);
+
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final ConcurrentMap<String, Answer> answers = new ConcurrentHashMap<>();
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private volatile long positiveTTL = DEFAULT_POSITIVE_TTL;
+
+    private volatile long negativeTTL = DEFAULT_NEGATIVE_TTL;
+
+    private volatile boolean dirty = false;
+
+    private File file;
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "semagrow-ask-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AskCache() {
+        refresher.scheduleWithFixedDelay(this::saveIfDirty, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the cached answer to whether {@code endpoint} contains triples that match {@code pattern}.
+     * @param pattern the pattern to ask
+     * @param endpoint the endpoint to ask
+     * @param asker sends the ASK query to the endpoint, if the answer needs to be refreshed
+     *              in the background; returns null if the endpoint cannot answer
+     * @return the cached answer or null if the endpoint must be asked
+     */
+    public Boolean lookup(StatementPattern pattern, URL endpoint, Supplier<Boolean> asker) {
+        String key = key(pattern, endpoint);
+
+        Answer answer = answers.get(key);
+
+        if (answer == null)
+            return null;
+
+        long age = System.currentTimeMillis() - answer.timestamp;
+
+        if (answer.value) {
+            if (age > positiveTTL / 2)
+                refresh(key, asker);
+            return true;
+        }
+
+        return (age <= negativeTTL) ? false : null;
+    }
+
+    /**
+     * Records the answer of an ASK query; a null answer is ignored.
+     */
+    public void record(StatementPattern pattern, URL endpoint, Boolean value) {
+        if (value != null)
+            put(key(pattern, endpoint), value);
+    }
+
+    public void setPositiveTTL(long millis) { positiveTTL = millis; }
+
+    public long getPositiveTTL() { return positiveTTL; }
+
+    public void setNegativeTTL(long millis) { negativeTTL = millis; }
+
+    public long getNegativeTTL() { return negativeTTL; }
+
+    public void setFile(File file) { this.file = file; }
+
+    public File getFile() { return file; }
+
+    public int size() { return answers.size(); }
+
+    public void clear() { answers.clear(); dirty = true; }
+
+    /**
+     * Loads the answers that were saved in the file, skipping the ones that have expired.
+     */
+    public void load() {
+        if (file == null || !file.exists())
+            return;
+
+        Properties properties = new Properties();
+
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warn("Cannot load ASK answers from {}", file, e);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (String key : properties.stringPropertyNames()) {
+            String[] parts = properties.getProperty(key).split(",", 2);
+            try {
+                Answer answer = new Answer(Boolean.parseBoolean(parts[0]), Long.parseLong(parts[1]));
+                if (now - answer.timestamp <= (answer.value ? positiveTTL : negativeTTL))
+                    answers.putIfAbsent(key, answer);
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring invalid ASK answer for {}", key);
+            }
+        }
+        logger.info("Loaded {} ASK answers from {}", answers.size(), file);
+    }
+
+    /**
+     * Saves the answers in the file, if any.
+     */
+    public synchronized void save() {
+        if (file == null)
+            return;
+
+        dirty = false;
+
+        Properties properties = new Properties();
+
+        for (Map.Entry<String, Answer> e : answers.entrySet())
+            properties.setProperty(e.getKey(), e.getValue().value + "," + e.getValue().timestamp);
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "cached ASK answers");
+        } catch (IOException e) {
+            logger.warn("Cannot save ASK answers to {}", file, e);
+        }
+    }
+
+    /**
+     * Saves the answers and stops the background refreshing.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+        save();
+    }
+
+    private void put(String key, boolean value) {
+        answers.put(key, new Answer(value, System.currentTimeMillis()));
+        dirty = true;
+    }
+
+    private void refresh(String key, Supplier<Boolean> asker) {
+        if (!refreshing.add(key))
+            return;
+
+        try {
+            refresher.execute(() -> {
+                try {
+                    Boolean value = asker.get();
+                    if (value != null)
+                        put(key, value);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private void saveIfDirty() {
+        if (dirty)
+            save();
+    }
+
+    /**
+     * The answer of an ASK depends on the constants of the pattern, on which positions
+     * share the same variable and on whether the pattern is matched in a named graph.
+     * Hence, the variables are numbered by their first occurrence, so that patterns
+     * that differ only in the names of their variables share the same key.
+     */
+    private static String key(StatementPattern pattern, URL endpoint) {
+        StringBuilder sb = new StringBuilder(endpoint.toString());
+        List<String> names = new ArrayList<>(4);
+        sb.append(' ').append(pattern.getScope());
+        append(sb, pattern.getSubjectVar(), names);
+        append(sb, pattern.getPredicateVar(), names);
+        append(sb, pattern.getObjectVar(), names);
+        append(sb, pattern.getContextVar(), names);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, Var var, List<String> names) {
+        sb.append(' ');
+
+        if (var == null) {
+            sb.append('-');
+            return;
+        }
+
+        Value value = var.getValue();
+
+        if (value == null) {
+            int index = names.indexOf(var.getName());
+            if (index < 0) {
+                index = names.size();
+                names.add(var.getName());
+            }
+            sb.append('?').append(index);
+        }
+        else if (value instanceof IRI)
+            sb.append('<').append(value.stringValue()).append('>');
+        else
+            sb.append(value.toString());
+    }
+
+    private static final class Answer {
+
+        final boolean value;
+
+        final long timestamp;
+
+        Answer(boolean value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package org.semagrow.connector.sparql.selector;
 
 import org.semagrow.art.Loggable;
+import org.semagrow.connector.sparql.SPARQLSiteCapabilities;
+import org.semagrow.connector.sparql.config.SPARQLQueryExecutorConfig;
+import org.semagrow.connector.sparql.execution.ConnectionManager;
+import org.semagrow.connector.sparql.query.render.SPARQLQueryStringUtil;
+import org.semagrow.evaluation.QueryExecutor;
+import org.semagrow.evaluation.QueryExecutorConfigException;
+import org.semagrow.evaluation.QueryExecutorFactory;
+import org.semagrow.evaluation.QueryExecutorRegistry;
 import org.semagrow.selector.Site;
 import org.semagrow.selector.SourceMetadata;
 import org.semagrow.selector.SourceSelector;
@@ -13,20 +21,16 @@ import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
-import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
-import org.semagrow.connector.sparql.execution.SPARQLRepository;
 
 import java.net.URL;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
 
-
 /**
  * ASK Source Selector.
  * 
@@ -50,15 +54,46 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 	private org.slf4j.Logger logger =
 			org.slf4j.LoggerFactory.getLogger( AskSourceSelector.class );
 
+	// the maximum number of concurrent probes to an endpoint that does not define its own limit
+	private static final int DEFAULT_MAX_PROBES = 4;
+
+	static private final ExecutorService executor = Executors.newFixedThreadPool(32, (r) -> {
+		Thread t = new Thread(r, "semagrow-ask");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
 
-	static private ExecutorService executor;
+	static private ConnectionManager fallbackConnectionManager;
+
+	private AskCache cache;
+
+	private long timeout = 5000;
 
 	public AskSourceSelector( SourceSelector selector ) {
 
 		super( selector );
-		executor = Executors.newCachedThreadPool();
 	}
 
+	/**
+	 * @param selector The selector that provides the candidate data sources
+	 * @param cache The cache of the ASK answers, shared across queries
+	 */
+	public AskSourceSelector( SourceSelector selector, AskCache cache ) {
+
+		this( selector );
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which the sources that have not answered
+	 * are considered relevant.
+	 */
+	public void setTimeout( long millis ) { timeout = millis; }
+
+	public long getTimeout() { return timeout; }
+
 
 	/*
 	 * SourceSelector IMPLEMENTATION
@@ -69,16 +104,18 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 	public Collection<SourceMetadata> getSources(StatementPattern pattern, Dataset dataset, BindingSet bindings )
 	{
 		Collection<SourceMetadata> list = super.getSources( pattern, dataset, bindings );
-		return restrictSourceList( pattern, list );
+		return restrictSourceList( Collections.singletonMap(pattern, list) ).get(pattern);
 	}
 
-	private Collection<SourceMetadata> getSources( Iterable<StatementPattern> patterns, Dataset dataset, BindingSet bindings )
+	/**
+	 * Probes the candidate sources of all the patterns together, so that all the patterns
+	 * for the same endpoint are checked with a single request.
+	 */
+	@Override
+	public Map<StatementPattern, Collection<SourceMetadata>> getSources( Collection<StatementPattern> patterns, Dataset dataset, BindingSet bindings )
 	{
-		Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
-		for( StatementPattern p : patterns ) {
-			list.addAll( this.getSources(p, dataset, bindings) );
-		}
-		return list;
+		Map<StatementPattern, Collection<SourceMetadata>> candidates = super.getSources( patterns, dataset, bindings );
+		return restrictSourceList( candidates );
 	}
 
 	@Override
@@ -89,7 +126,12 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 		}
 
 		Collection<StatementPattern> patterns  = StatementPatternCollector.process( expr );
-		return getSources( patterns, dataset, bindings );
+
+		Collection<SourceMetadata> list = new LinkedList<SourceMetadata>();
+		for( Collection<SourceMetadata> l : getSources( patterns, dataset, bindings ).values() ) {
+			list.addAll( l );
+		}
+		return list;
 	}
 
 
@@ -100,64 +142,211 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 
 
 	/**
-	 * This method returns a list of {link SourceMetadata} objects that refer to data sources that
-	 * contain at least one triple that matches {@code pattern}. The input {@code list} of candidate
-	 * data sources is not modified.
+	 * This method returns, for each pattern, the list of {link SourceMetadata} objects that refer to
+	 * data sources that contain at least one triple that matches the pattern. The input lists of candidate
+	 * data sources are not modified.
+	 * <p>
+	 * All the patterns that must be checked against the same endpoint are sent in a single request,
+	 * and the endpoints are probed in parallel. Endpoints that have not answered within the timeout
+	 * are considered relevant.
 	 * <p>
 	 * This method is the entry point to the specific functionality of this class, and all the methods
 	 * above that implement the SourceSelector interface must use this method. This allows all performance
 	 * related logging to be implemented here.
-	 * @param pattern The triple pattern that guides data source selection
-	 * @param list The list of candidate data sources
-	 * @return The subset of the data sources in list that contain triples matching the pattern
+	 * @param candidates The candidate data sources of each triple pattern
+	 * @return The subset of the candidate data sources of each pattern that contain matching triples
 	 */
 	 @Loggable
-	 private Collection<SourceMetadata> restrictSourceList( StatementPattern pattern, Collection<SourceMetadata> list )
+	 private Map<StatementPattern, Collection<SourceMetadata>> restrictSourceList( Map<StatementPattern, Collection<SourceMetadata>> candidates )
 	 {
-		 Collection<SourceMetadata> restrictedList = new LinkedList<SourceMetadata>();
+		 long deadline = System.currentTimeMillis() + timeout;
+
+		 Map<String, Map<StatementPattern, Boolean>> answers = new HashMap<>();
+		 Map<String, URL> endpoints = new HashMap<>();
+
+		 for (Map.Entry<StatementPattern, Collection<SourceMetadata>> e : candidates.entrySet()) {
+			 StatementPattern pattern = e.getKey();
+
+			 for (SourceMetadata metadata : e.getValue()) {
+				 URL url = getURL(metadata);
 
-		 Collection<Callable<SourceMetadata>> todo = new LinkedList<Callable<SourceMetadata>>();
+				 if (url == null)
+					 continue;
 
-		 for(SourceMetadata metadata : list) {
-			 Collection<Site> sources = metadata.getSites();
-			 SourceMetadata m = metadata;
+				 Map<StatementPattern, Boolean> endpointAnswers =
+						 answers.computeIfAbsent(url.toString(), k -> new LinkedHashMap<>());
 
-			 Callable<SourceMetadata> f = () -> {
-				 if (sources.iterator().next() instanceof SPARQLSite) {
-					 boolean ask = askPattern(pattern, ((SPARQLSite) sources.iterator().next()).getURL(), false);
-					 return ask ? m : null;
+				 if (!endpointAnswers.containsKey(pattern)) {
+					 Boolean cached = (cache != null) ?
+							 cache.lookup(pattern, url, () -> askPattern(pattern, url, false)) : null;
+					 endpointAnswers.put(pattern, cached);
 				 }
-				 else {
-					 return m;
+				 endpoints.put(url.toString(), url);
+			 }
+		 }
+
+		 Map<String, Future<Map<StatementPattern, Boolean>>> probes = new HashMap<>();
+
+		 for (Map.Entry<String, Map<StatementPattern, Boolean>> e : answers.entrySet()) {
+			 URL url = endpoints.get(e.getKey());
+			 List<StatementPattern> unknown = new ArrayList<>();
+
+			 for (Map.Entry<StatementPattern, Boolean> a : e.getValue().entrySet()) {
+				 if (a.getValue() == null)
+					 unknown.add(a.getKey());
+			 }
+
+			 if (!unknown.isEmpty())
+				 probes.put(e.getKey(), executor.submit(() -> probe(url, unknown, deadline)));
+		 }
+
+		 for (Map.Entry<String, Future<Map<StatementPattern, Boolean>>> e : probes.entrySet()) {
+			 Future<Map<StatementPattern, Boolean>> fut = e.getValue();
+			 try {
+				 Map<StatementPattern, Boolean> probed =
+						 fut.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+				 answers.get(e.getKey()).putAll(probed);
+
+				 if (cache != null) {
+					 URL url = endpoints.get(e.getKey());
+					 for (Map.Entry<StatementPattern, Boolean> a : probed.entrySet())
+						 cache.record(a.getKey(), url, a.getValue());
 				 }
-			 };
+			 } catch (TimeoutException ex) {
+				 logger.info( "Source {} did not answer within {}ms, assuming it is relevant", e.getKey(), timeout );
+				 fut.cancel(true);
+			 } catch (ExecutionException ex) {
+				 logger.info( "AskSourceSelector Future execution", ex);
+			 } catch (InterruptedException ex) {
+				 logger.info( "AskSourceSelector interrupted", ex);
+				 Thread.currentThread().interrupt();
+				 break;
+			 }
+		 }
+
+		 Map<StatementPattern, Collection<SourceMetadata>> restricted = new LinkedHashMap<>();
 
-			 todo.add(f);
+		 for (Map.Entry<StatementPattern, Collection<SourceMetadata>> e : candidates.entrySet()) {
+			 Collection<SourceMetadata> restrictedList = new LinkedList<SourceMetadata>();
+
+			 for (SourceMetadata metadata : e.getValue()) {
+				 URL url = getURL(metadata);
+				 Boolean answer = (url == null) ? null : answers.get(url.toString()).get(e.getKey());
+
+				 // keep the source unless it has been established that it is irrelevant
+				 if (!Boolean.FALSE.equals(answer))
+					 restrictedList.add(metadata);
+			 }
+			 restricted.put(e.getKey(), restrictedList);
 		 }
 
+		 return restricted;
+	 }
+
+	 private static URL getURL( SourceMetadata metadata ) {
+		 Site site = metadata.getSites().iterator().next();
+		 return (site instanceof SPARQLSite) ? ((SPARQLSite) site).getURL() : null;
+	 }
+
+	 /**
+	  * Checks the given patterns against a single endpoint, waiting for a free slot of the endpoint
+	  * until the deadline. More than one patterns are checked with a single SELECT query that returns
+	  * one flag per pattern; if the endpoint cannot answer it, the patterns are asked one by one.
+	  * @return the answer for each pattern; null if the answer could not be established
+	  */
+	 private Map<StatementPattern, Boolean> probe( URL source, List<StatementPattern> patterns, long deadline )
+			 throws InterruptedException
+	 {
+		 Map<StatementPattern, Boolean> result = new HashMap<>();
+
+		 Semaphore semaphore = permits.computeIfAbsent(source.toString(), k -> {
+			 int max = SPARQLSiteCapabilities.of(source).getMaxInflightRequests();
+			 return new Semaphore(max > 0 ? max : DEFAULT_MAX_PROBES);
+		 });
+
+		 if (!semaphore.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+			 return result;
+
 		 try {
-			 List<Future<SourceMetadata>> list1 = executor.invokeAll(todo);
-			 for (Future<SourceMetadata> fut : list1) {
-				 if (fut.isDone()) {
-					 SourceMetadata m = null;
-					 try {
-						 m = fut.get();
-					 } catch (ExecutionException e) {
-						 logger.info( "AskSourceSelector Future execution", e);
-					 }
-					 if (m != null) {
-						 restrictedList.add(m);
-					 }
-				 }
+			 if (patterns.size() > 1)
+				 result.putAll(askPatterns(patterns, source));
+
+			 for (StatementPattern pattern : patterns) {
+				 if (!result.containsKey(pattern) && System.currentTimeMillis() < deadline)
+					 result.put(pattern, askPattern(pattern, source, false));
 			 }
+		 } finally {
+			 semaphore.release();
+		 }
+
+		 return result;
+	 }
+
+	 /**
+	  * Checks with a single query which of the given patterns have matches in a SPARQL endpoint.
+	  * @return the answer for each pattern, or an empty map if the query failed
+	  */
+	 private Map<StatementPattern, Boolean> askPatterns( List<StatementPattern> patterns, URL source )
+	 {
+		 Map<StatementPattern, Boolean> result = new HashMap<>();
+
+		 ConnectionManager connectionManager = getConnectionManager();
+		 RepositoryConnection conn = null;
+
+		 try {
+			 conn = connectionManager.getConnection(source);
+
+			 String qs = SPARQLQueryStringUtil.buildSPARQLQueryPROBE(patterns);
+			 TupleQuery q = conn.prepareTupleQuery( org.eclipse.rdf4j.query.QueryLanguage.SPARQL, qs );
 
-		 } catch (InterruptedException e) {
-			 logger.info( "AskSourceSelector interrupted", e);
+			 try (TupleQueryResult r = q.evaluate()) {
+				 if (r.hasNext()) {
+					 BindingSet b = r.next();
+					 for (int i = 0; i < patterns.size(); i++)
+						 result.put(patterns.get(i), b.hasBinding(SPARQLQueryStringUtil.PROBE_BINDING_PREFIX + i));
+				 }
+			 }
+		 }
+		 catch( org.eclipse.rdf4j.repository.RepositoryException |
+				 org.eclipse.rdf4j.query.MalformedQueryException |
+				 org.eclipse.rdf4j.query.QueryEvaluationException ex ) {
+			 // Some endpoints do not support subqueries; ask the patterns one by one
+			 logger.debug( "Failed to probe source {} for {} patterns. Exception: {}",
+					 source, patterns.size(), ex.getMessage() );
+			 result.clear();
+		 }
+		 finally {
+			 if (conn != null)
+				 connectionManager.closeQuietly(conn);
 		 }
 
-		 return restrictedList;
+		 return result;
 	 }
 
+	 /**
+	  * The ASK queries are sent through the pooled connections of the SPARQL query executor.
+	  */
+	 private static ConnectionManager getConnectionManager()
+	 {
+		 Optional<QueryExecutorFactory> factory = QueryExecutorRegistry.getInstance().get(SPARQLQueryExecutorConfig.TYPE);
+
+		 if (factory.isPresent()) {
+			 try {
+				 QueryExecutor executor = factory.get().getQueryExecutor(null);
+				 if (executor instanceof ConnectionManager)
+					 return (ConnectionManager) executor;
+			 } catch (QueryExecutorConfigException e) { }
+		 }
+
+		 synchronized (AskSourceSelector.class) {
+			 if (fallbackConnectionManager == null) {
+				 fallbackConnectionManager = new ConnectionManager();
+				 fallbackConnectionManager.initialize();
+			 }
+			 return fallbackConnectionManager;
+		 }
+	 }
 
 	 /**
 	  * This method checks if a SPARQL endpoint serves at least one triple that matches {@pattern}.
@@ -168,27 +357,26 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 	  * @param pattern The triple pattern to check
 	  * @param source The URL of the SPARQL endpoint
 	  * @param boolean allow_select If true, then the method is allowed to fall back to SELECT
-	  * @return false if it has been established that {@code source} does not contain any matching triples, true otherwise
+	  * @return whether {@code source} contains matching triples, or null if that could not be established
 	  */
 
-	 private boolean askPattern(StatementPattern pattern, URL source, boolean allow_select )
+	 private Boolean askPattern(StatementPattern pattern, URL source, boolean allow_select )
 	 {
 
 		 boolean retv;
+		 boolean answered = false;
 
 		 Value s = pattern.getSubjectVar().getValue();
 		 Value p = pattern.getPredicateVar().getValue();
 		 Value o = pattern.getObjectVar().getValue();
 		 Value c = pattern.getContextVar() != null ? pattern.getContextVar().getValue() : null;
 
-		 Repository rep;
+		 ConnectionManager connectionManager = getConnectionManager();
 
 		 retv = true;
-		 rep = new SPARQLRepository( source.toString() );
 		 RepositoryConnection conn = null;
 		 try {
-			 rep.initialize();
-			 conn = rep.getConnection();
+			 conn = connectionManager.getConnection(source);
 		 }
 		 catch( org.eclipse.rdf4j.repository.RepositoryException ex ) {
 			 // Failed to contact source
@@ -204,6 +392,7 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 						 conn.hasStatement( (Resource)s, (IRI)p, o, true, (IRI) c ) :
 						 conn.hasStatement( (Resource)s, (IRI)p, o, true);
 
+				 answered = true;
 				 allow_select = false; // No need to use this any more
 			 }
 			 catch( org.eclipse.rdf4j.repository.RepositoryException ex ) {
@@ -243,6 +432,7 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 
 			 try {
 				 retv = q.evaluate().hasNext();
+				 answered = true;
 			 }
 			 catch( org.eclipse.rdf4j.query.QueryEvaluationException ex ) {
 				 // Failed to contact source
@@ -254,11 +444,11 @@ public class AskSourceSelector extends SourceSelectorWrapper implements SourceSe
 
 		 }
 
-		 try { conn.close(); }
-		 catch( NullPointerException ex ) { /* NPOP: the connection failed to open above */ }
-		 catch( org.eclipse.rdf4j.repository.RepositoryException ex ) { }
+		 if( conn != null ) {
+			 connectionManager.closeQuietly(conn);
+		 }
 
-		 return retv;
+		 return answered ? retv : null;
 	 }
 
 }
@@ -0,0 +1,180 @@
+package org.semagrow.connector.sparql.selector;
+
+import org.semagrow.connector.sparql.execution.ConnectionManager;
+import org.semagrow.selector.BloomFilter;
+import org.semagrow.selector.SourceSummaries;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the {@link SourceSummaries} of a set of SPARQL endpoints by scanning their triples.
+ * <p>
+ * Usage: {@code SourceSummarizer [-fpp 0.01] [-page 10000] summaries.bin endpoint...}
+ * <p>
+ * The summaries of the endpoints that are already in the output file and are not scanned
+ * again are kept. The triples of each predicate are fetched in ordered pages with LIMIT and
+ * OFFSET. If the number of scanned triples of a predicate differs from the count that the
+ * endpoint reports, the pages were not consistent and the summary of that predicate is not
+ * kept; neither is the summary over all the triples of the endpoint, since it would reject
+ * values that were missed.
+ *
+ * @author acharal
+ */
+public class SourceSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceSummarizer.class);
+
+    private double fpp = 0.01;
+
+    private int pageSize = 10000;
+
+    private final ConnectionManager connectionManager = new ConnectionManager();
+
+    public static void main(String[] args) throws IOException {
+
+        SourceSummarizer summarizer = new SourceSummarizer();
+        List<String> files = new LinkedList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-fpp") && i + 1 < args.length)
+                summarizer.setFalsePositiveProbability(Double.parseDouble(args[++i]));
+            else if (args[i].equals("-page") && i + 1 < args.length)
+                summarizer.setPageSize(Integer.parseInt(args[++i]));
+            else
+                files.add(args[i]);
+        }
+
+        if (files.size() < 2) {
+            System.err.println("Usage: SourceSummarizer [-fpp 0.01] [-page 10000] summaries.bin endpoint...");
+            System.exit(1);
+        }
+
+        File output = new File(files.remove(0));
+
+        SourceSummaries summaries = output.exists() ? SourceSummaries.load(output) : new SourceSummaries();
+
+        try {
+            for (String endpoint : files)
+                summarizer.summarize(new URL(endpoint), summaries);
+        } finally {
+            summarizer.connectionManager.shutdown();
+        }
+
+        summaries.save(output);
+        logger.info("Saved the summaries of {} endpoints to {}", summaries.getEndpoints().size(), output);
+    }
+
+    public void setFalsePositiveProbability(double fpp) { this.fpp = fpp; }
+
+    public void setPageSize(int pageSize) { this.pageSize = Math.max(1, pageSize); }
+
+    /**
+     * Scans the triples of {@code endpoint} and replaces its summaries in {@code summaries}.
+     */
+    public void summarize(URL endpoint, SourceSummaries summaries) {
+        RepositoryConnection conn = connectionManager.getConnection(endpoint);
+
+        try {
+            Map<IRI, Long> predicates = getPredicates(conn);
+
+            long total = 0;
+            for (long n : predicates.values())
+                total += n;
+
+            logger.info("Summarizing {} triples of {} predicates of {}", total, predicates.size(), endpoint);
+
+            BloomFilter allSubjects = new BloomFilter(total, fpp);
+            BloomFilter allObjects = new BloomFilter(total, fpp);
+
+            summaries.remove(endpoint.toString());
+
+            boolean complete = true;
+
+            for (Map.Entry<IRI, Long> e : predicates.entrySet()) {
+                BloomFilter subjects = new BloomFilter(e.getValue(), fpp);
+                BloomFilter objects = new BloomFilter(e.getValue(), fpp);
+
+                String qs = "SELECT ?s ?o WHERE { ?s <" + e.getKey().stringValue() + "> ?o } ORDER BY ?s ?o";
+
+                long scanned = 0;
+
+                for (long offset = 0; ; offset += pageSize) {
+                    TupleQuery q = conn.prepareTupleQuery(QueryLanguage.SPARQL,
+                            qs + " LIMIT " + pageSize + " OFFSET " + offset);
+
+                    int rows = 0;
+                    try (TupleQueryResult r = q.evaluate()) {
+                        while (r.hasNext()) {
+                            BindingSet b = r.next();
+                            add(b.getValue("s"), subjects, allSubjects);
+                            add(b.getValue("o"), objects, allObjects);
+                            rows++;
+                        }
+                    }
+
+                    scanned += rows;
+
+                    if (rows < pageSize)
+                        break;
+                }
+
+                if (scanned != e.getValue()) {
+                    logger.warn("Scanned {} of the {} triples of {} in {}; its summary is skipped",
+                            scanned, e.getValue(), e.getKey(), endpoint);
+                    complete = false;
+                    continue;
+                }
+
+                summaries.put(endpoint.toString(), e.getKey(), subjects, objects);
+            }
+
+            if (complete)
+                summaries.put(endpoint.toString(), null, allSubjects, allObjects);
+            else
+                logger.warn("The summary over all the triples of {} is skipped", endpoint);
+        } finally {
+            connectionManager.closeQuietly(conn);
+        }
+    }
+
+    private Map<IRI, Long> getPredicates(RepositoryConnection conn) {
+        Map<IRI, Long> predicates = new LinkedHashMap<>();
+
+        TupleQuery q = conn.prepareTupleQuery(QueryLanguage.SPARQL,
+                "SELECT ?p (COUNT(*) AS ?n) WHERE { ?s ?p ?o } GROUP BY ?p");
+
+        try (TupleQueryResult r = q.evaluate()) {
+            while (r.hasNext()) {
+                BindingSet b = r.next();
+                Value p = b.getValue("p");
+                Value n = b.getValue("n");
+                if (p instanceof IRI && n != null)
+                    predicates.put((IRI) p, Long.parseLong(n.stringValue()));
+            }
+        }
+        return predicates;
+    }
+
+    private static void add(Value value, BloomFilter filter, BloomFilter all) {
+        String key = SourceSummaries.key(value);
+        if (key != null) {
+            filter.put(key);
+            all.put(key);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.semagrow.connector.sparql.query.render
+
+import org.eclipse.rdf4j.model.Literal
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.And
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment
+import org.eclipse.rdf4j.query.algebra.Filter
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.Or
+import org.eclipse.rdf4j.query.algebra.Projection
+import org.eclipse.rdf4j.query.algebra.ProjectionElem
+import org.eclipse.rdf4j.query.algebra.ProjectionElemList
+import org.eclipse.rdf4j.query.algebra.SameTerm
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.ValueConstant
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.impl.MapBindingSet
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParserFactory
+import org.semagrow.plan.operators.SourceQuery
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.semagrow.connector.sparql.query.render.SPARQLQueryStringUtil.INDEX_BINDING_NAME
+
+class SPARQLQueryStringUtilSpec extends Specification {
+
+    static vf = SimpleValueFactory.getInstance()
+
+    static A = vf.createIRI("http://ex.org/a")
+    static B = vf.createIRI("http://ex.org/b")
+    static C = vf.createLiteral("c", "en")
+    static D = vf.createLiteral(5)
+
+    /**
+     * The argument of a source query, so that the query template of the expression is cached.
+     */
+    def expr(String where) {
+        def parsed = new SPARQLParserFactory().getParser().parseQuery("SELECT * WHERE { " + where + " }", "http://test")
+        def query = new SourceQuery(((Projection) parsed.getTupleExpr()).getArg(), null)
+        query.getArg()
+    }
+
+    def bindings(List<Map<String, ?>> rows) {
+        rows.collect { row ->
+            def b = new MapBindingSet()
+            row.each { name, value -> b.addBinding(name, value) }
+            b
+        }
+    }
+
+    static Set<String> vars(TupleExpr expr) {
+        Set<String> res = new HashSet<>()
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            void meet(Var node) {
+                if (!node.hasValue() && !node.isAnonymous())
+                    res.add(node.getName())
+            }
+        })
+        res
+    }
+
+    static String render(TupleExpr expr, Collection<String> projection) {
+        def elems = new ProjectionElemList()
+        projection.each { elems.addElement(new ProjectionElem(it)) }
+        new SPARQLQueryRenderer().render(new ParsedTupleQuery(new Projection(expr, elems)))
+    }
+
+    /**
+     * The VALUES query as it used to be rendered from the algebra for every batch.
+     */
+    static String valuesQuery(TupleExpr expr, List<BindingSet> bindings, List<String> relevant) {
+        def names = new LinkedHashSet<String>([INDEX_BINDING_NAME] + relevant)
+        def rows = []
+        bindings.eachWithIndex { b, i ->
+            def row = new MapBindingSet()
+            row.addBinding(INDEX_BINDING_NAME, vf.createLiteral(i))
+            relevant.each { if (b.getValue(it) != null) row.addBinding(it, b.getValue(it)) }
+            rows << row
+        }
+        def values = new BindingSetAssignment()
+        values.setBindingNames(names)
+        values.setBindingSets(rows)
+
+        def free = new LinkedHashSet<String>(vars(expr))
+        free.removeAll(relevant)
+        free.add(INDEX_BINDING_NAME)
+
+        render(new Join(expr.clone(), values), free)
+    }
+
+    /**
+     * The FILTER query as it used to be rendered from the algebra for every batch.
+     */
+    static String filterQuery(TupleExpr expr, List<BindingSet> bindings, List<String> relevant) {
+        def condition = null
+        def rows = new LinkedHashSet(bindings.collect { b -> relevant.collect { b.getValue(it) } })
+        for (row in rows) {
+            def conjunction = null
+            relevant.eachWithIndex { name, i ->
+                if (row[i] != null) {
+                    def term = new SameTerm(new Var(name), new ValueConstant(row[i]))
+                    conjunction = (conjunction == null) ? term : new And(conjunction, term)
+                }
+            }
+            if (conjunction == null) {
+                condition = null
+                break
+            }
+            condition = (condition == null) ? conjunction : new Or(condition, conjunction)
+        }
+
+        def query = expr.clone()
+        if (condition != null)
+            query = new Filter(query, condition)
+        render(query, vars(expr))
+    }
+
+    static final PATTERNS = [
+            "?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z",
+            "?x <http://ex.org/p> ?y FILTER (?y > 3)",
+            "GRAPH <http://ex.org/g> { ?x <http://ex.org/p> ?y . ?y <http://ex.org/q> ?z }",
+            "?x <http://ex.org/p> ?y OPTIONAL { ?y <http://ex.org/q> ?z }",
+    ]
+
+    static final BATCHES = [
+            [[y: A], [y: B]],
+            [[x: A, z: C], [x: B], [x: A, z: D]],
+    ]
+
+    static final RELEVANT = [["y"], ["x", "z"]]
+
+    @Unroll
+    def "a VALUES bind join query of #pattern is the query of the algebra of each batch" () {
+        setup :
+            def e = expr(pattern)
+        expect :
+            [0, 1].every { i ->
+                def b = bindings(BATCHES[i])
+                SPARQLQueryStringUtil.buildSPARQLQueryVALUES(e, b, RELEVANT[i]) == valuesQuery(e, b, RELEVANT[i])
+            }
+        where :
+            pattern << PATTERNS
+    }
+
+    @Unroll
+    def "a FILTER bind join query of #pattern is the query of the algebra of each batch" () {
+        setup :
+            def e = expr(pattern)
+        expect :
+            [0, 1].every { i ->
+                def b = bindings(BATCHES[i])
+                SPARQLQueryStringUtil.buildSPARQLQueryFILTER(e, b, RELEVANT[i]) == filterQuery(e, b, RELEVANT[i])
+            }
+        where :
+            pattern << PATTERNS
+    }
+
+    def "a FILTER bind join query is not filtered when a binding does not restrict the relevant variables" () {
+        setup :
+            def e = expr(PATTERNS[0])
+            def b = bindings([[y: A], [x: A]])
+        expect :
+            SPARQLQueryStringUtil.buildSPARQLQueryFILTER(e, b, ["y"]) == filterQuery(e, b, ["y"])
+            !SPARQLQueryStringUtil.buildSPARQLQueryFILTER(e, b, ["y"]).contains("filter")
+    }
+
+    static TupleExpr parse(String query) {
+        new SPARQLParserFactory().getParser().parseQuery(query, "http://test").getTupleExpr()
+    }
+
+    static List<BindingSetAssignment> valuesBlocks(TupleExpr expr) {
+        List<BindingSetAssignment> res = []
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            void meet(BindingSetAssignment node) { res.add(node) }
+        })
+        res
+    }
+
+    @Unroll
+    def "a VALUES bind join query of #pattern projects the free variables and the index of each input binding" () {
+        setup :
+            def e = expr(pattern)
+        expect :
+            [0, 1].every { i ->
+                def b = bindings(BATCHES[i])
+                def parsed = parse(SPARQLQueryStringUtil.buildSPARQLQueryVALUES(e, b, RELEVANT[i]))
+                def values = valuesBlocks(parsed)
+
+                parsed.getBindingNames() == (vars(e) - RELEVANT[i] + INDEX_BINDING_NAME) as Set &&
+                values.size() == 1 &&
+                values[0].getBindingNames() == ([INDEX_BINDING_NAME] + RELEVANT[i]) as Set &&
+                values[0].getBindingSets().toList().withIndex().every { row, j ->
+                    ((Literal) row.getValue(INDEX_BINDING_NAME)).intValue() == j &&
+                    RELEVANT[i].every { row.getValue(it) == b[j].getValue(it) }
+                } &&
+                values[0].getBindingSets().toList().size() == b.size()
+            }
+        where :
+            pattern << PATTERNS
+    }
+
+    @Unroll
+    def "a FILTER bind join query of #pattern projects all the variables of the subquery" () {
+        setup :
+            def e = expr(pattern)
+        expect :
+            [0, 1].every { i ->
+                def b = bindings(BATCHES[i])
+                def parsed = parse(SPARQLQueryStringUtil.buildSPARQLQueryFILTER(e, b, RELEVANT[i]))
+
+                parsed.getBindingNames() == vars(e) &&
+                !parsed.getBindingNames().contains(INDEX_BINDING_NAME)
+            }
+        where :
+            pattern << PATTERNS
+    }
+
+    static final UNION_BATCHES = [
+            [[y: A], [y: B]],
+            [[x: A, z: C], [x: B, z: D]],
+    ]
+
+    @Unroll
+    def "a UNION bind join query of #pattern projects the free variables once per input binding" () {
+        setup :
+            def e = expr(pattern)
+        expect :
+            [0, 1].every { i ->
+                def b = bindings(UNION_BATCHES[i])
+                def parsed = parse(SPARQLQueryStringUtil.buildSPARQLQueryUNION(e, b, new ArrayList<>(RELEVANT[i])))
+                def free = vars(e) - RELEVANT[i]
+
+                parsed.getBindingNames() == (1..b.size()).collectMany { j -> free.collect { it + "_" + j } } as Set
+            }
+        where :
+            pattern << PATTERNS
+    }
+
+    def "a UNION bind join query without free variables projects the relevant variables once per input binding" () {
+        setup :
+            def e = expr("?x <http://ex.org/p> ?y")
+            def b = bindings([[x: A, y: B], [x: B, y: A]])
+        when :
+            def parsed = parse(SPARQLQueryStringUtil.buildSPARQLQueryUNION(e, b, ["x", "y"]))
+        then :
+            parsed.getBindingNames() == ["x_1", "y_1", "x_2", "y_2"] as Set
+    }
+
+    def "the variables of a probe query are renamed by position so that distinct variables stay distinct" () {
+        setup :
+            def pattern = new StatementPattern(new Var("-anon-1"), new Var("p", A), new Var("_anon_1"))
+            def query = SPARQLQueryStringUtil.buildSPARQLQueryPROBE([pattern])
+        when :
+            new SPARQLParserFactory().getParser().parseQuery(query, "http://test")
+        then :
+            notThrown(Exception)
+            query.contains("?v0 <http://ex.org/a> ?v1")
+    }
+
+    def "a variable that occurs twice in a probe pattern is renamed once" () {
+        setup :
+            def pattern = new StatementPattern(new Var("-x"), new Var("p", A), new Var("-x"))
+        expect :
+            SPARQLQueryStringUtil.buildSPARQLQueryPROBE([pattern]).contains("?v0 <http://ex.org/a> ?v0")
+    }
+}